@@ -7,13 +7,16 @@ import me.insidezhou.southernquiet.file.web.model.IdHashAlgorithm;
 import me.insidezhou.southernquiet.file.web.model.ImageScale;
 import me.insidezhou.southernquiet.filesystem.FileSystem;
 import me.insidezhou.southernquiet.filesystem.InvalidFileException;
+import me.insidezhou.southernquiet.filesystem.ReactiveFileSystem;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.tika.Tika;
 import org.imgscalr.Scalr;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.web.ServerProperties;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -54,6 +57,7 @@ public class FileWebController {
     protected final Tika tika = new Tika();
 
     protected final FileSystem fileSystem;
+    protected ReactiveFileSystem reactiveFileSystem;
     protected final String contextPath;
     protected final FileWebFluxAutoConfiguration.Properties fileWebProperties;
 
@@ -69,6 +73,19 @@ public class FileWebController {
         this.fileWebProperties = fileWebProperties;
     }
 
+    public ReactiveFileSystem getReactiveFileSystem() {
+        return reactiveFileSystem;
+    }
+
+    /**
+     * 存在{@link ReactiveFileSystem}时，读取和下载文件不占用线程。
+     */
+    @SuppressWarnings("SpringJavaAutowiredMembersInspection")
+    @Autowired(required = false)
+    public void setReactiveFileSystem(ReactiveFileSystem reactiveFileSystem) {
+        this.reactiveFileSystem = reactiveFileSystem;
+    }
+
     public String getFileLinkPath(String filename) {
         String linkPathPrefix = fileWebProperties.getLinkPathPrefix();
         if (StringUtils.isEmpty(linkPathPrefix)) {
@@ -97,100 +114,45 @@ public class FileWebController {
     }
 
     public Mono<ResponseEntity<DataBuffer>> file(String id, String hashAlgorithm, ServerHttpRequest request) {
-        return Mono.just(ResponseEntity.ok())
-            .publishOn(reactorScheduler)
-            .handle((okResponseBuilder, sink) -> {
-                String path;
-                if (IdHashAlgorithm.sha1.equals(IdHashAlgorithm.getAlgorithm(hashAlgorithm))) {
-                    path = getFileLinkPath(id);
-                }
-                else {
-                    path = getFilePath(id);
-                }
+        String path = resolvePath(id, hashAlgorithm);
 
-                if (!fileSystem.exists(path)) {
-                    sink.error(new NotFoundException());
-                    return;
-                }
+        return exists(path)
+            .flatMap(exists -> {
+                if (!exists) return Mono.error(new NotFoundException());
 
                 if (!request.getHeaders().getIfNoneMatch().isEmpty()) {
-                    sink.next(ResponseEntity.status(HttpStatus.NOT_MODIFIED).build());
-                    return;
+                    return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).<DataBuffer>build());
                 }
 
-                InputStream resultStream;
-                try (InputStream inputStream = fileSystem.openReadStream(path)) {
-                    resultStream = new ByteArrayInputStream(StreamUtils.copyToByteArray(inputStream));
-                }
-                catch (InvalidFileException e) {
-                    sink.error(new IOException(e));
-                    return;
-                }
-                catch (IOException e) {
-                    sink.error(e);
-                    return;
-                }
-
-                try {
-                    String contentType = tika.detect(resultStream);
-                    resultStream.reset();
-
-                    var responseEntity = okResponseBuilder
-                        .contentLength(resultStream.available())
-                        .contentType(MediaType.parseMediaType(contentType))
-                        .eTag(id)
-                        .body(dataBufferFactory.wrap(StreamUtils.copyToByteArray(resultStream)));
-
-                    sink.next(responseEntity);
-                }
-                catch (IOException e) {
-                    sink.error(e);
-                }
+                return read(path).map(data -> ResponseEntity.ok()
+                    .contentLength(data.length)
+                    .contentType(MediaType.parseMediaType(tika.detect(data)))
+                    .eTag(id)
+                    .body(dataBufferFactory.wrap(data))
+                );
             });
     }
 
     public Mono<ResponseEntity<String>> base64file(String id, String hashAlgorithm, ServerHttpRequest request) {
-        return Mono.just(ResponseEntity.ok())
-            .publishOn(reactorScheduler)
-            .handle((okResponseBuilder, sink) -> {
-                String path;
-                if (IdHashAlgorithm.sha1.equals(IdHashAlgorithm.getAlgorithm(hashAlgorithm))) {
-                    path = getFileLinkPath(id);
-                }
-                else {
-                    path = getFilePath(id);
-                }
+        String path = resolvePath(id, hashAlgorithm);
 
-                if (!fileSystem.exists(path)) {
-                    sink.error(new NotFoundException());
-                    return;
-                }
+        return exists(path)
+            .flatMap(exists -> {
+                if (!exists) return Mono.error(new NotFoundException());
 
                 if (!request.getHeaders().getIfNoneMatch().isEmpty()) {
-                    sink.next(ResponseEntity.status(HttpStatus.NOT_MODIFIED).build());
-                    return;
-                }
-
-                String base64;
-                try (InputStream inputStream = fileSystem.openReadStream(path)) {
-                    base64 = Base64.encodeBase64String(StreamUtils.copyToByteArray(inputStream));
-                }
-                catch (InvalidFileException e) {
-                    sink.error(new IOException(e));
-                    return;
-                }
-                catch (IOException e) {
-                    sink.error(e);
-                    return;
+                    return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).<String>build());
                 }
 
-                var responseEntity = okResponseBuilder
-                    .contentLength(base64.length())
-                    .contentType(MediaType.TEXT_PLAIN)
-                    .eTag(id)
-                    .body(base64);
+                return read(path).map(data -> {
+                    String base64 = Base64.encodeBase64String(data);
 
-                sink.next(responseEntity);
+                    return ResponseEntity.ok()
+                        .contentLength(base64.length())
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .eTag(id)
+                        .body(base64);
+                });
             });
     }
 
@@ -200,78 +162,99 @@ public class FileWebController {
 
     @SuppressWarnings({"SameParameterValue", "unused"})
     protected Mono<ResponseEntity<DataBuffer>> image(String id, ImageScale scale, String hashAlgorithm, Scalr.Method scaleMethod, ServerHttpRequest request, ServerHttpResponse response) {
-        return Mono.just(ResponseEntity.ok())
-            .publishOn(reactorScheduler)
-            .handle((okResponseBuilder, sink) -> {
-                String path;
-                if (IdHashAlgorithm.sha1.equals(IdHashAlgorithm.getAlgorithm(hashAlgorithm))) {
-                    path = getFileLinkPath(id);
-                }
-                else {
-                    path = getFilePath(id);
-                }
-                if (!fileSystem.exists(path)) {
-                    sink.error(new NotFoundException());
-                    return;
-                }
+        String path = resolvePath(id, hashAlgorithm);
+
+        return exists(path)
+            .flatMap(exists -> {
+                if (!exists) return Mono.error(new NotFoundException());
 
                 if (!request.getHeaders().getIfNoneMatch().isEmpty()) {
-                    sink.next(ResponseEntity.status(HttpStatus.NOT_MODIFIED).build());
-                    return;
+                    return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).<DataBuffer>build());
                 }
 
-                InputStream resultStream;
-                try (InputStream inputStream = fileSystem.openReadStream(path)) {
-                    resultStream = new ByteArrayInputStream(StreamUtils.copyToByteArray(inputStream));
-                }
-                catch (InvalidFileException e) {
-                    sink.error(new IOException(e));
-                    return;
-                }
-                catch (IOException e) {
-                    sink.error(e);
-                    return;
-                }
+                //缩放图片是CPU密集的操作，不在IO线程中执行。
+                return read(path)
+                    .publishOn(reactorScheduler)
+                    .handle((data, sink) -> {
+                        String mediaType = tika.detect(data);
+                        if (!StringUtils.hasText(mediaType) || !mediaType.startsWith("image")) {
+                            sink.error(new NotFoundException());
+                            return;
+                        }
+
+                        try {
+                            if (null != scale) {
+                                BufferedImage image = Scalr.resize(
+                                    ImageIO.read(new ByteArrayInputStream(data)),
+                                    scaleMethod,
+                                    Scalr.Mode.AUTOMATIC,
+                                    scale.getWidth(),
+                                    scale.getHeight()
+                                );
+
+                                try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+                                    String subType = mediaType.split("/")[1];
+                                    ImageIO.write(image, subType, outputStream);
+
+                                    data = outputStream.toByteArray();
+                                }
+                            }
+                        }
+                        catch (IOException e) {
+                            sink.error(e);
+                            return;
+                        }
 
-                try {
-                    String mediaType = tika.detect(resultStream);
-                    resultStream.reset();
-
-                    if (!StringUtils.hasText(mediaType) || !mediaType.startsWith("image")) {
-                        sink.error(new NotFoundException());
-                        return;
-                    }
-
-                    if (null != scale) {
-                        BufferedImage image = Scalr.resize(
-                            ImageIO.read(resultStream),
-                            scaleMethod,
-                            Scalr.Mode.AUTOMATIC,
-                            scale.getWidth(),
-                            scale.getHeight()
+                        sink.next(ResponseEntity.ok()
+                            .contentLength(data.length)
+                            .contentType(MediaType.parseMediaType(mediaType))
+                            .eTag(id)
+                            .body(dataBufferFactory.wrap(data))
                         );
+                    });
+            });
+    }
 
-                        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-                            String subType = mediaType.split("/")[1];
-                            ImageIO.write(image, subType, outputStream);
+    protected String resolvePath(String id, String hashAlgorithm) {
+        if (IdHashAlgorithm.sha1.equals(IdHashAlgorithm.getAlgorithm(hashAlgorithm))) {
+            return getFileLinkPath(id);
+        }
+        else {
+            return getFilePath(id);
+        }
+    }
 
-                            resultStream.close();
-                            resultStream = new ByteArrayInputStream(outputStream.toByteArray());
-                        }
-                    }
+    protected Mono<Boolean> exists(String path) {
+        if (null != reactiveFileSystem) return reactiveFileSystem.exists(path);
 
-                    var responseEntity = okResponseBuilder
-                        .contentLength(resultStream.available())
-                        .contentType(MediaType.parseMediaType(mediaType))
-                        .eTag(id)
-                        .body(dataBufferFactory.wrap(StreamUtils.copyToByteArray(resultStream)));
+        return Mono.fromCallable(() -> fileSystem.exists(path)).subscribeOn(reactorScheduler);
+    }
+
+    /**
+     * 读取文件的全部内容。存在{@link ReactiveFileSystem}时以非阻塞方式读取，不占用线程，否则在reactorScheduler中读取。
+     */
+    protected Mono<byte[]> read(String path) {
+        if (null != reactiveFileSystem) {
+            return DataBufferUtils.join(reactiveFileSystem.read(path, dataBufferFactory))
+                .map(buffer -> {
+                    byte[] data = new byte[buffer.readableByteCount()];
+                    buffer.read(data);
+                    DataBufferUtils.release(buffer);
+                    return data;
+                })
+                .defaultIfEmpty(new byte[0])
+                .onErrorMap(InvalidFileException.class, IOException::new);
+        }
 
-                    sink.next(responseEntity);
+        return Mono.fromCallable(() -> {
+                try (InputStream inputStream = fileSystem.openReadStream(path)) {
+                    return StreamUtils.copyToByteArray(inputStream);
                 }
-                catch (IOException e) {
-                    sink.error(e);
+                catch (InvalidFileException e) {
+                    throw new IOException(e);
                 }
-            });
+            })
+            .subscribeOn(reactorScheduler);
     }
 
     protected void saveFile(String filename, InputStream data) {
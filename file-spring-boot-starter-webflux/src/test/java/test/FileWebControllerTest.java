@@ -5,12 +5,15 @@ import me.insidezhou.southernquiet.file.web.controller.FileWebController;
 import me.insidezhou.southernquiet.file.web.model.FileInfo;
 import me.insidezhou.southernquiet.file.web.model.IdHashAlgorithm;
 import me.insidezhou.southernquiet.filesystem.FileSystem;
+import me.insidezhou.southernquiet.filesystem.PathMeta;
+import me.insidezhou.southernquiet.filesystem.ReactiveFileSystem;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.reactivestreams.Publisher;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringBootConfiguration;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
@@ -23,6 +26,8 @@ import org.springframework.boot.test.autoconfigure.web.reactive.WebTestClientAut
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.ApplicationContext;
 import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.MultipartBodyBuilder;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -30,6 +35,8 @@ import org.springframework.test.web.reactive.server.EntityExchangeResult;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.util.StreamUtils;
 import org.springframework.util.SystemPropertyUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -39,6 +46,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @SuppressWarnings("ConstantConditions")
 @RunWith(SpringRunner.class)
@@ -65,6 +73,9 @@ public class FileWebControllerTest {
     @Autowired
     private ServerProperties serverProperties;
 
+    @Autowired
+    private FileWebTest.MainController mainController;
+
     private final FileSystemResource resource = new FileSystemResource("src/test/resources/test.png");
     private String base64EncodedFile;
     private String contextPath;
@@ -78,6 +89,40 @@ public class FileWebControllerTest {
         base64EncodedFile = Base64.encodeBase64String(data);
     }
 
+    @Test
+    public void reactiveFileSystem() {
+        Assert.assertNotNull(mainController.getReactiveFileSystem());
+    }
+
+    @Test
+    public void reactiveDownload() throws Exception {
+        MultipartBodyBuilder builder = new MultipartBodyBuilder();
+        builder.part("files", resource, MediaType.IMAGE_PNG);
+
+        FileInfo fileInfo = uploadAssert(builder, "upload");
+
+        ReactiveFileSystem reactiveFileSystem = mainController.getReactiveFileSystem();
+        CountingReactiveFileSystem counting = new CountingReactiveFileSystem(reactiveFileSystem);
+        mainController.setReactiveFileSystem(counting);
+
+        try {
+            EntityExchangeResult<byte[]> result = client.get()
+                .uri("/file/{id}", fileInfo.getId())
+                .exchange()
+                .expectStatus().is2xxSuccessful()
+                .expectHeader().contentLength(resource.contentLength())
+                .expectHeader().contentTypeCompatibleWith(MediaType.IMAGE_PNG)
+                .expectBody()
+                .returnResult();
+
+            Assert.assertArrayEquals(StreamUtils.copyToByteArray(resource.getInputStream()), result.getResponseBody());
+            Assert.assertEquals(1, counting.reads.get());
+        }
+        finally {
+            mainController.setReactiveFileSystem(reactiveFileSystem);
+        }
+    }
+
     @Test
     public void upload() {
         MultipartBodyBuilder builder = new MultipartBodyBuilder();
@@ -221,4 +266,34 @@ public class FileWebControllerTest {
             .exchange()
             .expectStatus().isNotModified();
     }
+
+    private static class CountingReactiveFileSystem implements ReactiveFileSystem {
+        private final ReactiveFileSystem delegate;
+        private final AtomicInteger reads = new AtomicInteger();
+
+        private CountingReactiveFileSystem(ReactiveFileSystem delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Mono<Void> put(String path, Publisher<DataBuffer> data) {
+            return delegate.put(path, data);
+        }
+
+        @Override
+        public Flux<DataBuffer> readRange(String path, long offset, long length, DataBufferFactory bufferFactory, int bufferSize) {
+            reads.incrementAndGet();
+            return delegate.readRange(path, offset, length, bufferFactory, bufferSize);
+        }
+
+        @Override
+        public <M extends PathMeta> Mono<M> meta(String path) {
+            return delegate.meta(path);
+        }
+
+        @Override
+        public Mono<Void> delete(String path) {
+            return delegate.delete(path);
+        }
+    }
 }
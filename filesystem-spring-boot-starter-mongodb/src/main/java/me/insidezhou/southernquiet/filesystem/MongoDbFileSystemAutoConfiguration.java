@@ -2,16 +2,25 @@ package me.insidezhou.southernquiet.filesystem;
 
 import me.insidezhou.southernquiet.Constants;
 import me.insidezhou.southernquiet.filesystem.driver.MongoDbFileSystem;
+import me.insidezhou.southernquiet.filesystem.driver.ReactiveMongoDbFileSystem;
 import org.springframework.boot.autoconfigure.AutoConfigureOrder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
 import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
 import org.springframework.data.mongodb.gridfs.GridFsOperations;
 
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
 @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
 @Configuration
 @EnableConfigurationProperties
@@ -23,6 +32,20 @@ public class MongoDbFileSystemAutoConfiguration {
         return new MongoDbFileSystem(properties, mongoOperations, gridFsOperations, factory.getMongoDatabase());
     }
 
+    /**
+     * 类路径中存在mongodb响应式驱动时启用{@link ReactiveMongoDbFileSystem}。
+     */
+    @Configuration
+    @ConditionalOnClass(name = "com.mongodb.reactivestreams.client.MongoClient")
+    @Conditional(FileSystemDecoratorCondition.class)
+    public static class ReactiveConfiguration {
+        @Bean
+        @ConditionalOnMissingBean(ReactiveFileSystem.class)
+        public ReactiveMongoDbFileSystem reactiveMongoDbFileSystem(MongoDbFileSystem mongoDbFileSystem, Properties properties, ReactiveMongoOperations mongoOperations, ReactiveMongoDatabaseFactory factory) {
+            return new ReactiveMongoDbFileSystem(mongoDbFileSystem, properties, mongoOperations, factory.getMongoDatabase().block());
+        }
+    }
+
     @Bean
     @ConditionalOnMissingBean
     @ConfigurationProperties("southern-quiet.framework.file-system.mongodb")
@@ -44,6 +67,14 @@ public class MongoDbFileSystemAutoConfiguration {
          */
         private Integer fileSizeThreshold = 15 * 1024 * 1024;
 
+        private DirectoryCache directoryCache = new DirectoryCache();
+
+        private GridFs gridFs = new GridFs();
+
+        private AccessTimeBuffer accessTimeBuffer = new AccessTimeBuffer();
+
+        private LocalMirror localMirror = new LocalMirror();
+
         public Integer getFileSizeThreshold() {
             return fileSizeThreshold;
         }
@@ -59,5 +90,217 @@ public class MongoDbFileSystemAutoConfiguration {
         public void setPathCollection(String pathCollection) {
             this.pathCollection = pathCollection;
         }
+
+        public DirectoryCache getDirectoryCache() {
+            return directoryCache;
+        }
+
+        public void setDirectoryCache(DirectoryCache directoryCache) {
+            this.directoryCache = directoryCache;
+        }
+
+        public GridFs getGridFs() {
+            return gridFs;
+        }
+
+        public void setGridFs(GridFs gridFs) {
+            this.gridFs = gridFs;
+        }
+
+        public AccessTimeBuffer getAccessTimeBuffer() {
+            return accessTimeBuffer;
+        }
+
+        public void setAccessTimeBuffer(AccessTimeBuffer accessTimeBuffer) {
+            this.accessTimeBuffer = accessTimeBuffer;
+        }
+
+        public LocalMirror getLocalMirror() {
+            return localMirror;
+        }
+
+        public void setLocalMirror(LocalMirror localMirror) {
+            this.localMirror = localMirror;
+        }
+
+        public static class DirectoryCache {
+            /**
+             * 是否缓存目录的元信息
+             */
+            private boolean enable = false;
+            /**
+             * 缓存的最大条目数
+             */
+            private int maxSize = 100000;
+            /**
+             * 写入缓存后的过期时间，mongodb不支持change stream时用于发现其它实例的修改，为空则不过期
+             */
+            private Duration expireAfterWrite = Duration.ofMinutes(10);
+
+            public boolean isEnable() {
+                return enable;
+            }
+
+            public void setEnable(boolean enable) {
+                this.enable = enable;
+            }
+
+            public int getMaxSize() {
+                return maxSize;
+            }
+
+            public void setMaxSize(int maxSize) {
+                this.maxSize = maxSize;
+            }
+
+            public Duration getExpireAfterWrite() {
+                return expireAfterWrite;
+            }
+
+            public void setExpireAfterWrite(Duration expireAfterWrite) {
+                this.expireAfterWrite = expireAfterWrite;
+            }
+        }
+
+        public static class GridFs {
+            /**
+             * 新写入GridFS的文件的chunk大小，已有文件保持原来的chunk大小
+             */
+            private DataSize chunkSize = DataSize.ofKilobytes(255);
+            /**
+             * 读取时提前并行读取的chunk数量
+             */
+            private int prefetchChunks = 4;
+            /**
+             * 写入时同时进行中的chunk插入数量
+             */
+            private int outstandingWrites = 4;
+            /**
+             * 读写chunk的线程数，由所有读写共享
+             */
+            private int parallelism = 16;
+
+            public DataSize getChunkSize() {
+                return chunkSize;
+            }
+
+            public void setChunkSize(DataSize chunkSize) {
+                this.chunkSize = chunkSize;
+            }
+
+            public int getPrefetchChunks() {
+                return prefetchChunks;
+            }
+
+            public void setPrefetchChunks(int prefetchChunks) {
+                this.prefetchChunks = prefetchChunks;
+            }
+
+            public int getOutstandingWrites() {
+                return outstandingWrites;
+            }
+
+            public void setOutstandingWrites(int outstandingWrites) {
+                this.outstandingWrites = outstandingWrites;
+            }
+
+            public int getParallelism() {
+                return parallelism;
+            }
+
+            public void setParallelism(int parallelism) {
+                this.parallelism = parallelism;
+            }
+        }
+
+        public static class AccessTimeBuffer {
+            /**
+             * 是否合并访问时间的写入，定期批量提交
+             */
+            private boolean enable = false;
+            /**
+             * 提交间隔
+             */
+            private Duration flushInterval = Duration.ofSeconds(1);
+            /**
+             * 待提交的路径数达到该值时提前提交
+             */
+            private int maxPending = 10000;
+
+            public boolean isEnable() {
+                return enable;
+            }
+
+            public void setEnable(boolean enable) {
+                this.enable = enable;
+            }
+
+            public Duration getFlushInterval() {
+                return flushInterval;
+            }
+
+            public void setFlushInterval(Duration flushInterval) {
+                this.flushInterval = flushInterval;
+            }
+
+            public int getMaxPending() {
+                return maxPending;
+            }
+
+            public void setMaxPending(int maxPending) {
+                this.maxPending = maxPending;
+            }
+        }
+
+        public static class LocalMirror {
+            /**
+             * 是否把读取过的GridFS文件镜像到本地磁盘
+             */
+            private boolean enable = false;
+            /**
+             * 镜像在本地文件系统中的路径
+             */
+            private String directory = "${java.io.tmpdir}/.SQ_MONGODB_MIRROR";
+            /**
+             * 镜像的总字节数上限，超出后按LRU淘汰
+             */
+            private DataSize maxBytes = DataSize.ofGigabytes(1);
+            /**
+             * 超过该大小的文件不镜像
+             */
+            private DataSize maxFileSize = DataSize.ofMegabytes(256);
+
+            public boolean isEnable() {
+                return enable;
+            }
+
+            public void setEnable(boolean enable) {
+                this.enable = enable;
+            }
+
+            public String getDirectory() {
+                return directory;
+            }
+
+            public void setDirectory(String directory) {
+                this.directory = directory;
+            }
+
+            public DataSize getMaxBytes() {
+                return maxBytes;
+            }
+
+            public void setMaxBytes(DataSize maxBytes) {
+                this.maxBytes = maxBytes;
+            }
+
+            public DataSize getMaxFileSize() {
+                return maxFileSize;
+            }
+
+            public void setMaxFileSize(DataSize maxFileSize) {
+                this.maxFileSize = maxFileSize;
+            }
+        }
     }
 }
@@ -0,0 +1,153 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * 直接向GridFS chunks集合追加内容的{@link OutputStream}，不重新上传已有的内容。
+ * <ul>
+ * <li>最后一个未写满的chunk读入内存，写满后写入集合并开始下一个chunk。</li>
+ * <li>flush时写入未写满的chunk，再更新文件长度，读取方只会读到长度范围内已经写入的chunk。</li>
+ * <li>每次flush最多重写一个chunk，开销与写入量和chunkSize相关，与文件大小无关。</li>
+ * <li>不支持同一文件上的并发追加。</li>
+ * </ul>
+ */
+class GridFsAppendStream extends OutputStream {
+    private final MongoCollection<Document> chunksCollection;
+    private final MongoCollection<Document> filesCollection;
+    private final BsonValue fileId;
+    private final int chunkSize;
+    private final LongConsumer lengthListener;
+
+    private final byte[] buffer;
+    private int count;
+    private int chunkIndex;
+    private boolean dirty;
+
+    private long length;
+    private long flushedLength;
+    private boolean closed;
+
+    /**
+     * @param lengthListener 文件长度更新到files集合之后被调用。
+     */
+    GridFsAppendStream(MongoCollection<Document> chunksCollection, MongoCollection<Document> filesCollection, GridFSFile file, LongConsumer lengthListener) throws IOException {
+        this.chunksCollection = chunksCollection;
+        this.filesCollection = filesCollection;
+        this.fileId = file.getId();
+        this.chunkSize = file.getChunkSize();
+        this.lengthListener = lengthListener;
+
+        this.buffer = new byte[chunkSize];
+        this.length = file.getLength();
+        this.flushedLength = length;
+        this.chunkIndex = (int) (length / chunkSize);
+        this.count = (int) (length % chunkSize);
+
+        if (count > 0) {
+            Document chunk = chunksCollection.find(chunkFilter(chunkIndex)).first();
+            if (null == chunk) throw new IOException(String.format("GridFS文件%s缺少chunk：%d", fileId, chunkIndex));
+
+            byte[] data = chunk.get("data", Binary.class).getData();
+            if (data.length < count) throw new IOException(String.format("GridFS文件%s的chunk不完整：%d", fileId, chunkIndex));
+
+            System.arraycopy(data, 0, buffer, 0, count);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+
+        while (len > 0) {
+            int n = Math.min(len, chunkSize - count);
+            System.arraycopy(b, off, buffer, count, n);
+
+            count += n;
+            off += n;
+            len -= n;
+            length += n;
+            dirty = true;
+
+            if (count == chunkSize) {
+                writeChunk();
+                ++chunkIndex;
+                count = 0;
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+
+        if (dirty && count > 0) {
+            writeChunk();
+        }
+
+        if (length == flushedLength) return;
+
+        try {
+            filesCollection.updateOne(Filters.eq("_id", fileId), Updates.set("length", length));
+        }
+        catch (MongoException e) {
+            throw new IOException(e);
+        }
+
+        flushedLength = length;
+        lengthListener.accept(length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+
+        try {
+            flush();
+        }
+        finally {
+            closed = true;
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        Document chunk = new Document("files_id", fileId)
+            .append("n", chunkIndex)
+            .append("data", new Binary(count == chunkSize ? buffer : Arrays.copyOf(buffer, count)));
+
+        try {
+            chunksCollection.replaceOne(chunkFilter(chunkIndex), chunk, new ReplaceOptions().upsert(true));
+        }
+        catch (MongoException e) {
+            throw new IOException(e);
+        }
+
+        dirty = false;
+    }
+
+    private Bson chunkFilter(int n) {
+        return Filters.and(Filters.eq("files_id", fileId), Filters.eq("n", n));
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Stream closed");
+    }
+}
@@ -0,0 +1,139 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * 直接读取GridFS chunks集合的只读{@link SeekableByteChannel}。
+ * 定位时根据chunkSize计算出所在chunk，只查询与读取范围重叠的chunk，不会读取之前的内容。
+ */
+public class GridFsChunkChannel implements SeekableByteChannel {
+    private final MongoCollection<Document> chunksCollection;
+    private final BsonValue fileId;
+    private final long length;
+    private final int chunkSize;
+
+    private long position;
+    private boolean open = true;
+
+    private MongoCursor<Document> cursor;
+    private int nextChunkIndex = -1;
+
+    private byte[] chunkData;
+    private int chunkIndex = -1;
+
+    public GridFsChunkChannel(MongoCollection<Document> chunksCollection, GridFSFile file) {
+        this.chunksCollection = chunksCollection;
+        this.fileId = file.getId();
+        this.length = file.getLength();
+        this.chunkSize = file.getChunkSize();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+
+        if (position >= length) return -1;
+
+        int index = (int) (position / chunkSize);
+        if (index != chunkIndex) {
+            loadChunk(index);
+        }
+
+        int offset = (int) (position - (long) index * chunkSize);
+        int read = Math.min(dst.remaining(), chunkData.length - offset);
+        dst.put(chunkData, offset, read);
+        position += read;
+
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("newPosition");
+
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return length;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        closeCursor();
+        chunkData = null;
+    }
+
+    /**
+     * 顺序读取时复用同一个游标，跳跃定位时从目标chunk重新查询。
+     */
+    private void loadChunk(int index) throws IOException {
+        if (null == cursor || index != nextChunkIndex) {
+            closeCursor();
+
+            cursor = chunksCollection
+                .find(Filters.and(Filters.eq("files_id", fileId), Filters.gte("n", index)))
+                .sort(Sorts.ascending("n"))
+                .iterator();
+        }
+
+        if (!cursor.hasNext()) throw new IOException(String.format("GridFS文件%s缺少chunk：%d", fileId, index));
+
+        Document chunk = cursor.next();
+        if (index != chunk.getInteger("n")) throw new IOException(String.format("GridFS文件%s缺少chunk：%d", fileId, index));
+
+        chunkData = chunk.get("data", Binary.class).getData();
+        chunkIndex = index;
+        nextChunkIndex = index + 1;
+    }
+
+    private void closeCursor() {
+        if (null != cursor) {
+            cursor.close();
+            cursor = null;
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) throw new ClosedChannelException();
+    }
+}
@@ -0,0 +1,119 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 把内容存入GridFS，chunk由后台并行插入，同时进行中的插入不超过maxOutstanding个。
+ * <ul>
+ * <li>所有chunk写入成功后才写入files集合，上传过程中和失败后都不会出现不完整的文件。</li>
+ * <li>失败时删除已经写入的chunk。</li>
+ * </ul>
+ */
+class GridFsParallelUploader {
+    private final MongoCollection<Document> chunksCollection;
+    private final MongoCollection<Document> filesCollection;
+    private final int chunkSize;
+    private final int maxOutstanding;
+    private final Executor executor;
+
+    GridFsParallelUploader(MongoCollection<Document> chunksCollection, MongoCollection<Document> filesCollection, int chunkSize, int maxOutstanding, Executor executor) {
+        this.chunksCollection = chunksCollection;
+        this.filesCollection = filesCollection;
+        this.chunkSize = chunkSize;
+        this.maxOutstanding = Math.max(1, maxOutstanding);
+        this.executor = executor;
+    }
+
+    ObjectId store(InputStream stream, String filename) throws IOException {
+        ObjectId fileId = ObjectId.get();
+        Semaphore permits = new Semaphore(maxOutstanding);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        long length = 0;
+        int chunkIndex = 0;
+
+        try {
+            while (null == failure.get()) {
+                byte[] data = readChunk(stream);
+                if (0 == data.length) break;
+
+                permits.acquire();
+
+                Document chunk = new Document("files_id", fileId).append("n", chunkIndex++).append("data", new Binary(data));
+                CompletableFuture.runAsync(() -> chunksCollection.insertOne(chunk), executor)
+                    .whenComplete((r, e) -> {
+                        if (null != e) failure.compareAndSet(null, e);
+                        permits.release();
+                    });
+
+                length += data.length;
+                if (data.length < chunkSize) break;
+            }
+
+            permits.acquire(maxOutstanding);
+            permits.release(maxOutstanding);
+
+            Throwable e = failure.get();
+            if (null != e) throw new IOException(e);
+
+            filesCollection.insertOne(new Document("_id", fileId)
+                .append("length", length)
+                .append("chunkSize", chunkSize)
+                .append("uploadDate", new Date())
+                .append("filename", filename)
+            );
+
+            return fileId;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(fileId, permits);
+            throw new InterruptedIOException();
+        }
+        catch (IOException | RuntimeException e) {
+            abort(fileId, permits);
+            throw e;
+        }
+    }
+
+    /**
+     * 等待进行中的插入结束后删除已经写入的chunk。
+     */
+    private void abort(ObjectId fileId, Semaphore permits) {
+        permits.acquireUninterruptibly(maxOutstanding);
+        permits.release(maxOutstanding);
+
+        chunksCollection.deleteMany(Filters.eq("files_id", fileId));
+    }
+
+    /**
+     * @return 读满一个chunk，流结束时可能不满，已经结束时返回空数组。
+     */
+    private byte[] readChunk(InputStream stream) throws IOException {
+        byte[] buffer = new byte[chunkSize];
+        int count = 0;
+
+        while (count < chunkSize) {
+            int read = stream.read(buffer, count, chunkSize - count);
+            if (read < 0) break;
+
+            count += read;
+        }
+
+        return count == chunkSize ? buffer : Arrays.copyOf(buffer, count);
+    }
+}
@@ -0,0 +1,133 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Filters;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * 顺序读取GridFS文件的{@link InputStream}，在后台提前并行读取之后的若干个chunk。
+ * 每个chunk一次查询，同时进行中的查询不超过prefetchChunks个，内存占用最多是prefetchChunks个chunk。
+ */
+class GridFsPrefetchInputStream extends InputStream {
+    private final MongoCollection<Document> chunksCollection;
+    private final BsonValue fileId;
+    private final long length;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final int prefetchChunks;
+    private final Executor executor;
+
+    private final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+    private int nextChunkIndex;
+
+    private byte[] chunkData;
+    private int position;
+    private boolean closed;
+
+    GridFsPrefetchInputStream(MongoCollection<Document> chunksCollection, GridFSFile file, int prefetchChunks, Executor executor) {
+        this.chunksCollection = chunksCollection;
+        this.fileId = file.getId();
+        this.length = file.getLength();
+        this.chunkSize = file.getChunkSize();
+        this.chunkCount = (int) ((length + chunkSize - 1) / chunkSize);
+        this.prefetchChunks = Math.max(1, prefetchChunks);
+        this.executor = executor;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureChunk()) return -1;
+
+        return chunkData[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (0 == len) return 0;
+        if (!ensureChunk()) return -1;
+
+        int read = Math.min(len, chunkData.length - position);
+        System.arraycopy(chunkData, position, b, off, read);
+        position += read;
+
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return null == chunkData ? 0 : chunkData.length - position;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+
+        closed = true;
+        pending.forEach(future -> future.cancel(false));
+        pending.clear();
+        chunkData = null;
+    }
+
+    /**
+     * @return 已经读到文件末尾时返回false。
+     */
+    private boolean ensureChunk() throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        if (null != chunkData && position < chunkData.length) return true;
+
+        prefetch();
+        if (pending.isEmpty()) return false;
+
+        chunkData = await(pending.poll());
+        position = 0;
+
+        prefetch();
+        return true;
+    }
+
+    private void prefetch() {
+        while (pending.size() < prefetchChunks && nextChunkIndex < chunkCount) {
+            int index = nextChunkIndex++;
+            pending.add(CompletableFuture.supplyAsync(() -> loadChunk(index), executor));
+        }
+    }
+
+    private byte[] loadChunk(int index) {
+        Document chunk = chunksCollection.find(Filters.and(Filters.eq("files_id", fileId), Filters.eq("n", index))).first();
+        if (null == chunk) throw new CompletionException(new IOException(String.format("GridFS文件%s缺少chunk：%d", fileId, index)));
+
+        byte[] data = chunk.get("data", Binary.class).getData();
+        long expected = Math.min(chunkSize, length - (long) index * chunkSize);
+        if (data.length != expected) throw new CompletionException(new IOException(String.format("GridFS文件%s的chunk不完整：%d", fileId, index)));
+
+        return data;
+    }
+
+    private byte[] await(CompletableFuture<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import com.mongodb.MongoGridFSException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * GridFS文件的引用计数，多个路径可以引用同一个GridFS文件，复制、移动只需修改元信息。
+ * <ul>
+ * <li>计数保存在files集合的refCount字段。</li>
+ * <li>引入引用计数之前写入的文件没有该字段，第一次增减引用时按引用它的路径数补充计数；并发释放同一个这样的文件时计数可能偏少。</li>
+ * <li>计数减到0时删除GridFS文件。</li>
+ * <li>写入被共享的文件之前需要先复制一份，见{@link #isShared(ObjectId)}。</li>
+ * </ul>
+ */
+class GridFsReferences {
+    private final static String REF_COUNT = "refCount";
+    private final static String FILE_ID = "fileId";
+
+    private final MongoCollection<Document> filesCollection;
+    private final MongoCollection<Document> pathCollection;
+    private final GridFSBucket gridFSBucket;
+
+    GridFsReferences(MongoCollection<Document> filesCollection, MongoCollection<Document> pathCollection, GridFSBucket gridFSBucket) {
+        this.filesCollection = filesCollection;
+        this.pathCollection = pathCollection;
+        this.gridFSBucket = gridFSBucket;
+    }
+
+    /**
+     * 增加一个引用，在新路径的元信息写入之前调用。
+     *
+     * @return GridFS文件已经不存在时返回false。
+     */
+    boolean retain(ObjectId fileId) {
+        initialize(Map.of(fileId, 0L));
+
+        return filesCollection.updateOne(
+            Filters.and(Filters.eq("_id", fileId), Filters.gt(REF_COUNT, 0)),
+            Updates.inc(REF_COUNT, 1)
+        ).getModifiedCount() > 0;
+    }
+
+    /**
+     * 减少一个引用，没有引用时删除GridFS文件。
+     */
+    void release(ObjectId fileId) {
+        release(List.of(fileId));
+    }
+
+    /**
+     * 每个id减少一个引用，同一个id出现多次时减少多个，没有引用的GridFS文件随之删除。
+     * 在路径的元信息已经删除或改为指向其它文件之后调用。
+     */
+    void release(Collection<ObjectId> fileIds) {
+        if (fileIds.isEmpty()) return;
+
+        Map<ObjectId, Long> counts = fileIds.stream().collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+        initialize(counts);
+
+        filesCollection.bulkWrite(
+            counts.entrySet().stream()
+                .map(entry -> new UpdateOneModel<Document>(Filters.eq("_id", entry.getKey()), Updates.inc(REF_COUNT, -entry.getValue())))
+                .collect(Collectors.toList()),
+            new BulkWriteOptions().ordered(false)
+        );
+
+        filesCollection.find(Filters.and(Filters.in("_id", counts.keySet()), Filters.lte(REF_COUNT, 0)))
+            .projection(Projections.include("_id"))
+            .forEach(document -> {
+                try {
+                    gridFSBucket.delete(document.getObjectId("_id"));
+                }
+                catch (MongoGridFSException e) {
+                    //已经被并发的释放删除。
+                }
+            });
+    }
+
+    boolean isShared(ObjectId fileId) {
+        Document document = filesCollection.find(Filters.eq("_id", fileId)).projection(Projections.include(REF_COUNT)).first();
+        if (null == document) return false;
+
+        Number refCount = document.get(REF_COUNT, Number.class);
+        if (null == refCount) return countReferences(fileId) > 1;
+
+        return refCount.longValue() > 1;
+    }
+
+    /**
+     * 为引入引用计数之前写入的GridFS文件补充计数，已有计数的文件不受影响。
+     *
+     * @param released 每个文件已经不再指向它、但尚未释放的引用数。
+     */
+    private void initialize(Map<ObjectId, Long> released) {
+        filesCollection.find(Filters.and(Filters.in("_id", released.keySet()), Filters.exists(REF_COUNT, false)))
+            .projection(Projections.include("_id"))
+            .forEach(document -> {
+                ObjectId fileId = document.getObjectId("_id");
+
+                filesCollection.updateOne(
+                    Filters.and(Filters.eq("_id", fileId), Filters.exists(REF_COUNT, false)),
+                    Updates.set(REF_COUNT, countReferences(fileId) + released.get(fileId))
+                );
+            });
+    }
+
+    private long countReferences(ObjectId fileId) {
+        return pathCollection.countDocuments(Filters.eq(FILE_ID, fileId));
+    }
+}
@@ -0,0 +1,118 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import me.insidezhou.southernquiet.filesystem.NormalizedPath;
+import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
+import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并{@link MongoDbFileSystem#touchLastAccess(String)}的写入，定期以一次bulkWrite提交。
+ * <ul>
+ * <li>同一路径在一个周期内的多次访问只保留最晚的时间，以$max写入，不会覆盖更晚的时间。</li>
+ * <li>待写入的路径数达到上限时提前提交。</li>
+ * <li>进程异常退出时未提交的访问时间会丢失。</li>
+ * </ul>
+ */
+class MongoAccessTimeBuffer implements AutoCloseable {
+    private final static SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(MongoAccessTimeBuffer.class);
+
+    private final MongoOperations mongoOperations;
+    private final String pathCollection;
+    private final int maxPending;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<NormalizedPath, Instant> pending = new ConcurrentHashMap<>();
+
+    MongoAccessTimeBuffer(MongoOperations mongoOperations, String pathCollection, Duration flushInterval, int maxPending) {
+        this.mongoOperations = mongoOperations;
+        this.pathCollection = pathCollection;
+        this.maxPending = maxPending;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MongoDbFileSystem-access-time");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long interval = flushInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void touch(NormalizedPath normalizedPath, Instant time) {
+        pending.merge(normalizedPath, time, (a, b) -> a.isAfter(b) ? a : b);
+
+        if (pending.size() >= maxPending) {
+            scheduler.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * 尚未提交的访问时间晚于元信息中的时间时，以前者为准。
+     */
+    void apply(NormalizedPath normalizedPath, MongoPathMeta meta) {
+        Instant time = pending.get(normalizedPath);
+        if (null == time) return;
+
+        if (null == meta.getLastAccessTime() || time.isAfter(meta.getLastAccessTime())) {
+            meta.setLastAccessTime(time);
+        }
+    }
+
+    synchronized void flush() {
+        if (pending.isEmpty()) return;
+
+        List<Map.Entry<NormalizedPath, Instant>> entries = new ArrayList<>();
+        for (NormalizedPath normalizedPath : pending.keySet()) {
+            Instant time = pending.remove(normalizedPath);
+            if (null != time) {
+                entries.add(Map.entry(normalizedPath, time));
+            }
+        }
+
+        if (entries.isEmpty()) return;
+
+        BulkOperations operations = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, pathCollection);
+        entries.forEach(entry -> operations.updateOne(
+            Query.query(Criteria.where("name").is(entry.getKey().getName()).and("parent").is(entry.getKey().getParent())),
+            new Update().max("lastAccessTime", entry.getValue())
+        ));
+
+        try {
+            operations.execute();
+        }
+        catch (RuntimeException e) {
+            //放回缓冲，下一周期重试。
+            entries.forEach(entry -> pending.merge(entry.getKey(), entry.getValue(), (a, b) -> a.isAfter(b) ? a : b));
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        flush();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        }
+        catch (Exception e) {
+            log.message("提交访问时间失败").context("pending", pending.size()).exception(e).warn();
+        }
+    }
+}
@@ -1,9 +1,17 @@
 package me.insidezhou.southernquiet.filesystem.driver;
 
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.GridFSBuckets;
-import com.mongodb.client.gridfs.GridFSUploadStream;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Updates;
 import me.insidezhou.southernquiet.filesystem.FileSystem;
 import me.insidezhou.southernquiet.filesystem.*;
 import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
@@ -11,38 +19,73 @@ import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
 import org.bson.Document;
 import org.bson.types.Binary;
 import org.bson.types.ObjectId;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.gridfs.GridFsOperations;
-import org.springframework.data.mongodb.gridfs.GridFsResource;
 import org.springframework.data.util.CloseableIterator;
 import org.springframework.util.Assert;
 import org.springframework.util.StreamUtils;
 import org.springframework.util.StringUtils;
+import org.springframework.util.SystemPropertyUtils;
+import reactor.core.publisher.Flux;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Paths;
 import java.time.Instant;
-import java.util.Iterator;
-import java.util.List;
-import java.util.function.Consumer;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * {@link FileSystem}的mongodb驱动。
  */
-public class MongoDbFileSystem implements FileSystem {
+public class MongoDbFileSystem implements FileSystem, DisposableBean {
     private static final SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(MongoDbFileSystem.class);
 
+    /**
+     * {@link #writeAt(String, long, ByteBuffer)}每批读取、写入的chunk数量。
+     */
+    private final static int CHUNK_WRITE_BATCH = 64;
+
+    /**
+     * 批量删除、补充字段时每批的路径数量。
+     */
+    private final static int BATCH_SIZE = 1000;
+
+    /**
+     * 记录已完成的数据迁移的集合的后缀，集合名为路径集合名加上该后缀。
+     */
+    public final static String MIGRATION_COLLECTION_SUFFIX = ".migrations";
+    private final static String DERIVED_FIELDS_MIGRATION = "derivedFields";
+
     private final MongoOperations mongoOperations;
-    private final GridFsOperations gridFsOperations;
     private final GridFSBucket gridFSBucket;
+    private final MongoCollection<Document> chunksCollection;
+    private final MongoCollection<Document> filesCollection;
+    private final GridFsReferences gridFsReferences;
+    private final GridFsParallelUploader gridFsUploader;
+    private final ForkJoinPool transferPool;
+    private final int prefetchChunks;
     private final String pathCollection;
     private int fileSizeThreshold;
+    private MongoDirectoryCache directoryCache;
+    private MongoAccessTimeBuffer accessTimeBuffer;
+    private MongoLocalMirror localMirror;
 
+    /**
+     * @param gridFsOperations 已不再使用，保留以兼容原有的构造方式。
+     */
     public MongoDbFileSystem(MongoDbFileSystemAutoConfiguration.Properties properties, MongoOperations mongoOperations, GridFsOperations gridFsOperations, MongoDatabase mongoDatabase) {
         this.pathCollection = properties.getPathCollection();
 
@@ -57,12 +100,89 @@ public class MongoDbFileSystem implements FileSystem {
         }
 
         this.mongoOperations = mongoOperations;
-        this.gridFsOperations = gridFsOperations;
-        this.gridFSBucket = GridFSBuckets.create(mongoDatabase);
+        MongoDbFileSystemAutoConfiguration.Properties.GridFs gridFsProperties = properties.getGridFs();
+        int chunkSize = (int) gridFsProperties.getChunkSize().toBytes();
+
+        this.gridFSBucket = GridFSBuckets.create(mongoDatabase).withChunkSizeBytes(chunkSize);
+        this.chunksCollection = mongoDatabase.getCollection(gridFSBucket.getBucketName() + ".chunks");
+        this.filesCollection = mongoDatabase.getCollection(gridFSBucket.getBucketName() + ".files");
+        this.gridFsReferences = new GridFsReferences(filesCollection, mongoDatabase.getCollection(pathCollection), gridFSBucket);
+        this.transferPool = new ForkJoinPool(gridFsProperties.getParallelism());
+        this.gridFsUploader = new GridFsParallelUploader(chunksCollection, filesCollection, chunkSize, gridFsProperties.getOutstandingWrites(), transferPool);
+        this.prefetchChunks = gridFsProperties.getPrefetchChunks();
+
+        //绕过驱动上传时驱动不会创建GridFS的索引。
+        chunksCollection.createIndex(Indexes.ascending("files_id", "n"), new IndexOptions().unique(true));
+        filesCollection.createIndex(Indexes.ascending("filename", "uploadDate"));
 
         if (!mongoOperations.collectionExists(this.pathCollection)) {
             mongoOperations.createCollection(this.pathCollection);
         }
+
+        ensurePathIndexes();
+        backfillDerivedFields();
+
+        MongoDbFileSystemAutoConfiguration.Properties.DirectoryCache directoryCacheProperties = properties.getDirectoryCache();
+        if (directoryCacheProperties.isEnable()) {
+            this.directoryCache = new MongoDirectoryCache(
+                mongoOperations.getCollection(pathCollection),
+                directoryCacheProperties.getMaxSize(),
+                directoryCacheProperties.getExpireAfterWrite()
+            );
+        }
+
+        MongoDbFileSystemAutoConfiguration.Properties.AccessTimeBuffer accessTimeBufferProperties = properties.getAccessTimeBuffer();
+        if (accessTimeBufferProperties.isEnable()) {
+            this.accessTimeBuffer = new MongoAccessTimeBuffer(
+                mongoOperations,
+                pathCollection,
+                accessTimeBufferProperties.getFlushInterval(),
+                accessTimeBufferProperties.getMaxPending()
+            );
+        }
+
+        MongoDbFileSystemAutoConfiguration.Properties.LocalMirror localMirrorProperties = properties.getLocalMirror();
+        if (localMirrorProperties.isEnable()) {
+            this.localMirror = new MongoLocalMirror(
+                Paths.get(SystemPropertyUtils.resolvePlaceholders(localMirrorProperties.getDirectory())),
+                localMirrorProperties.getMaxBytes().toBytes(),
+                localMirrorProperties.getMaxFileSize().toBytes()
+            );
+        }
+    }
+
+    /**
+     * @return 未启用缓存时返回null。
+     */
+    public MongoDirectoryCache getDirectoryCache() {
+        return directoryCache;
+    }
+
+    /**
+     * @return 未启用本地镜像时返回null。
+     */
+    public MongoLocalMirror getLocalMirror() {
+        return localMirror;
+    }
+
+    /**
+     * @return 未启用访问时间缓冲时返回null。
+     */
+    MongoAccessTimeBuffer getAccessTimeBuffer() {
+        return accessTimeBuffer;
+    }
+
+    @Override
+    public void destroy() {
+        transferPool.shutdown();
+
+        if (null != accessTimeBuffer) {
+            accessTimeBuffer.close();
+        }
+
+        if (null != directoryCache) {
+            directoryCache.close();
+        }
     }
 
     @Override
@@ -75,56 +195,61 @@ public class MongoDbFileSystem implements FileSystem {
         Assert.notNull(stream, "stream");
 
         NormalizedPath normalizedPath = new NormalizedPath(path);
+        List<ObjectId> previousFileIds = new ArrayList<>();
+        MongoPathMeta file = prepareFile(normalizedPath, queryPathMeta(normalizedPath), stream, new HashMap<>(), previousFileIds);
 
-        MongoPathMeta file = queryPathMeta(normalizedPath);
+        //务必保证fileId、fileData其中之一不为空，读取时会依赖这个假设。
+        mongoOperations.upsert(newPathQuery(file), Update.fromDocument(new Document(file.toMap())), MongoPathMeta.class, pathCollection);
 
-        if (file != null && file.isSymbolicLink() != null && file.isSymbolicLink()) {
-            file = queryPathMeta(file.getOriginalId());
-        }
+        gridFsReferences.release(previousFileIds);
+    }
 
-        if (null == file) {
-            MongoPathMeta directory = createAndGetDirectory(normalizedPath.getParentPath());
-            file = new MongoPathMeta(normalizedPath, stream);
-            file.setId(ObjectId.get().toString());
-            file.setParentId(directory.getId());
+    /**
+     * 只需一次查询获取所有元信息，不存在的文件逐个创建，所有元信息通过一次bulkWrite写入。
+     * bulkWrite成功之后才释放被替换的GridFS文件，写入失败时路径仍然指向原有的内容。
+     */
+    @Override
+    public void putAll(Map<String, InputStream> streams) throws InvalidFileException {
+        Map<String, MongoPathMeta> existingFiles = metas(streams.keySet());
+        Map<NormalizedPath, MongoPathMeta> directories = new HashMap<>();
+        List<ObjectId> previousFileIds = new ArrayList<>();
+        BulkOperations operations = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, MongoPathMeta.class, pathCollection);
+        InvalidFileException exception = null;
+        int operationCount = 0;
 
-            Instant now = Instant.now();
-            file.setCreationTime(now);
-            file.setLastModifiedTime(now);
-            file.setLastAccessTime(now);
-        }
-        else if (file.isDirectory()) {
-            throw new InvalidFileException(normalizedPath.toString());
-        }
-        else {
-            file.setLastModifiedTime(Instant.now());
-            try {
-                file.setSize(stream.available());
-            }
-            catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
+        for (Map.Entry<String, InputStream> entry : streams.entrySet()) {
+            Assert.notNull(entry.getValue(), "stream");
 
-        if (file.getSize() <= fileSizeThreshold) {
             try {
-                file.setFileData(new Binary(StreamUtils.copyToByteArray(stream)));
+                MongoPathMeta file = prepareFile(new NormalizedPath(entry.getKey()), existingFiles.get(entry.getKey()), entry.getValue(), directories, previousFileIds);
+                Update update = new Update();
+                file.toMap().forEach((key, value) -> {
+                    if (!"id".equals(key)) {
+                        update.set(key, value);
+                    }
+                });
+
+                //bulkWrite的upsert只接受操作符形式的更新，_id由查询条件带入。
+                operations.upsert(newPathQuery(file), update);
+                ++operationCount;
             }
-            catch (IOException e) {
-                throw new RuntimeException(e);
+            catch (InvalidFileException e) {
+                if (null == exception) {
+                    exception = e;
+                }
+                else {
+                    exception.addSuppressed(e);
+                }
             }
         }
-        else {
-            if (null != file.getFileId()) {
-                gridFSBucket.delete(file.getFileId());
-            }
 
-            ObjectId objectId = gridFsOperations.store(stream, file.getPath());
-            file.setFileId(objectId);
+        if (operationCount > 0) {
+            operations.execute();
         }
 
-        //务必保证fileId、fileData其中之一不为空，读取时会依赖这个假设。
-        mongoOperations.upsert(newPathQuery(file), Update.fromDocument(new Document(file.toMap())), MongoPathMeta.class, pathCollection);
+        gridFsReferences.release(previousFileIds);
+
+        if (null != exception) throw exception;
     }
 
     @Override
@@ -138,18 +263,58 @@ public class MongoDbFileSystem implements FileSystem {
         }
 
         if (null == pathMeta.getFileId()) {
-            return new ByteArrayInputStream(pathMeta.getFileData().getData());
+            return new ByteArrayInputStream(loadFileData(pathMeta));
         }
 
-        GridFsResource resource = gridFsOperations.getResource(pathMeta.getPath());
-        if (!resource.exists()) throw new InvalidFileException(path);
+        //GridFS文件可能被多个路径共享，按fileId而不是文件名读取。
+        ObjectId fileId = pathMeta.getFileId();
+        InputStream stream;
+        if (null == localMirror) {
+            stream = openGridFsStream(fileId);
+        }
+        else {
+            try {
+                stream = localMirror.openReadStream(pathMeta, () -> openGridFsStream(fileId));
+            }
+            catch (IOException e) {
+                throw new InvalidFileException(path, e);
+            }
+        }
 
-        try {
-            return resource.getInputStream();
+        if (null == stream) throw new InvalidFileException(path);
+
+        return stream;
+    }
+
+    @Override
+    public SeekableByteChannel openReadChannel(String path) throws InvalidFileException {
+        MongoPathMeta pathMeta = meta(path);
+
+        if (null != pathMeta && pathMeta.isSymbolicLink() != null && pathMeta.isSymbolicLink()) {
+            pathMeta = queryPathMeta(pathMeta.getOriginalId());
         }
-        catch (IOException e) {
-            throw new InvalidFileException(path, e);
+
+        if (null == pathMeta || pathMeta.isDirectory()) throw new InvalidFileException(path);
+
+        if (null == pathMeta.getFileId()) {
+            byte[] data = loadFileData(pathMeta);
+            return new StreamSeekableByteChannel(() -> new ByteArrayInputStream(data), data.length);
         }
+
+        if (null != localMirror) {
+            try {
+                SeekableByteChannel channel = localMirror.openReadChannel(pathMeta);
+                if (null != channel) return channel;
+            }
+            catch (IOException e) {
+                throw new InvalidFileException(path, e);
+            }
+        }
+
+        GridFSFile file = gridFSBucket.find(Filters.eq("_id", pathMeta.getFileId())).first();
+        if (null == file) throw new InvalidFileException(path);
+
+        return new GridFsChunkChannel(chunksCollection, file);
     }
 
     @Override
@@ -191,69 +356,213 @@ public class MongoDbFileSystem implements FileSystem {
         mongoOperations.upsert(newPathQuery(linkFile), Update.fromDocument(new Document(linkFile.toMap())), MongoPathMeta.class, pathCollection);
     }
 
+    /**
+     * 直接在GridFS文件末尾追加chunk，开销与写入量成正比。
+     * 内容放在元信息中的文件先转存到GridFS，之后的追加不再受阈值影响。
+     */
     @Override
     public OutputStream openWriteStream(String path) throws InvalidFileException {
-        MongoPathMeta pathMeta = meta(path);
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+        MongoPathMeta pathMeta = prepareFileMeta(normalizedPath, queryPathMeta(normalizedPath), new HashMap<>());
 
-        if (null == pathMeta) {
-            pathMeta = new MongoPathMeta(path);
-            pathMeta.setDirectory(false);
+        if (null == pathMeta.getFileId()) {
+            byte[] origin = loadFileData(pathMeta);
+
+            pathMeta.setFileId(storeGridFs(new ByteArrayInputStream(origin), pathMeta.getPath()));
+            pathMeta.setFileData(null);
+            pathMeta.setSize(origin.length);
+
+            mongoOperations.upsert(newPathQuery(pathMeta), Update.fromDocument(new Document(pathMeta.toMap())), MongoPathMeta.class, pathCollection);
+        }
+        else {
+            unshare(pathMeta);
+            invalidateLocalMirror(pathMeta.getFileId());
         }
 
-        if (pathMeta.isSymbolicLink()) {
-            MongoPathMeta originalMeta = queryPathMeta(pathMeta.getOriginalId());
-            if (originalMeta != null) {
-                pathMeta = originalMeta;
+        GridFSFile file = gridFSBucket.find(Filters.eq("_id", pathMeta.getFileId())).first();
+        if (null == file) throw new InvalidFileException(path);
+
+        Query query = newPathQuery(pathMeta);
+        try {
+            return new BufferedOutputStream(new GridFsAppendStream(chunksCollection, filesCollection, file, length -> mongoOperations.updateFirst(
+                query,
+                Update.update("size", length).set("lastModifiedTime", Instant.now()),
+                pathCollection
+            )));
+        }
+        catch (IOException e) {
+            throw new InvalidFileException(path, e);
+        }
+    }
+
+    /**
+     * 内容在GridFS中时，只读取、重写与写入范围重叠的chunk，offset超过文件大小时补齐中间的chunk；
+     * 内容放在元信息中时，写入后仍不超过阈值的直接更新元信息，否则先把原内容转存到GridFS。
+     * 多个chunk的写入不是原子的，并发读取可能看到写了一半的内容。
+     */
+    @Override
+    public void writeAt(String path, long offset, ByteBuffer data) throws InvalidFileException {
+        Assert.isTrue(offset >= 0, "offset不能小于0");
+
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+        MongoPathMeta file = prepareFileMeta(normalizedPath, queryPathMeta(normalizedPath), new HashMap<>());
+
+        long length = Math.max(Math.max(file.getSize(), 0), offset + data.remaining());
+
+        if (null == file.getFileId()) {
+            byte[] origin = loadFileData(file);
+
+            if (length <= fileSizeThreshold) {
+                byte[] bytes = Arrays.copyOf(origin, (int) length);
+                data.get(bytes, (int) offset, data.remaining());
+
+                file.setFileData(new Binary(bytes));
+                file.setSize(length);
+                mongoOperations.upsert(newPathQuery(file), Update.fromDocument(new Document(file.toMap())), MongoPathMeta.class, pathCollection);
+                return;
             }
+
+            file.setFileId(storeGridFs(new ByteArrayInputStream(origin), file.getPath()));
+            file.setFileData(null);
+        }
+        else {
+            unshare(file);
+            invalidateLocalMirror(file.getFileId());
         }
 
-        if (pathMeta.isDirectory()) throw new InvalidFileException(path);
+        GridFSFile gridFSFile = gridFSBucket.find(Filters.eq("_id", file.getFileId())).first();
+        if (null == gridFSFile) throw new InvalidFileException(path);
 
-        MongoPathMeta mongoPathMeta = pathMeta;
-        String candidateFilename = pathMeta.getPath() + "_" + System.nanoTime();
+        writeChunks(gridFSFile, offset, data, length);
 
-        GridFSUploadStream stream = gridFSBucket.openUploadStream(candidateFilename);
+        filesCollection.updateOne(Filters.eq("_id", file.getFileId()), Updates.set("length", length));
+
+        file.setSize(length);
+        mongoOperations.upsert(newPathQuery(file), Update.fromDocument(new Document(file.toMap())), MongoPathMeta.class, pathCollection);
+    }
 
-        BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(stream) {
-            @Override
-            public void close() throws IOException {
-                super.close();
+    /**
+     * 预读之后的chunk，不必每个chunk等待一次往返。
+     *
+     * @return GridFS文件不存在时返回null。
+     */
+    private InputStream openGridFsStream(ObjectId fileId) {
+        GridFSFile file = gridFSBucket.find(Filters.eq("_id", fileId)).first();
+        if (null == file) return null;
 
-                if (null != mongoPathMeta.getFileId()) {
-                    gridFSBucket.delete(mongoPathMeta.getFileId());
-                }
+        return new GridFsPrefetchInputStream(chunksCollection, file, prefetchChunks, transferPool);
+    }
 
-                gridFSBucket.rename(stream.getObjectId(), mongoPathMeta.getPath());
+    /**
+     * 同时插入多个chunk，不必每个chunk等待一次往返。
+     */
+    private ObjectId storeGridFs(InputStream stream, String filename) {
+        try {
+            return gridFsUploader.store(stream, filename);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-                mongoPathMeta.setFileId(stream.getObjectId());
-                mongoPathMeta.setFileData(null);
+    /**
+     * 文件的GridFS内容被其它路径共享时，先复制一份并指向副本，之后的写入不影响其它路径。
+     * 判断与复制之间的并发复制仍可能共享到写入中的内容。
+     */
+    private void unshare(MongoPathMeta file) {
+        ObjectId previousFileId = file.getFileId();
+        if (!gridFsReferences.isShared(previousFileId)) return;
 
-                mongoOperations.upsert(
-                    newPathQuery(mongoPathMeta),
-                    Update.fromDocument(new Document(mongoPathMeta.toMap())),
-                    MongoPathMeta.class,
-                    pathCollection
-                );
-            }
-        };
+        try (InputStream inputStream = openGridFsStream(previousFileId)) {
+            if (null == inputStream) throw new RuntimeException(String.format("GridFS文件%s已经不存在：%s", previousFileId, file.getPath()));
 
-        if (null != pathMeta.getFileId()) {
-            gridFSBucket.downloadToStream(pathMeta.getFileId(), bufferedOutputStream);
+            file.setFileId(storeGridFs(inputStream, file.getPath()));
         }
-        else if (null != pathMeta.getFileData()) {
-            try {
-                bufferedOutputStream.write(pathMeta.getFileData().getData());
-            }
-            catch (IOException e) {
-                throw new RuntimeException(e);
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        mongoOperations.updateFirst(newPathQuery(file), Update.update("fileId", file.getFileId()), pathCollection);
+        gridFsReferences.release(previousFileId);
+    }
+
+    /**
+     * 逐批读取受影响的chunk，写入后以upsert替换，内存占用与写入范围无关。
+     */
+    private void writeChunks(GridFSFile gridFSFile, long offset, ByteBuffer data, long length) {
+        int chunkSize = gridFSFile.getChunkSize();
+        long end = offset + data.remaining();
+        if (end <= offset && offset <= gridFSFile.getLength()) return;
+
+        //offset超过原文件大小时，从原来的最后一个chunk开始补齐。
+        long first = Math.min(offset, gridFSFile.getLength()) / chunkSize;
+        long last = (length - 1) / chunkSize;
+
+        for (long batchStart = first; batchStart <= last; batchStart += CHUNK_WRITE_BATCH) {
+            long batchEnd = Math.min(last, batchStart + CHUNK_WRITE_BATCH - 1);
+
+            Map<Integer, byte[]> existing = new HashMap<>();
+            chunksCollection
+                .find(Filters.and(Filters.eq("files_id", gridFSFile.getId()), Filters.gte("n", (int) batchStart), Filters.lte("n", (int) batchEnd)))
+                .forEach(chunk -> existing.put(chunk.getInteger("n"), chunk.get("data", Binary.class).getData()));
+
+            List<ReplaceOneModel<Document>> models = new ArrayList<>();
+            for (long n = batchStart; n <= batchEnd; ++n) {
+                long chunkStart = n * chunkSize;
+                int chunkLength = (int) Math.min(chunkSize, length - chunkStart);
+
+                byte[] bytes = Arrays.copyOf(existing.getOrDefault((int) n, new byte[0]), chunkLength);
+
+                long from = Math.max(offset, chunkStart);
+                long to = Math.min(end, chunkStart + chunkLength);
+                if (from < to) {
+                    ByteBuffer slice = data.duplicate();
+                    slice.position(data.position() + (int) (from - offset));
+                    slice.get(bytes, (int) (from - chunkStart), (int) (to - from));
+                }
+
+                models.add(new ReplaceOneModel<>(
+                    Filters.and(Filters.eq("files_id", gridFSFile.getId()), Filters.eq("n", (int) n)),
+                    new Document("files_id", gridFSFile.getId()).append("n", (int) n).append("data", new Binary(bytes)),
+                    new ReplaceOptions().upsert(true)
+                ));
             }
+
+            chunksCollection.bulkWrite(models, new BulkWriteOptions().ordered(false));
         }
 
-        return bufferedOutputStream;
+        data.position(data.limit());
     }
 
+    /**
+     * 文件移动到不存在的路径时只修改元信息，其它情况复制后删除源路径。
+     * 复制只增加GridFS文件的引用，因此移动不会读写文件内容。
+     */
     @Override
     public void move(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        NormalizedPath normalizedSrc = new NormalizedPath(source);
+        NormalizedPath normalizedDest = new NormalizedPath(destination);
+
+        MongoPathMeta sourcePathMeta = queryPathMeta(normalizedSrc);
+        if (null == sourcePathMeta) throw new PathNotFoundException(source);
+
+        if (!sourcePathMeta.isDirectory() && null == queryPathMeta(normalizedDest)) {
+            MongoPathMeta destDirectory = createAndGetDirectory(normalizedDest.getParentPath());
+
+            mongoOperations.updateFirst(
+                newPathQuery(sourcePathMeta),
+                Update.update("name", normalizedDest.getName())
+                    .set("parent", normalizedDest.getParent())
+                    .set("parentId", destDirectory.getId())
+                    .set("ancestors", MongoPathMeta.ancestors(normalizedDest.getParent()))
+                    .set("nameGrams", MongoPathMeta.nameGrams(normalizedDest.getName())),
+                MongoPathMeta.class,
+                pathCollection
+            );
+
+            return;
+        }
+
         copy(source, destination, replaceExisting);
         delete(source);
     }
@@ -268,13 +577,11 @@ public class MongoDbFileSystem implements FileSystem {
 
         MongoPathMeta destPathMeta = queryPathMeta(normalizedDest);
         if (null == destPathMeta) {
-            MongoPathMeta destDirectory = createAndGetDirectory(normalizedDest);
-
             if (sourcePathMeta.isDirectory()) {
-                copyFromDirectoryToDirectory(sourcePathMeta, destDirectory, replaceExisting);
+                copyFromDirectoryToDirectory(sourcePathMeta, createAndGetDirectory(normalizedDest), replaceExisting);
             }
             else {
-                copyFileToDirectory(sourcePathMeta, destDirectory, replaceExisting);
+                copyFileToDirectory(sourcePathMeta, createAndGetDirectory(normalizedDest.getParentPath()), normalizedDest.getName(), replaceExisting);
             }
         }
         else {
@@ -283,9 +590,11 @@ public class MongoDbFileSystem implements FileSystem {
 
                 copyFromDirectoryToDirectory(sourcePathMeta, destPathMeta, replaceExisting);
             }
+            else if (destPathMeta.isDirectory()) {
+                copyFileToDirectory(sourcePathMeta, destPathMeta, sourcePathMeta.getName(), replaceExisting);
+            }
             else {
-                MongoPathMeta destDirectory = destPathMeta.isDirectory() ? destPathMeta : queryPathMeta(destPathMeta.getParentId());
-                copyFileToDirectory(sourcePathMeta, destDirectory, replaceExisting);
+                copyFileToDirectory(sourcePathMeta, queryPathMeta(destPathMeta.getParentId()), destPathMeta.getName(), replaceExisting);
             }
         }
     }
@@ -297,57 +606,137 @@ public class MongoDbFileSystem implements FileSystem {
 
     @Override
     public void touchCreation(String path) {
-        touchPath(new NormalizedPath(path), meta -> meta.setCreationTime(Instant.now()));
+        touchPath(new NormalizedPath(path), Update.update("creationTime", Instant.now()));
     }
 
+    /**
+     * 以$max写入，并发的touch不会使时间倒退。
+     */
     @Override
     public void touchLastModified(String path) {
-        touchPath(new NormalizedPath(path), meta -> meta.setLastModifiedTime(Instant.now()));
+        touchPath(new NormalizedPath(path), new Update().max("lastModifiedTime", Instant.now()));
     }
 
+    /**
+     * 以$max写入；启用访问时间缓冲时只记录在内存中，定期合并提交。
+     */
     @Override
     public void touchLastAccess(String path) {
-        touchPath(new NormalizedPath(path), meta -> meta.setLastAccessTime(Instant.now()));
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+
+        if (null != accessTimeBuffer) {
+            accessTimeBuffer.touch(normalizedPath, Instant.now());
+            return;
+        }
+
+        touchPath(normalizedPath, new Update().max("lastAccessTime", Instant.now()));
     }
 
+    /**
+     * 启用访问时间缓冲时，返回的访问时间包含尚未提交的部分。
+     */
     @SuppressWarnings("unchecked")
     @Override
     public <M extends PathMeta> M meta(String path) {
-        return (M) queryPathMeta(new NormalizedPath(path));
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+        MongoPathMeta meta = queryPathMeta(normalizedPath);
+
+        if (null != meta && null != accessTimeBuffer) {
+            accessTimeBuffer.apply(normalizedPath, meta);
+        }
+
+        return (M) meta;
     }
 
+    /**
+     * 以各个路径的(parent, name)组成的$or一次查询，只取回请求的路径。
+     * 启用访问时间缓冲时，与{@link #meta(String)}一样返回包含尚未提交部分的访问时间。
+     */
+    @SuppressWarnings("unchecked")
     @Override
-    public Stream<MongoPathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
-        NormalizedPath normalizePath = new NormalizedPath(path);
-        MongoPathMeta root = queryPathMeta(normalizePath);
-        if (null == root || !root.isDirectory()) throw new PathNotFoundException(path);
+    public <M extends PathMeta> Map<String, M> metas(Collection<String> paths) {
+        Map<String, M> metas = new HashMap<>();
+        if (paths.isEmpty()) return metas;
+
+        Map<String, NormalizedPath> normalizedPaths = paths.stream().distinct().collect(Collectors.toMap(p -> p, NormalizedPath::new));
+
+        Query query = Query.query(new Criteria().orOperator(
+            normalizedPaths.values().stream()
+                .distinct()
+                .map(normalizedPath -> Criteria.where("parent").is(normalizedPath.getParent()).and("name").is(normalizedPath.getName()))
+                .toArray(Criteria[]::new)
+        ));
+
+        Map<NormalizedPath, MongoPathMeta> found = mongoOperations.find(withoutFileData(query), MongoPathMeta.class, pathCollection).stream()
+            .collect(Collectors.toMap(meta -> new NormalizedPath(meta.getPath()), meta -> meta, (a, b) -> a));
+
+        normalizedPaths.forEach((path, normalizedPath) -> {
+            MongoPathMeta meta = found.get(normalizedPath);
+            if (null != meta) {
+                if (null != accessTimeBuffer) {
+                    accessTimeBuffer.apply(normalizedPath, meta);
+                }
 
-        Stream<MongoPathMeta> stream = subDirectories(root, search, recursive);
+                metas.put(path, (M) meta);
+            }
+        });
 
-        if (null != sort) {
-            stream = FileSystem.sort(stream, sort);
-        }
+        return metas;
+    }
 
-        if (offset > 0) {
-            stream = stream.skip(offset);
-        }
+    /**
+     * 文件的元信息和GridFS内容各自以一次$in删除，目录逐个删除。
+     */
+    @Override
+    public void deleteAll(Collection<String> paths) {
+        Map<String, MongoPathMeta> metas = metas(paths);
 
-        if (limit > 0) {
-            stream = stream.limit(limit);
+        List<String> ids = new ArrayList<>();
+        List<ObjectId> fileIds = new ArrayList<>();
+
+        metas.values().forEach(meta -> {
+            if (meta.isDirectory()) {
+                delete(meta.getPath());
+                return;
+            }
+
+            ids.add(meta.getId());
+            if (null != meta.getFileId()) {
+                fileIds.add(meta.getFileId());
+            }
+        });
+
+        if (!ids.isEmpty()) {
+            mongoOperations.remove(Query.query(Criteria.where("_id").in(ids)), MongoPathMeta.class, pathCollection);
         }
 
-        return stream;
+        gridFsReferences.release(fileIds);
     }
 
+    /**
+     * 递归时以ancestors上的一次索引查询取得所有下级目录，排序、分页由mongodb完成。
+     */
     @Override
-    public Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+    public Stream<MongoPathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return listPaths(path, true, search, recursive, offset, limit, sort);
+    }
+
+    /**
+     * 递归时以ancestors上的一次索引查询取得所有下级文件，排序、分页由mongodb完成。
+     */
+    @Override
+    public Stream<MongoPathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return listPaths(path, false, search, recursive, offset, limit, sort);
+    }
+
+    private Stream<MongoPathMeta> listPaths(String path, boolean isDirectory, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
         NormalizedPath normalizePath = new NormalizedPath(path);
         MongoPathMeta root = queryPathMeta(normalizePath);
         if (null == root || !root.isDirectory()) throw new PathNotFoundException(path);
 
-        Query query = new Query(Criteria.where("isDirectory").is(false));
+        Query query = new Query(Criteria.where("isDirectory").is(isDirectory));
         if (StringUtils.hasText(search)) {
-            query = query.addCriteria(Criteria.where("name").regex(".*" + search + ".*"));
+            query = query.addCriteria(searchCriteria(search));
         }
 
         if (null != sort) {
@@ -362,16 +751,53 @@ public class MongoDbFileSystem implements FileSystem {
             query = query.limit(limit);
         }
 
-        if (!recursive) {
-            Criteria criteria = Criteria.where("parent").is(root.getPath());
-            return iteratorToStream(mongoOperations.stream(query.addCriteria(criteria), MongoPathMeta.class, pathCollection));
-        }
+        query.addCriteria(Criteria.where(recursive ? "ancestors" : "parent").is(root.getPath()));
+
+        return iteratorToStream(mongoOperations.stream(withoutFileData(query), MongoPathMeta.class, pathCollection));
+    }
+
+    /**
+     * 搜索串不短于{@link NameGrams#GRAM}时，先以nameGrams上的索引取得包含其所有trigram的路径，再以正则确认；
+     * 更短的搜索串无法使用nameGrams，只能在parent或ancestors索引选出的路径上逐个以正则匹配名称。
+     */
+    private Criteria searchCriteria(String search) {
+        Criteria criteria = Criteria.where("name").regex(Pattern.quote(search));
+        if (search.length() < NameGrams.GRAM) return criteria;
+
+        return new Criteria().andOperator(Criteria.where("nameGrams").all(MongoPathMeta.nameGrams(search)), criteria);
+    }
+
+    /**
+     * 以路径集合上的change stream监听，mongodb需要以副本集或分片集群方式部署。
+     */
+    @Override
+    public Flux<PathEvent> watch(String path, boolean recursive) {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+
+        return Flux.create(sink -> {
+            if (!NormalizedPath.ROOT.equals(normalizedPath)) {
+                MongoPathMeta directory = queryPathMeta(normalizedPath);
+                if (null == directory || !directory.isDirectory()) {
+                    sink.error(new PathNotFoundException(path));
+                    return;
+                }
+            }
 
-        List<String> directories = subDirectories(root, search, true).map(MongoPathMeta::getPath).collect(Collectors.toList());
-        directories.add(root.getPath());
-        query = query.addCriteria(Criteria.where("parent").in(directories));
+            MongoPathWatcher watcher = new MongoPathWatcher(mongoOperations.getCollection(pathCollection), normalizedPath.toString(), recursive, sink);
+            sink.onDispose(watcher::close);
+
+            try {
+                watcher.start();
+            }
+            catch (RuntimeException e) {
+                sink.error(e);
+            }
+        });
+    }
 
-        return iteratorToStream(mongoOperations.stream(query, MongoPathMeta.class, pathCollection));
+    @Override
+    public boolean isWatchSupported() {
+        return true;
     }
 
     private <T> Stream<T> iteratorToStream(Iterator<T> iterator) {
@@ -386,55 +812,83 @@ public class MongoDbFileSystem implements FileSystem {
         return Query.query(Criteria.where("name").is(normalizedPath.getName()).and("parent").is(normalizedPath.getParent()));
     }
 
+    /**
+     * 启用目录缓存时，目录的元信息优先从缓存获取。
+     */
     private MongoPathMeta queryPathMeta(NormalizedPath normalizedPath) {
-        return mongoOperations.findOne(newPathQuery(normalizedPath), MongoPathMeta.class, pathCollection);
+        if (null == directoryCache) return findPathMeta(normalizedPath);
+
+        return directoryCache.get(normalizedPath, () -> findPathMeta(normalizedPath));
+    }
+
+    private MongoPathMeta findPathMeta(NormalizedPath normalizedPath) {
+        return mongoOperations.findOne(withoutFileData(newPathQuery(normalizedPath)), MongoPathMeta.class, pathCollection);
     }
 
     private MongoPathMeta queryPathMeta(String pathName, String parentId) {
         Query query = Query.query(Criteria.where("name").is(pathName).and("parentId").is(parentId));
 
-        return mongoOperations.findOne(query, MongoPathMeta.class, pathCollection);
+        return mongoOperations.findOne(withoutFileData(query), MongoPathMeta.class, pathCollection);
     }
 
     private MongoPathMeta queryPathMeta(String pathId) {
         Query query = Query.query(Criteria.where("_id").is(pathId));
 
-        return mongoOperations.findOne(query, MongoPathMeta.class, pathCollection);
+        return mongoOperations.findOne(withoutFileData(query), MongoPathMeta.class, pathCollection);
+    }
+
+    /**
+     * 元信息查询不取回放在元信息中的文件内容，列表、查询元信息的开销只与路径数量有关，与文件大小无关。
+     */
+    private Query withoutFileData(Query query) {
+        query.fields().exclude("fileData");
+        return query;
+    }
+
+    /**
+     * 读取放在元信息中的文件内容，元信息本身是不带内容查询得到的。
+     *
+     * @return 路径不存在或没有内容时返回空数组。
+     */
+    private byte[] loadFileData(MongoPathMeta meta) {
+        if (null != meta.getFileData()) return meta.getFileData().getData();
+
+        Query query = Query.query(Criteria.where("_id").is(meta.getId()));
+        query.fields().include("fileData");
+
+        MongoPathMeta content = mongoOperations.findOne(query, MongoPathMeta.class, pathCollection);
+        if (null == content || null == content.getFileData()) return new byte[0];
+
+        meta.setFileData(content.getFileData());
+        return content.getFileData().getData();
     }
 
     private CloseableIterator<MongoPathMeta> getPathsInDirectory(MongoPathMeta directory) {
         return mongoOperations.stream(
-            Query.query(Criteria.where("parent").is(directory.getPath())),
+            withoutFileData(Query.query(Criteria.where("parent").is(directory.getPath()))),
             MongoPathMeta.class,
             pathCollection
         );
     }
 
-    private void touchPath(NormalizedPath normalizedPath, Consumer<MongoPathMeta> consumer) {
-        MongoPathMeta pathMeta = queryPathMeta(normalizedPath);
-
-        consumer.accept(pathMeta);
-
-        mongoOperations.updateFirst(
-            newPathQuery(pathMeta),
-            Update.fromDocument(new Document(pathMeta.toMap())),
-            pathCollection
-        );
+    /**
+     * 只更新时间字段，不读取、不回写元信息的其它字段。
+     */
+    private void touchPath(NormalizedPath normalizedPath, Update update) {
+        mongoOperations.updateFirst(newPathQuery(normalizedPath), update, pathCollection);
+        invalidateDirectoryCache(normalizedPath, false);
     }
 
-    private Stream<MongoPathMeta> subDirectories(MongoPathMeta root, String search, boolean recursive) {
-        Query query = Query.query(Criteria.where("parent").is(root.getPath()).and("isDirectory").is(true));
-        if (StringUtils.hasText(search)) {
-            query = query.addCriteria(Criteria.where("name").regex("*" + search + "*"));
+    private void invalidateLocalMirror(ObjectId fileId) {
+        if (null != localMirror) {
+            localMirror.invalidate(fileId);
         }
+    }
 
-        if (!mongoOperations.exists(query, pathCollection)) return Stream.empty();
-
-        Stream<MongoPathMeta> stream = iteratorToStream(mongoOperations.stream(query, MongoPathMeta.class, pathCollection));
-        if (!recursive) return stream;
-
-        List<MongoPathMeta> subDirectories = stream.collect(Collectors.toList());
-        return Stream.concat(subDirectories.stream(), subDirectories.stream().flatMap(d -> subDirectories(d, search, true)));
+    private void invalidateDirectoryCache(NormalizedPath normalizedPath, boolean recursive) {
+        if (null != directoryCache) {
+            directoryCache.invalidate(normalizedPath, recursive);
+        }
     }
 
     private Query sort(Query query, PathMetaSort sort) {
@@ -473,6 +927,103 @@ public class MongoDbFileSystem implements FileSystem {
         }
     }
 
+    /**
+     * 准备要写入的文件元信息，文件内容小于阈值时放在元信息中，否则存入GridFS。
+     *
+     * @param file            路径上已存在的元信息，不存在时为null。
+     * @param directories     已经获取过的目录，批量写入时避免重复查询。
+     * @param previousFileIds 收集被替换的GridFS文件，由调用方在元信息写入成功后释放，之前读取方仍可读到原有的内容。
+     */
+    private MongoPathMeta prepareFile(NormalizedPath normalizedPath, MongoPathMeta file, InputStream stream, Map<NormalizedPath, MongoPathMeta> directories, Collection<ObjectId> previousFileIds) throws InvalidFileException {
+        file = prepareFileMeta(normalizedPath, file, directories);
+
+        try {
+            file.setSize(stream.available());
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        ObjectId previousFileId = file.getFileId();
+
+        if (file.getSize() <= fileSizeThreshold) {
+            try {
+                file.setFileData(new Binary(StreamUtils.copyToByteArray(stream)));
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            file.setFileId(null);
+        }
+        else {
+            file.setFileId(storeGridFs(stream, file.getPath()));
+            file.setFileData(null);
+        }
+
+        if (null != previousFileId) {
+            previousFileIds.add(previousFileId);
+        }
+
+        return file;
+    }
+
+    /**
+     * 解析软链接，路径不存在时创建文件的元信息，否则更新修改时间。
+     */
+    private MongoPathMeta prepareFileMeta(NormalizedPath normalizedPath, MongoPathMeta file, Map<NormalizedPath, MongoPathMeta> directories) throws InvalidFileException {
+        if (file != null && file.isSymbolicLink() != null && file.isSymbolicLink()) {
+            file = queryPathMeta(file.getOriginalId());
+        }
+
+        if (null == file) {
+            MongoPathMeta directory = directories.computeIfAbsent(normalizedPath.getParentPath(), this::createAndGetDirectory);
+            file = new MongoPathMeta(normalizedPath);
+            file.setDirectory(false);
+            file.setId(ObjectId.get().toString());
+            file.setParentId(directory.getId());
+
+            Instant now = Instant.now();
+            file.setCreationTime(now);
+            file.setLastModifiedTime(now);
+            file.setLastAccessTime(now);
+        }
+        else if (file.isDirectory()) {
+            throw new InvalidFileException(normalizedPath.toString());
+        }
+        else {
+            file.setLastModifiedTime(Instant.now());
+        }
+
+        return file;
+    }
+
+    /**
+     * 提交已经写入GridFS或已读入内存的文件内容，供{@link ReactiveMongoDbFileSystem}在内容写完后保存元信息。
+     *
+     * @param fileId   内容在GridFS中的id，内容放在元信息中时为null。
+     * @param fileData 放在元信息中的内容，内容存入GridFS时为null。
+     */
+    void putStored(String path, ObjectId fileId, byte[] fileData, long size) throws InvalidFileException {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+        MongoPathMeta file = prepareFileMeta(normalizedPath, queryPathMeta(normalizedPath), new HashMap<>());
+        ObjectId previousFileId = file.getFileId();
+
+        file.setSize(size);
+        file.setFileId(fileId);
+        file.setFileData(null == fileData ? null : new Binary(fileData));
+
+        mongoOperations.upsert(newPathQuery(file), Update.fromDocument(new Document(file.toMap())), MongoPathMeta.class, pathCollection);
+
+        if (null != previousFileId && !previousFileId.equals(fileId)) {
+            gridFsReferences.release(previousFileId);
+        }
+    }
+
+    int getFileSizeThreshold() {
+        return fileSizeThreshold;
+    }
+
     @SuppressWarnings("UnusedReturnValue")
     private MongoPathMeta createAndGetDirectory(NormalizedPath normalizedPath) {
         MongoPathMeta meta = queryPathMeta(normalizedPath);
@@ -493,77 +1044,193 @@ public class MongoDbFileSystem implements FileSystem {
 
         mongoOperations.insert(meta, pathCollection);
 
+        if (null != directoryCache) {
+            directoryCache.put(meta);
+        }
+
         return meta;
     }
 
     private void delete(NormalizedPath normalizedPath) {
         Query query = newPathQuery(normalizedPath);
 
-        MongoPathMeta pathMeta = mongoOperations.findOne(query, MongoPathMeta.class, pathCollection);
+        MongoPathMeta pathMeta = queryPathMeta(normalizedPath);
         if (null == pathMeta) return;
 
         if (pathMeta.isDirectory()) {
-            delete(normalizedPath.getParentPath());
+            deleteDescendants(pathMeta.getPath());
+
+            //根目录只清空，不删除。
+            if (!NormalizedPath.ROOT.equals(normalizedPath)) {
+                mongoOperations.remove(query, pathCollection);
+            }
+
+            invalidateDirectoryCache(normalizedPath, true);
         }
         else {
             mongoOperations.remove(query, pathCollection);
 
             if (null != pathMeta.getFileId()) {
-                gridFsOperations.delete(query);
+                gridFsReferences.release(pathMeta.getFileId());
             }
         }
     }
 
-    private void copyFileToDirectory(MongoPathMeta sourceFileMeta, MongoPathMeta directory, boolean replaceExisting) {
-        MongoPathMeta existFile = queryPathMeta(sourceFileMeta.getName(), directory.getId());
+    /**
+     * 以ancestors流式查询目录下所有文件，按批删除元信息及其GridFS内容，最后一次删除所有下级目录，内存占用与目录大小无关。
+     */
+    private void deleteDescendants(String directory) {
+        Query query = Query.query(Criteria.where("ancestors").is(directory).and("isDirectory").is(false));
+        query.fields().include("fileId");
+
+        List<Object> ids = new ArrayList<>();
+        List<ObjectId> fileIds = new ArrayList<>();
 
-        if (null != existFile) {
-            if (!replaceExisting) return;
+        try (CloseableIterator<Document> iterator = mongoOperations.stream(query, Document.class, pathCollection)) {
+            while (iterator.hasNext()) {
+                Document document = iterator.next();
 
-            MongoPathMeta destFileMeta = sourceFileMeta.clone();
-            destFileMeta.setParentId(directory.getId());
-            destFileMeta.setParent(directory.getPath());
+                ids.add(document.get("_id"));
+                if (null != document.getObjectId("fileId")) {
+                    fileIds.add(document.getObjectId("fileId"));
+                }
 
-            if (null != existFile.getFileId()) {
-                gridFSBucket.delete(existFile.getFileId());
+                if (ids.size() >= BATCH_SIZE) {
+                    deleteFiles(ids, fileIds);
+                }
             }
+        }
 
-            mongoOperations.updateFirst(newPathQuery(destFileMeta), Update.fromDocument(new Document(destFileMeta.toMap())), pathCollection);
+        deleteFiles(ids, fileIds);
+
+        mongoOperations.remove(Query.query(Criteria.where("ancestors").is(directory)), pathCollection);
+    }
+
+    private void deleteFiles(List<Object> ids, List<ObjectId> fileIds) {
+        if (!ids.isEmpty()) {
+            mongoOperations.remove(Query.query(Criteria.where("_id").in(ids)), pathCollection);
         }
-        else {
-            MongoPathMeta destFileMeta = sourceFileMeta.clone();
-            destFileMeta.setParentId(directory.getId());
-            destFileMeta.setParent(directory.getPath());
-
-            if (null != destFileMeta.getFileId()) {
-                ObjectId fileId;
-                try {
-                    fileId = gridFsOperations.store(
-                        gridFsOperations.getResource(sourceFileMeta.getPath()).getInputStream(),
-                        destFileMeta.getPath()
-                    );
-                }
-                catch (IOException e) {
-                    throw new RuntimeException(e);
+
+        gridFsReferences.release(fileIds);
+
+        ids.clear();
+        fileIds.clear();
+    }
+
+    private void ensurePathIndexes() {
+        IndexOperations indexOperations = mongoOperations.indexOps(pathCollection);
+
+        indexOperations.ensureIndex(new Index().on("parent", Sort.Direction.ASC).on("name", Sort.Direction.ASC));
+        indexOperations.ensureIndex(new Index().on("parentId", Sort.Direction.ASC).on("name", Sort.Direction.ASC));
+        indexOperations.ensureIndex(new Index().on("parent", Sort.Direction.ASC).on("isDirectory", Sort.Direction.ASC).on("name", Sort.Direction.ASC));
+        indexOperations.ensureIndex(new Index().on("ancestors", Sort.Direction.ASC));
+        indexOperations.ensureIndex(new Index().on("nameGrams", Sort.Direction.ASC));
+        indexOperations.ensureIndex(new Index().on("fileId", Sort.Direction.ASC));
+    }
+
+    /**
+     * 为引入ancestors、nameGrams之前写入的路径补充这些字段。
+     * 完成后在{@link #MIGRATION_COLLECTION_SUFFIX}集合中写入标记，之后启动时不再扫描路径集合。
+     */
+    private void backfillDerivedFields() {
+        String migrationCollection = pathCollection + MIGRATION_COLLECTION_SUFFIX;
+        Query marker = Query.query(Criteria.where("_id").is(DERIVED_FIELDS_MIGRATION));
+        if (mongoOperations.exists(marker, migrationCollection)) return;
+
+        Query query = new Query(new Criteria().orOperator(
+            Criteria.where("ancestors").exists(false),
+            Criteria.where("nameGrams").exists(false)
+        ));
+        query.fields().include("parent").include("name");
+
+        BulkOperations operations = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, pathCollection);
+        int count = 0;
+        long total = 0;
+
+        try (CloseableIterator<Document> iterator = mongoOperations.stream(query, Document.class, pathCollection)) {
+            while (iterator.hasNext()) {
+                Document document = iterator.next();
+
+                operations.updateOne(
+                    Query.query(Criteria.where("_id").is(document.get("_id"))),
+                    Update.update("ancestors", MongoPathMeta.ancestors(document.getString("parent")))
+                        .set("nameGrams", MongoPathMeta.nameGrams(document.getString("name")))
+                );
+
+                if (++count >= BATCH_SIZE) {
+                    operations.execute();
+                    operations = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, pathCollection);
+                    total += count;
+                    count = 0;
                 }
-                destFileMeta.setFileId(fileId);
             }
+        }
+
+        if (count > 0) {
+            operations.execute();
+            total += count;
+        }
+
+        if (total > 0) {
+            log.message("已为路径补充ancestors、nameGrams")
+                .context("collection", pathCollection)
+                .context("count", total)
+                .info();
+        }
+
+        mongoOperations.upsert(marker, Update.update("completedAt", new Date()), migrationCollection);
+    }
+
+    /**
+     * 复制为目录下名为name的文件，元信息使用新的id，GridFS中的内容只增加引用，写入时才复制。
+     */
+    private void copyFileToDirectory(MongoPathMeta sourceFileMeta, MongoPathMeta directory, String name, boolean replaceExisting) {
+        MongoPathMeta existFile = queryPathMeta(name, directory.getId());
+        if (null != existFile && (!replaceExisting || existFile.isDirectory())) return;
+
+        if (null == sourceFileMeta.getFileId()) {
+            loadFileData(sourceFileMeta);
+        }
+
+        MongoPathMeta destFileMeta = sourceFileMeta.clone();
+        destFileMeta.setId(null == existFile ? ObjectId.get().toString() : existFile.getId());
+        destFileMeta.setParentId(directory.getId());
+        destFileMeta.setParent(directory.getPath());
+        destFileMeta.setName(name);
+
+        if (null != sourceFileMeta.getFileId() && !gridFsReferences.retain(sourceFileMeta.getFileId())) {
+            throw new RuntimeException(String.format("GridFS文件%s已经不存在：%s", sourceFileMeta.getFileId(), sourceFileMeta.getPath()));
+        }
+
+        try {
+            mongoOperations.upsert(newPathQuery(destFileMeta), Update.fromDocument(new Document(destFileMeta.toMap())), MongoPathMeta.class, pathCollection);
+        }
+        catch (RuntimeException e) {
+            if (null != sourceFileMeta.getFileId()) {
+                gridFsReferences.release(sourceFileMeta.getFileId());
+            }
+
+            throw e;
+        }
 
-            mongoOperations.insert(destFileMeta, pathCollection);
+        if (null != existFile && null != existFile.getFileId()) {
+            gridFsReferences.release(existFile.getFileId());
         }
     }
 
     private void copyFromDirectoryToDirectory(MongoPathMeta srcDirectory, MongoPathMeta destDirectory, boolean replaceExisting) {
-        CloseableIterator<MongoPathMeta> iterator = getPathsInDirectory(srcDirectory);
-        iterator.forEachRemaining(meta -> {
+        List<MongoPathMeta> paths;
+        try (CloseableIterator<MongoPathMeta> iterator = getPathsInDirectory(srcDirectory)) {
+            paths = iteratorToStream(iterator).collect(Collectors.toList());
+        }
+
+        paths.forEach(meta -> {
             if (meta.isDirectory()) {
-                MongoPathMeta subDirectory = meta.clone();
-                subDirectory.setParent(destDirectory.getPath());
-                subDirectory.setParentId(destDirectory.getId());
-                copyFromDirectoryToDirectory(meta, subDirectory, replaceExisting);
+                NormalizedPath subDirectoryPath = new NormalizedPath(destDirectory.getPath() + PATH_SEPARATOR_STRING + meta.getName());
+                copyFromDirectoryToDirectory(meta, createAndGetDirectory(subDirectoryPath), replaceExisting);
             }
             else {
-                copyFileToDirectory(meta, destDirectory, replaceExisting);
+                copyFileToDirectory(meta, destDirectory, meta.getName(), replaceExisting);
             }
         });
     }
@@ -0,0 +1,274 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import me.insidezhou.southernquiet.filesystem.NormalizedPath;
+import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
+import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static me.insidezhou.southernquiet.filesystem.FileSystem.PATH_SEPARATOR_STRING;
+
+/**
+ * {@link MongoDbFileSystem}的目录元信息缓存，容量有限，写入后一段时间过期。
+ * <ul>
+ * <li>只缓存目录，文件的元信息随每次写入变化，仍然每次查询。</li>
+ * <li>通过当前实例进行的写操作同步失效相关缓存。</li>
+ * <li>其它实例的修改通过路径集合上的change stream按_id异步失效；mongodb不支持change stream时只依赖过期时间。</li>
+ * </ul>
+ */
+public class MongoDirectoryCache implements AutoCloseable {
+    private final static SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(MongoDirectoryCache.class);
+
+    private final static long MAX_AWAIT_MILLIS = 500;
+    private final static long RETRY_MILLIS = 1000;
+
+    private final MongoCollection<Document> collection;
+    private final Cache<NormalizedPath, MongoPathMeta> entries;
+    private final Map<String, NormalizedPath> pathsById = new ConcurrentHashMap<>();
+    private final Thread watchThread;
+
+    /**
+     * 每次失效都会递增，用来丢弃加载期间已经过时的结果。
+     */
+    private long generation = 0;
+
+    private volatile boolean closed;
+
+    public MongoDirectoryCache(MongoCollection<Document> collection, int maxSize, Duration expireAfterWrite) {
+        this.collection = collection;
+
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().maximumSize(maxSize).recordStats();
+        if (null != expireAfterWrite) {
+            builder.expireAfterWrite(expireAfterWrite);
+        }
+
+        this.entries = builder
+            .executor(Runnable::run)
+            .<NormalizedPath, MongoPathMeta>removalListener((path, meta, cause) -> {
+                if (null != meta) pathsById.remove(meta.getId(), path);
+            })
+            .build();
+
+        this.watchThread = new Thread(this::watch, "MongoDirectoryCache-" + collection.getNamespace().getCollectionName());
+        this.watchThread.setDaemon(true);
+        this.watchThread.start();
+    }
+
+    /**
+     * 优先从缓存获取元信息，未命中时使用loader加载。
+     *
+     * @param loader 路径不存在时返回null，不存在的路径和文件不会被缓存。
+     */
+    public MongoPathMeta get(NormalizedPath normalizedPath, Supplier<MongoPathMeta> loader) {
+        long loadingGeneration;
+
+        synchronized (this) {
+            MongoPathMeta meta = entries.getIfPresent(normalizedPath);
+            if (null != meta) return meta.clone();
+
+            loadingGeneration = generation;
+        }
+
+        MongoPathMeta meta = loader.get();
+        if (null == meta || !meta.isDirectory()) return meta;
+
+        synchronized (this) {
+            if (loadingGeneration == generation) {
+                put(normalizedPath, meta);
+            }
+        }
+
+        return meta;
+    }
+
+    /**
+     * {@link #get(NormalizedPath, Supplier)}的响应式版本。
+     *
+     * @param loader 路径不存在时为空。
+     */
+    public Mono<MongoPathMeta> load(NormalizedPath normalizedPath, Supplier<Mono<MongoPathMeta>> loader) {
+        return Mono.defer(() -> {
+            long loadingGeneration;
+
+            synchronized (this) {
+                MongoPathMeta meta = entries.getIfPresent(normalizedPath);
+                if (null != meta) return Mono.just(meta.clone());
+
+                loadingGeneration = generation;
+            }
+
+            return loader.get().doOnNext(meta -> {
+                if (!meta.isDirectory()) return;
+
+                synchronized (this) {
+                    if (loadingGeneration == generation) {
+                        put(normalizedPath, meta);
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * 缓存当前实例刚刚创建的目录。
+     */
+    public synchronized void put(MongoPathMeta directory) {
+        put(new NormalizedPath(directory.getPath()), directory);
+    }
+
+    /**
+     * 失效路径的缓存。
+     *
+     * @param recursive 如果true，同时失效路径下的所有缓存。
+     */
+    public synchronized void invalidate(NormalizedPath normalizedPath, boolean recursive) {
+        ++generation;
+
+        entries.invalidate(normalizedPath);
+
+        if (recursive) {
+            String prefix = NormalizedPath.ROOT.equals(normalizedPath) ? PATH_SEPARATOR_STRING : normalizedPath.toString() + PATH_SEPARATOR_STRING;
+            entries.asMap().keySet().removeIf(p -> p.toString().startsWith(prefix));
+        }
+    }
+
+    public synchronized void clear() {
+        ++generation;
+        entries.invalidateAll();
+    }
+
+    public long size() {
+        return entries.estimatedSize();
+    }
+
+    public long getHitCount() {
+        return entries.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return entries.stats().missCount();
+    }
+
+    public double getHitRatio() {
+        return entries.stats().hitRate();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        watchThread.interrupt();
+    }
+
+    private void put(NormalizedPath normalizedPath, MongoPathMeta directory) {
+        MongoPathMeta copy = directory.clone();
+        copy.setFileData(null);
+
+        entries.put(normalizedPath, copy);
+        pathsById.put(copy.getId(), normalizedPath);
+    }
+
+    private synchronized void invalidateById(String id) {
+        NormalizedPath normalizedPath = pathsById.get(id);
+        if (null == normalizedPath) return;
+
+        ++generation;
+        entries.invalidate(normalizedPath);
+    }
+
+    /**
+     * change stream中断后重新打开，重新打开之前的修改无法得知，因此清空缓存。
+     * 第一次就无法打开时认为mongodb不支持change stream，不再重试。
+     */
+    private void watch() {
+        boolean opened = false;
+
+        while (!closed) {
+            MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor;
+            try {
+                cursor = collection.watch(Arrays.asList(
+                    Aggregates.match(Filters.in("operationType", "update", "replace", "delete", "drop", "rename", "dropDatabase", "invalidate")),
+                    Aggregates.project(Projections.include("operationType", "documentKey"))
+                ))
+                    .maxAwaitTime(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS)
+                    .cursor();
+            }
+            catch (MongoException e) {
+                if (!opened) {
+                    log.message("无法监听路径集合，目录缓存只依赖过期时间失效").exception(e).warn();
+                    return;
+                }
+
+                log.message("重新监听路径集合失败").exception(e).warn();
+                if (!sleep()) return;
+                continue;
+            }
+
+            if (opened) clear();
+            opened = true;
+
+            try (cursor) {
+                while (!closed) {
+                    ChangeStreamDocument<Document> change = cursor.tryNext();
+                    if (null == change) continue;
+
+                    OperationType operationType = change.getOperationType();
+                    if (OperationType.UPDATE == operationType || OperationType.REPLACE == operationType || OperationType.DELETE == operationType) {
+                        String id = toId(change.getDocumentKey());
+                        if (null != id) invalidateById(id);
+                    }
+                    else {
+                        clear();
+                        break;
+                    }
+                }
+            }
+            catch (RuntimeException e) {
+                if (closed) return;
+
+                log.message("监听路径集合中断，清空目录缓存").exception(e).warn();
+                clear();
+                if (!sleep()) return;
+            }
+        }
+    }
+
+    private boolean sleep() {
+        try {
+            Thread.sleep(RETRY_MILLIS);
+            return true;
+        }
+        catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static String toId(BsonDocument documentKey) {
+        if (null == documentKey) return null;
+
+        BsonValue id = documentKey.get("_id");
+        if (null == id) return null;
+        if (id.isObjectId()) return id.asObjectId().getValue().toHexString();
+        if (id.isString()) return id.asString().getValue();
+
+        return null;
+    }
+}
@@ -0,0 +1,444 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
+import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
+import org.bson.types.ObjectId;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@link MongoDbFileSystem}中GridFS文件内容在本地磁盘上的镜像，总大小有限，按LRU淘汰。
+ * <ul>
+ * <li>条目以fileId、修改时间和大小命名，文件被改写后名称随之变化，旧条目不会再被命中，之后被淘汰。</li>
+ * <li>通过当前实例原地改写GridFS文件时同步删除其所有条目，避免同一毫秒内的改写得到相同的名称。</li>
+ * <li>未命中时边从mongodb读取边写入临时文件，完整读完后才成为条目，中途关闭或取消的读取不会留下条目。</li>
+ * <li>阻塞的读取与{@link ReactiveMongoDbFileSystem}的响应式读取共用条目。</li>
+ * <li>重启后保留已有的条目，以文件的修改时间作为最近访问时间。</li>
+ * </ul>
+ */
+public class MongoLocalMirror {
+    private final static SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(MongoLocalMirror.class);
+
+    private final static String TEMP_FILE_SUFFIX = ".sq_tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long maxFileSize;
+
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public MongoLocalMirror(Path directory, long maxBytes, long maxFileSize) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxFileSize = Math.min(maxFileSize, maxBytes);
+
+        try {
+            Files.createDirectories(directory);
+            load();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 命中时打开本地的镜像，否则打开loader返回的流，读完后写入镜像。
+     *
+     * @param loader 打开mongodb中的内容，不存在时返回null。
+     * @return loader返回null时返回null。
+     */
+    public InputStream openReadStream(MongoPathMeta meta, Supplier<InputStream> loader) throws IOException {
+        String key = key(meta);
+
+        InputStream mirrored = openMirrored(key);
+        if (null != mirrored) return mirrored;
+
+        InputStream stream = loader.get();
+        if (null == stream || meta.getSize() > maxFileSize) return stream;
+
+        return new MirroringInputStream(stream, key, meta.getSize());
+    }
+
+    /**
+     * @return 未命中时返回null，由调用方直接读取mongodb，随机读取不写入镜像。
+     */
+    public SeekableByteChannel openReadChannel(MongoPathMeta meta) throws IOException {
+        Path path = touch(key(meta));
+        if (null == path) return null;
+
+        try {
+            SeekableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.READ);
+            hitCount.incrementAndGet();
+            return channel;
+        }
+        catch (NoSuchFileException e) {
+            remove(key(meta));
+            return null;
+        }
+    }
+
+    /**
+     * {@link #openReadStream(MongoPathMeta, Supplier)}与{@link #openReadChannel(MongoPathMeta)}的响应式版本。
+     * 命中时异步读取本地的镜像；未命中时读取loader返回的内容，从头读完整个文件时写入镜像，写入在boundedElastic中进行。
+     *
+     * @param length 小于0时读到文件末尾。
+     * @param loader 读取mongodb中的内容。
+     */
+    public Flux<DataBuffer> read(MongoPathMeta meta, long offset, long length, Supplier<Flux<DataBuffer>> loader, DataBufferFactory bufferFactory, int bufferSize) {
+        return Flux.defer(() -> {
+            String key = key(meta);
+
+            Path path = touch(key);
+            if (null != path) {
+                hitCount.incrementAndGet();
+
+                Flux<DataBuffer> buffers = DataBufferUtils.read(path, bufferFactory, bufferSize, StandardOpenOption.READ);
+                if (offset > 0) {
+                    buffers = DataBufferUtils.skipUntilByteCount(buffers, offset);
+                }
+                if (length >= 0) {
+                    buffers = DataBufferUtils.takeUntilByteCount(buffers, length);
+                }
+
+                return buffers.onErrorResume(NoSuchFileException.class, e -> {
+                    //被外部删除。
+                    remove(key);
+                    return loader.get();
+                });
+            }
+
+            missCount.incrementAndGet();
+            if (offset > 0 || length >= 0 || meta.getSize() > maxFileSize) return loader.get();
+
+            return Flux.using(
+                () -> new MirrorWriter(key, meta.getSize()),
+                writer -> loader.get()
+                    .publishOn(Schedulers.boundedElastic())
+                    .doOnNext(buffer -> writer.write(buffer.asByteBuffer()))
+                    .doOnComplete(writer::complete),
+                MirrorWriter::abandon
+            ).subscribeOn(Schedulers.boundedElastic());
+        });
+    }
+
+    /**
+     * 删除GridFS文件的所有条目。
+     */
+    public synchronized void invalidate(ObjectId fileId) {
+        String prefix = fileId.toHexString() + "-";
+
+        entries.keySet().removeIf(key -> {
+            if (!key.startsWith(prefix)) return false;
+
+            totalBytes -= entries.get(key);
+            try {
+                Files.deleteIfExists(directory.resolve(key));
+            }
+            catch (IOException e) {
+                log.message("删除本地镜像失败").context("key", key).exception(e).warn();
+            }
+
+            return true;
+        });
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private InputStream openMirrored(String key) throws IOException {
+        Path path = touch(key);
+        if (null == path) {
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        try {
+            InputStream stream = Files.newInputStream(path);
+            hitCount.incrementAndGet();
+            return stream;
+        }
+        catch (NoSuchFileException e) {
+            //被外部删除。
+            remove(key);
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * @return 条目存在时返回其路径，并标记为最近访问。
+     */
+    private synchronized Path touch(String key) {
+        if (null == entries.get(key)) return null;
+
+        Path path = directory.resolve(key);
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch (IOException e) {
+            //只影响重启后的淘汰顺序。
+        }
+
+        return path;
+    }
+
+    private synchronized void remove(String key) {
+        Long size = entries.remove(key);
+        if (null != size) {
+            totalBytes -= size;
+        }
+    }
+
+    private void commit(Path temp, String key, long size) throws IOException {
+        Files.move(temp, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        synchronized (this) {
+            Long previous = entries.put(key, size);
+            totalBytes += size - (null == previous ? 0 : previous);
+            evict();
+        }
+    }
+
+    /**
+     * 已经打开的条目被删除后仍可以读完，删除失败的文件留到重启时处理。
+     */
+    private void evict() {
+        while (totalBytes > maxBytes && !entries.isEmpty()) {
+            Map.Entry<String, Long> eldest = entries.entrySet().iterator().next();
+            entries.remove(eldest.getKey());
+            totalBytes -= eldest.getValue();
+
+            try {
+                Files.deleteIfExists(directory.resolve(eldest.getKey()));
+            }
+            catch (IOException e) {
+                log.message("删除本地镜像失败").context("key", eldest.getKey()).exception(e).warn();
+            }
+        }
+    }
+
+    private synchronized void load() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> stream = Files.list(directory)) {
+            paths = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+
+        for (Path path : paths) {
+            if (path.getFileName().toString().endsWith(TEMP_FILE_SUFFIX)) {
+                Files.deleteIfExists(path);
+            }
+        }
+
+        paths.stream()
+            .filter(path -> !path.getFileName().toString().endsWith(TEMP_FILE_SUFFIX))
+            .sorted(Comparator.comparing(this::lastModifiedTime))
+            .forEach(path -> {
+                long size = path.toFile().length();
+                entries.put(path.getFileName().toString(), size);
+                totalBytes += size;
+            });
+
+        evict();
+    }
+
+    private FileTime lastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        }
+        catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static String key(MongoPathMeta meta) {
+        long modified = null == meta.getLastModifiedTime() ? 0 : meta.getLastModifiedTime().toEpochMilli();
+        return meta.getFileId().toHexString() + "-" + modified + "-" + meta.getSize();
+    }
+
+    /**
+     * 读取的同时写入镜像的内容。
+     */
+    private class MirroringInputStream extends FilterInputStream {
+        private final MirrorWriter writer;
+
+        MirroringInputStream(InputStream in, String key, long expectedSize) {
+            super(in);
+            this.writer = new MirrorWriter(key, expectedSize);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                writer.complete();
+            }
+            else {
+                writer.write(ByteBuffer.wrap(new byte[]{(byte) b}));
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read < 0) {
+                writer.complete();
+            }
+            else {
+                writer.write(ByteBuffer.wrap(b, off, read));
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            //跳过的内容无法写入镜像。
+            writer.abandon();
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                writer.abandon();
+            }
+        }
+    }
+
+    /**
+     * 写入临时文件，写完并且大小与元信息一致时成为镜像条目；写入失败时放弃镜像，不影响读取。
+     * 响应式读取被取消时可能在另一个线程放弃镜像，各方法互斥。
+     */
+    private class MirrorWriter {
+        private final String key;
+        private final long expectedSize;
+
+        private Path temp;
+        private WritableByteChannel output;
+        private long written;
+
+        MirrorWriter(String key, long expectedSize) {
+            this.key = key;
+            this.expectedSize = expectedSize;
+
+            try {
+                this.temp = directory.resolve("." + key + "." + System.nanoTime() + TEMP_FILE_SUFFIX);
+                this.output = Files.newByteChannel(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            }
+            catch (IOException e) {
+                log.message("创建本地镜像失败").context("key", key).exception(e).warn();
+                this.temp = null;
+                this.output = null;
+            }
+        }
+
+        /**
+         * 不改变data的position。
+         */
+        synchronized void write(ByteBuffer data) {
+            if (null == output) return;
+
+            try {
+                ByteBuffer buffer = data.duplicate();
+                while (buffer.hasRemaining()) {
+                    written += output.write(buffer);
+                }
+            }
+            catch (IOException e) {
+                log.message("写入本地镜像失败").context("key", key).exception(e).warn();
+                abandon();
+            }
+        }
+
+        synchronized void complete() {
+            if (null == output) return;
+
+            try {
+                output.close();
+                output = null;
+
+                if (written == expectedSize) {
+                    commit(temp, key, written);
+                    temp = null;
+                }
+            }
+            catch (IOException e) {
+                log.message("保存本地镜像失败").context("key", key).exception(e).warn();
+            }
+            finally {
+                abandon();
+            }
+        }
+
+        synchronized void abandon() {
+            if (null != output) {
+                try {
+                    output.close();
+                }
+                catch (IOException e) {
+                    //临时文件随即删除。
+                }
+
+                output = null;
+            }
+
+            if (null != temp) {
+                try {
+                    Files.deleteIfExists(temp);
+                }
+                catch (IOException e) {
+                    log.message("删除本地镜像临时文件失败").context("path", temp.toString()).exception(e).warn();
+                }
+
+                temp = null;
+            }
+        }
+    }
+}
@@ -1,29 +1,37 @@
 package me.insidezhou.southernquiet.filesystem.driver;
 
+import me.insidezhou.southernquiet.filesystem.NameGrams;
 import me.insidezhou.southernquiet.filesystem.NormalizedPath;
 import me.insidezhou.southernquiet.filesystem.PathMeta;
 import org.bson.types.Binary;
 import org.bson.types.ObjectId;
+import org.springframework.util.StringUtils;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 @SuppressWarnings({"WeakerAccess", "unused"})
 public class MongoPathMeta extends PathMeta implements Cloneable {
     public MongoPathMeta(NormalizedPath normalizedPath, InputStream stream) {
         super(normalizedPath, stream);
+        this.ancestors = ancestors(getParent());
+        this.nameGrams = nameGrams(getName());
     }
 
     public MongoPathMeta(String path, InputStream stream) {
-        super(new NormalizedPath(path), stream);
+        this(new NormalizedPath(path), stream);
     }
 
     public MongoPathMeta(NormalizedPath normalizedPath) {
-        super(normalizedPath, null);
+        this(normalizedPath, null);
     }
 
     public MongoPathMeta(String path) {
-        super(new NormalizedPath(path), null);
+        this(new NormalizedPath(path), null);
     }
 
     public MongoPathMeta() {}
@@ -47,9 +55,39 @@ public class MongoPathMeta extends PathMeta implements Cloneable {
         map.put("fileData", getFileData());
         map.put("isSymbolicLink", isSymbolicLink());
         map.put("originalId", getOriginalId());
+        map.put("ancestors", ancestors(getParent()));
+        map.put("nameGrams", nameGrams(getName()));
         return map;
     }
 
+    /**
+     * @param parent 父路径名，根路径的父路径名为空字符串。
+     * @return 由根路径开始的所有上级目录路径。
+     */
+    public static List<String> ancestors(String parent) {
+        if (StringUtils.isEmpty(parent)) return new ArrayList<>();
+
+        LinkedList<String> ancestors = new LinkedList<>();
+        NormalizedPath ancestor = new NormalizedPath(parent);
+        ancestors.addFirst(ancestor.toString());
+
+        while (!NormalizedPath.ROOT.equals(ancestor)) {
+            ancestor = ancestor.getParentPath();
+            ancestors.addFirst(ancestor.toString());
+        }
+
+        return new ArrayList<>(ancestors);
+    }
+
+    /**
+     * @return 名称的所有trigram，见{@link NameGrams#of(String)}。
+     */
+    public static List<String> nameGrams(String name) {
+        if (StringUtils.isEmpty(name)) return new ArrayList<>();
+
+        return NameGrams.of(name).stream().sorted().collect(Collectors.toList());
+    }
+
     private String id;
     private String parentId;
 
@@ -64,6 +102,14 @@ public class MongoPathMeta extends PathMeta implements Cloneable {
      * 为软链接时为执行源文件id
      */
     private String originalId;
+    /**
+     * 所有上级目录的路径，建有索引，目录下任意深度的路径都可以通过一次查询取得。
+     */
+    private List<String> ancestors;
+    /**
+     * 名称的所有trigram，建有索引，用于按子串搜索名称。
+     */
+    private List<String> nameGrams;
 
     public String getId() {
         return id;
@@ -89,6 +135,9 @@ public class MongoPathMeta extends PathMeta implements Cloneable {
         this.fileId = fileId;
     }
 
+    /**
+     * 元信息查询不取回文件内容，通过{@link MongoDbFileSystem#meta(String)}、列表等得到的元信息中总是null。
+     */
     public Binary getFileData() {
         return fileData;
     }
@@ -112,4 +161,32 @@ public class MongoPathMeta extends PathMeta implements Cloneable {
     public void setOriginalId(String originalId) {
         this.originalId = originalId;
     }
+
+    public List<String> getAncestors() {
+        return ancestors;
+    }
+
+    public void setAncestors(List<String> ancestors) {
+        this.ancestors = ancestors;
+    }
+
+    public List<String> getNameGrams() {
+        return nameGrams;
+    }
+
+    public void setNameGrams(List<String> nameGrams) {
+        this.nameGrams = nameGrams;
+    }
+
+    @Override
+    public void setName(String name) {
+        super.setName(name);
+        this.nameGrams = nameGrams(name);
+    }
+
+    @Override
+    public void setParent(String parent) {
+        super.setParent(parent);
+        this.ancestors = ancestors(parent);
+    }
 }
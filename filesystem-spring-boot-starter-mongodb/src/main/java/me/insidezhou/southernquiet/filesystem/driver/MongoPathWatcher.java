@@ -0,0 +1,186 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import me.insidezhou.southernquiet.filesystem.NormalizedPath;
+import me.insidezhou.southernquiet.filesystem.PathEvent;
+import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
+import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import reactor.core.publisher.FluxSink;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static me.insidezhou.southernquiet.filesystem.FileSystem.PATH_SEPARATOR_STRING;
+
+/**
+ * {@link MongoDbFileSystem#watch(String, boolean)}的一个订阅，以路径集合上的change stream监听。
+ * <p>
+ * 删除事件只带有_id，因此订阅开始时加载所监听目录之下所有路径的_id，之后随插入、更新事件维护，用来还原被删除的路径。
+ * change stream需要mongodb以副本集或分片集群方式部署。
+ */
+class MongoPathWatcher {
+    private final static SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(MongoPathWatcher.class);
+
+    private final static long MAX_AWAIT_MILLIS = 500;
+
+    private final MongoCollection<Document> collection;
+    private final String directory;
+    private final boolean recursive;
+    private final FluxSink<PathEvent> sink;
+
+    private final Map<Object, String> pathsById = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    MongoPathWatcher(MongoCollection<Document> collection, String directory, boolean recursive, FluxSink<PathEvent> sink) {
+        this.collection = collection;
+        this.directory = directory;
+        this.recursive = recursive;
+        this.sink = sink;
+    }
+
+    /**
+     * 先打开change stream再加载已有路径，加载期间发生的变更不会丢失。
+     */
+    void start() {
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = collection.watch(Arrays.asList(
+            Aggregates.match(Filters.in("operationType", "insert", "update", "replace", "delete", "drop", "invalidate")),
+            Aggregates.project(Projections.exclude("fullDocument.fileData", "updateDescription.updatedFields.fileData"))
+        ))
+            .fullDocument(FullDocument.UPDATE_LOOKUP)
+            .maxAwaitTime(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS)
+            .cursor();
+
+        try {
+            collection.find(newParentFilter())
+                .projection(Projections.include("_id", "parent", "name"))
+                .forEach(document -> pathsById.put(document.get("_id"), pathOf(document)));
+        }
+        catch (MongoException e) {
+            cursor.close();
+            throw e;
+        }
+
+        Thread thread = new Thread(() -> run(cursor), "MongoDbFileSystem-watch-" + directory);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void close() {
+        closed = true;
+    }
+
+    private void run(MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor) {
+        try (cursor) {
+            while (!closed) {
+                ChangeStreamDocument<Document> change = cursor.tryNext();
+                if (null == change) continue;
+
+                if (!onChange(change)) {
+                    sink.complete();
+                    return;
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            if (closed) return;
+
+            log.message("监听路径集合失败").context("directory", directory).exception(e).warn();
+            sink.error(e);
+        }
+    }
+
+    /**
+     * @return 集合被删除或change stream失效时返回false。
+     */
+    private boolean onChange(ChangeStreamDocument<Document> change) {
+        OperationType operationType = change.getOperationType();
+        if (OperationType.DROP == operationType || OperationType.INVALIDATE == operationType) return false;
+
+        Object id = toId(change.getDocumentKey());
+        if (null == id) return true;
+
+        Instant time = null == change.getClusterTime() ? Instant.now() : Instant.ofEpochSecond(change.getClusterTime().getTime());
+
+        if (OperationType.DELETE == operationType) {
+            String path = pathsById.remove(id);
+            if (null != path) {
+                sink.next(new PathEvent(PathEvent.Type.Delete, path, time));
+            }
+
+            return true;
+        }
+
+        Document document = change.getFullDocument();
+        if (null == document) return true;
+
+        String path = pathOf(document);
+        if (!isWatched(document.getString("parent"))) {
+            //从监听范围内移出的路径，对订阅方来说等同于删除。
+            String previous = pathsById.remove(id);
+            if (null != previous) {
+                sink.next(new PathEvent(PathEvent.Type.Delete, previous, time));
+            }
+
+            return true;
+        }
+
+        String previous = pathsById.put(id, path);
+        if (null != previous && !previous.equals(path)) {
+            sink.next(new PathEvent(PathEvent.Type.Delete, previous, time));
+        }
+
+        PathEvent.Type type = OperationType.INSERT == operationType || !path.equals(previous) ? PathEvent.Type.Create : PathEvent.Type.Modify;
+        sink.next(new PathEvent(type, path, time));
+        return true;
+    }
+
+    private Bson newParentFilter() {
+        if (!recursive) return Filters.eq("parent", directory);
+        if (PATH_SEPARATOR_STRING.equals(directory)) return Filters.exists("parent");
+
+        return Filters.or(
+            Filters.eq("parent", directory),
+            Filters.regex("parent", "^" + Pattern.quote(directory + PATH_SEPARATOR_STRING))
+        );
+    }
+
+    private boolean isWatched(String parent) {
+        if (null == parent) return false;
+        if (parent.equals(directory)) return true;
+        if (!recursive) return false;
+
+        return PATH_SEPARATOR_STRING.equals(directory) || parent.startsWith(directory + PATH_SEPARATOR_STRING);
+    }
+
+    private static String pathOf(Document document) {
+        return new NormalizedPath(document.getString("parent") + PATH_SEPARATOR_STRING + document.getString("name")).toString();
+    }
+
+    private static Object toId(BsonDocument documentKey) {
+        if (null == documentKey) return null;
+
+        BsonValue id = documentKey.get("_id");
+        if (null == id) return null;
+        if (id.isObjectId()) return id.asObjectId().getValue();
+        if (id.isString()) return id.asString().getValue();
+
+        return id;
+    }
+}
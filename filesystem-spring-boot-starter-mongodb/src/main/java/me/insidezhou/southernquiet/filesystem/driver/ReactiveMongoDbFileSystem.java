@@ -0,0 +1,264 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import com.mongodb.reactivestreams.client.gridfs.GridFSBucket;
+import com.mongodb.reactivestreams.client.gridfs.GridFSBuckets;
+import me.insidezhou.southernquiet.filesystem.InvalidFileException;
+import me.insidezhou.southernquiet.filesystem.MongoDbFileSystemAutoConfiguration;
+import me.insidezhou.southernquiet.filesystem.NormalizedPath;
+import me.insidezhou.southernquiet.filesystem.PathMeta;
+import me.insidezhou.southernquiet.filesystem.ReactiveFileSystem;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 基于mongodb响应式驱动的{@link ReactiveFileSystem}，与{@link MongoDbFileSystem}共享数据。
+ * 文件内容通过响应式GridFS读写，写完后的元信息提交与删除复用{@link MongoDbFileSystem}，在boundedElastic中执行。
+ * 与{@link MongoDbFileSystem}共用其启用的目录缓存、访问时间缓冲和本地镜像。
+ */
+public class ReactiveMongoDbFileSystem implements ReactiveFileSystem {
+    private final MongoDbFileSystem fileSystem;
+    private final ReactiveMongoOperations mongoOperations;
+    private final GridFSBucket gridFSBucket;
+    private final MongoCollection<Document> chunksCollection;
+    private final String pathCollection;
+
+    public ReactiveMongoDbFileSystem(MongoDbFileSystem fileSystem, MongoDbFileSystemAutoConfiguration.Properties properties, ReactiveMongoOperations mongoOperations, MongoDatabase mongoDatabase) {
+        this.fileSystem = fileSystem;
+        this.mongoOperations = mongoOperations;
+        this.gridFSBucket = GridFSBuckets.create(mongoDatabase).withChunkSizeBytes((int) properties.getGridFs().getChunkSize().toBytes());
+        this.chunksCollection = mongoDatabase.getCollection(gridFSBucket.getBucketName() + ".chunks");
+        this.pathCollection = properties.getPathCollection();
+    }
+
+    /**
+     * 内容不超过阈值时放在元信息中，否则边接收边上传到GridFS，不需要把整个文件读入内存。
+     */
+    @Override
+    public Mono<Void> put(String path, Publisher<DataBuffer> data) {
+        int threshold = fileSystem.getFileSizeThreshold();
+
+        return resolve(new NormalizedPath(path), false)
+            .flatMap(meta -> meta.isDirectory() ? Mono.error(new InvalidFileException(path)) : Mono.just(meta.getPath()))
+            .defaultIfEmpty(new NormalizedPath(path).toString())
+            .flatMap(target -> Flux.from(data)
+                .bufferUntil(new Predicate<DataBuffer>() {
+                    private long size;
+
+                    @Override
+                    public boolean test(DataBuffer buffer) {
+                        size += buffer.readableByteCount();
+                        return size > threshold;
+                    }
+                })
+                .switchOnFirst((signal, batches) -> {
+                    Flux<DataBuffer> buffers = batches.flatMapIterable(list -> list);
+
+                    //第一批超过阈值时才会提前结束，否则第一批就是全部内容。
+                    List<DataBuffer> first = signal.get();
+                    if (null != first && byteCount(first) > threshold) return upload(target, buffers);
+
+                    return inline(target, buffers);
+                })
+                .then()
+            );
+    }
+
+    @Override
+    public Flux<DataBuffer> readRange(String path, long offset, long length, DataBufferFactory bufferFactory, int bufferSize) {
+        return resolve(new NormalizedPath(path), true)
+            .filter(meta -> !meta.isDirectory())
+            .switchIfEmpty(Mono.error(() -> new InvalidFileException(path)))
+            .flatMapMany(meta -> {
+                if (null == meta.getFileId()) {
+                    byte[] data = null == meta.getFileData() ? new byte[0] : meta.getFileData().getData();
+                    long start = Math.min(offset, data.length);
+                    long end = length < 0 ? data.length : start + Math.min(length, data.length - start);
+                    if (start >= end) return Flux.empty();
+
+                    return Flux.just(bufferFactory.wrap(ByteBuffer.wrap(data, (int) start, (int) (end - start))));
+                }
+
+                Supplier<Flux<DataBuffer>> loader = () -> Mono.from(gridFSBucket.find(Filters.eq("_id", meta.getFileId())).first())
+                    .switchIfEmpty(Mono.error(() -> new InvalidFileException(path)))
+                    .flatMapMany(file -> readChunks(path, file, offset, length, bufferFactory));
+
+                MongoLocalMirror localMirror = fileSystem.getLocalMirror();
+                if (null == localMirror) return loader.get();
+
+                return localMirror.read(meta, offset, length, loader, bufferFactory, bufferSize);
+            });
+    }
+
+    /**
+     * 启用访问时间缓冲时，返回的访问时间包含尚未提交的部分。
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <M extends PathMeta> Mono<M> meta(String path) {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+
+        return (Mono<M>) queryPathMeta(normalizedPath).doOnNext(meta -> {
+            MongoAccessTimeBuffer accessTimeBuffer = fileSystem.getAccessTimeBuffer();
+            if (null != accessTimeBuffer) {
+                accessTimeBuffer.apply(normalizedPath, meta);
+            }
+        });
+    }
+
+    @Override
+    public Mono<Void> delete(String path) {
+        return Mono.fromRunnable(() -> fileSystem.delete(path)).subscribeOn(Schedulers.boundedElastic()).then();
+    }
+
+    /**
+     * 只查询与读取范围重叠的chunk，按chunk的原始大小输出，不会读取范围之前的内容。
+     */
+    private Flux<DataBuffer> readChunks(String path, GridFSFile file, long offset, long length, DataBufferFactory bufferFactory) {
+        long end = length < 0 ? file.getLength() : Math.min(file.getLength(), offset + length);
+        if (offset >= end) return Flux.empty();
+
+        int chunkSize = file.getChunkSize();
+        int firstChunk = (int) (offset / chunkSize);
+        int lastChunk = (int) ((end - 1) / chunkSize);
+
+        return Flux.defer(() -> {
+            AtomicInteger nextChunk = new AtomicInteger(firstChunk);
+
+            return Flux.from(
+                chunksCollection
+                    .find(Filters.and(
+                        Filters.eq("files_id", file.getId()),
+                        Filters.gte("n", firstChunk),
+                        Filters.lte("n", lastChunk)
+                    ))
+                    .sort(Sorts.ascending("n"))
+            )
+                .<DataBuffer>handle((chunk, sink) -> {
+                    int index = nextChunk.getAndIncrement();
+                    if (index != chunk.getInteger("n")) {
+                        sink.error(missingChunk(path, file, index));
+                        return;
+                    }
+
+                    byte[] data = chunk.get("data", Binary.class).getData();
+                    long chunkStart = (long) index * chunkSize;
+                    int from = (int) Math.max(0, offset - chunkStart);
+                    int to = (int) Math.min(data.length, end - chunkStart);
+
+                    sink.next(bufferFactory.wrap(ByteBuffer.wrap(data, from, to - from)));
+                })
+                .concatWith(Mono.defer(() -> nextChunk.get() <= lastChunk ? Mono.error(missingChunk(path, file, nextChunk.get())) : Mono.empty()));
+        });
+    }
+
+    private InvalidFileException missingChunk(String path, GridFSFile file, int index) {
+        return new InvalidFileException(path, new IOException(String.format("GridFS文件%s缺少chunk：%d", file.getId(), index)));
+    }
+
+    private Mono<Void> inline(String target, Flux<DataBuffer> buffers) {
+        return DataBufferUtils.join(buffers)
+            .map(buffer -> {
+                byte[] bytes = new byte[buffer.readableByteCount()];
+                buffer.read(bytes);
+                DataBufferUtils.release(buffer);
+                return bytes;
+            })
+            .defaultIfEmpty(new byte[0])
+            .flatMap(bytes -> commit(target, null, bytes, bytes.length));
+    }
+
+    private Mono<Void> upload(String target, Flux<DataBuffer> buffers) {
+        AtomicLong size = new AtomicLong();
+
+        Flux<ByteBuffer> byteBuffers = buffers.map(buffer -> {
+            ByteBuffer byteBuffer = ByteBuffer.allocate(buffer.readableByteCount());
+            byteBuffer.put(buffer.asByteBuffer());
+            byteBuffer.flip();
+            DataBufferUtils.release(buffer);
+
+            size.addAndGet(byteBuffer.remaining());
+            return byteBuffer;
+        });
+
+        return Mono.from(gridFSBucket.uploadFromPublisher(target, byteBuffers))
+            .flatMap(fileId -> commit(target, fileId, null, size.get())
+                .onErrorResume(e -> Mono.from(gridFSBucket.delete(fileId)).then(Mono.error(e)))
+            );
+    }
+
+    private Mono<Void> commit(String target, ObjectId fileId, byte[] fileData, long size) {
+        return Mono.fromCallable(() -> {
+            fileSystem.putStored(target, fileId, fileData, size);
+            return target;
+        })
+            .subscribeOn(Schedulers.boundedElastic())
+            .then();
+    }
+
+    private long byteCount(List<DataBuffer> buffers) {
+        return buffers.stream().mapToLong(DataBuffer::readableByteCount).sum();
+    }
+
+    /**
+     * 启用目录缓存时，目录的元信息优先从缓存获取。
+     */
+    private Mono<MongoPathMeta> queryPathMeta(NormalizedPath normalizedPath) {
+        MongoDirectoryCache directoryCache = fileSystem.getDirectoryCache();
+        if (null == directoryCache) return findPathMeta(normalizedPath, false);
+
+        return directoryCache.load(normalizedPath, () -> findPathMeta(normalizedPath, false));
+    }
+
+    /**
+     * @param withFileData 是否取回放在元信息中的文件内容，只有读取内容时需要。
+     */
+    private Mono<MongoPathMeta> findPathMeta(NormalizedPath normalizedPath, boolean withFileData) {
+        Query query = Query.query(Criteria.where("name").is(normalizedPath.getName()).and("parent").is(normalizedPath.getParent()));
+        if (!withFileData) {
+            query.fields().exclude("fileData");
+        }
+
+        return mongoOperations.findOne(query, MongoPathMeta.class, pathCollection);
+    }
+
+    /**
+     * 查询路径的元信息，路径为软链接时返回其指向的文件。
+     */
+    private Mono<MongoPathMeta> resolve(NormalizedPath normalizedPath, boolean withFileData) {
+        return (withFileData ? findPathMeta(normalizedPath, true) : queryPathMeta(normalizedPath))
+            .flatMap(meta -> {
+                if (null == meta.isSymbolicLink() || !meta.isSymbolicLink()) return Mono.just(meta);
+
+                Query query = Query.query(Criteria.where("_id").is(meta.getOriginalId()));
+                if (!withFileData) {
+                    query.fields().exclude("fileData");
+                }
+
+                return mongoOperations.findOne(query, MongoPathMeta.class, pathCollection);
+            });
+    }
+}
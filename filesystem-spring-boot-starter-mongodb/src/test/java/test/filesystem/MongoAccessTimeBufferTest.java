@@ -0,0 +1,75 @@
+package test.filesystem;
+
+import me.insidezhou.southernquiet.filesystem.FileSystem;
+import me.insidezhou.southernquiet.filesystem.FileSystemException;
+import me.insidezhou.southernquiet.filesystem.PathMeta;
+import me.insidezhou.southernquiet.filesystem.ReactiveFileSystem;
+import me.insidezhou.southernquiet.filesystem.driver.MongoPathMeta;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.Instant;
+import java.util.Collections;
+
+@SpringBootTest(properties = {
+    "southern-quiet.framework.file-system.mongodb.access-time-buffer.enable=true",
+    "southern-quiet.framework.file-system.mongodb.access-time-buffer.flush-interval=100ms"
+})
+@RunWith(SpringRunner.class)
+public class MongoAccessTimeBufferTest {
+    @Configuration
+    @EnableAutoConfiguration
+    @ComponentScan({"me.insidezhou.southernquiet.filesystem"})
+    public static class Config {}
+
+    @Autowired
+    private FileSystem fileSystem;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired(required = false)
+    private ReactiveFileSystem reactiveFileSystem;
+
+    @Test
+    public void bufferedAccessTime() throws FileSystemException, InterruptedException {
+        String path = "accessTime/a.txt";
+        fileSystem.put(path, "a");
+
+        Instant stored = fileSystem.meta(path).getLastAccessTime();
+        Thread.sleep(10);
+
+        fileSystem.touchLastAccess(path);
+        fileSystem.touchLastAccess(path);
+        Instant touched = fileSystem.meta(path).getLastAccessTime();
+        Assert.assertTrue(touched.isAfter(stored));
+        //缓冲可能已经写入mongodb，时间只精确到毫秒。
+        Assert.assertEquals(touched.toEpochMilli(), fileSystem.metas(Collections.singletonList(path)).get(path).getLastAccessTime().toEpochMilli());
+        if (null != reactiveFileSystem) {
+            PathMeta reactiveMeta = reactiveFileSystem.meta(path).block();
+            Assert.assertNotNull(reactiveMeta);
+            Assert.assertEquals(touched.toEpochMilli(), reactiveMeta.getLastAccessTime().toEpochMilli());
+        }
+
+        Thread.sleep(500);
+
+        MongoPathMeta persisted = mongoOperations.findOne(Query.query(Criteria.where("parent").is("/accessTime").and("name").is("a.txt")), MongoPathMeta.class, "PATH");
+        Assert.assertNotNull(persisted);
+        Assert.assertEquals(touched.toEpochMilli(), persisted.getLastAccessTime().toEpochMilli());
+
+        PathMeta meta = fileSystem.meta(path);
+        Assert.assertEquals(touched.toEpochMilli(), meta.getLastAccessTime().toEpochMilli());
+
+        fileSystem.delete("accessTime");
+    }
+}
@@ -1,12 +1,32 @@
 package test.filesystem;
 
+import me.insidezhou.southernquiet.filesystem.FileSystem;
+import me.insidezhou.southernquiet.filesystem.FileSystemException;
+import me.insidezhou.southernquiet.filesystem.MongoDbFileSystemAutoConfiguration;
+import me.insidezhou.southernquiet.filesystem.PathMeta;
+import me.insidezhou.southernquiet.filesystem.driver.MongoDbFileSystem;
+import me.insidezhou.southernquiet.filesystem.driver.MongoPathMeta;
+import org.junit.Assert;
+import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
 @SpringBootTest
 @RunWith(SpringRunner.class)
 public class MongoDbFileSystemTest extends FileSystemTest {
@@ -14,4 +34,83 @@ public class MongoDbFileSystemTest extends FileSystemTest {
     @EnableAutoConfiguration
     @ComponentScan({"me.insidezhou.southernquiet.filesystem"})
     public static class Config {}
+
+    @Autowired
+    private FileSystem fileSystem;
+
+    @Autowired
+    private MongoDbFileSystemAutoConfiguration.Properties properties;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private GridFsOperations gridFsOperations;
+
+    @Autowired
+    private MongoDatabaseFactory mongoDatabaseFactory;
+
+    @Test
+    public void metaWithoutFileData() throws FileSystemException {
+        String path = "inline/small.txt";
+        fileSystem.put(path, "small");
+
+        MongoPathMeta meta = fileSystem.meta(path);
+        Assert.assertNull(meta.getFileData());
+        Assert.assertTrue(fileSystem.files("inline").map(MongoPathMeta.class::cast).allMatch(m -> null == m.getFileData()));
+
+        fileSystem.touchLastAccess(path);
+        fileSystem.touchLastModified(path);
+        Assert.assertEquals("small", fileSystem.read(path));
+
+        fileSystem.copy(path, "inline/copied.txt");
+        Assert.assertEquals("small", fileSystem.read("inline/copied.txt"));
+
+        fileSystem.delete("inline");
+    }
+
+    @Test
+    public void search() throws FileSystemException {
+        fileSystem.put("search/report-2020.txt", "a");
+        fileSystem.put("search/sub/report-2021.txt", "b");
+        fileSystem.put("search/sub/a.b", "c");
+        fileSystem.put("search/sub/axb", "d");
+        fileSystem.move("search/sub/report-2021.txt", "search/sub/moved-report.txt");
+
+        Assert.assertEquals(Arrays.asList("/search/report-2020.txt", "/search/sub/moved-report.txt"), search("search", "report", true));
+        Assert.assertEquals(Collections.singletonList("/search/report-2020.txt"), search("search", "report", false));
+        Assert.assertEquals(Collections.singletonList("/search/sub/moved-report.txt"), search("search", "d-r", true));
+        Assert.assertEquals(Collections.singletonList("/search/sub/a.b"), search("search", "a.b", true));
+        Assert.assertEquals(Collections.singletonList("/search/sub/a.b"), search("search", ".", true).stream().filter(p -> p.endsWith("b")).collect(Collectors.toList()));
+        Assert.assertEquals(Collections.singletonList("/search/sub"), fileSystem.directories("search", "su", true).map(PathMeta::getPath).collect(Collectors.toList()));
+
+        fileSystem.delete("search");
+    }
+
+    @Test
+    public void backfillOnce() throws Exception {
+        String migrationCollection = properties.getPathCollection() + MongoDbFileSystem.MIGRATION_COLLECTION_SUFFIX;
+        Query marker = Query.query(Criteria.where("_id").is("derivedFields"));
+        Assert.assertTrue(mongoOperations.exists(marker, migrationCollection));
+
+        fileSystem.put("backfill/legacy.txt", "legacy");
+        Query legacy = Query.query(Criteria.where("parent").is("/backfill").and("name").is("legacy.txt"));
+        mongoOperations.updateFirst(legacy, new Update().unset("ancestors").unset("nameGrams"), properties.getPathCollection());
+
+        //已经补充过，启动时不再扫描。
+        new MongoDbFileSystem(properties, mongoOperations, gridFsOperations, mongoDatabaseFactory.getMongoDatabase()).destroy();
+        Assert.assertFalse(mongoOperations.exists(Query.query(Criteria.where("ancestors").exists(true)).addCriteria(Criteria.where("name").is("legacy.txt")), properties.getPathCollection()));
+
+        mongoOperations.remove(marker, migrationCollection);
+        new MongoDbFileSystem(properties, mongoOperations, gridFsOperations, mongoDatabaseFactory.getMongoDatabase()).destroy();
+        Assert.assertTrue(mongoOperations.exists(Query.query(Criteria.where("ancestors").is("/backfill")).addCriteria(Criteria.where("name").is("legacy.txt")), properties.getPathCollection()));
+        Assert.assertTrue(mongoOperations.exists(marker, migrationCollection));
+        Assert.assertEquals(Collections.singletonList("/backfill/legacy.txt"), search("backfill", "legacy", true));
+
+        fileSystem.delete("backfill");
+    }
+
+    private List<String> search(String path, String search, boolean recursive) throws FileSystemException {
+        return fileSystem.files(path, search, recursive).map(PathMeta::getPath).sorted().collect(Collectors.toList());
+    }
 }
@@ -0,0 +1,60 @@
+package test.filesystem;
+
+import me.insidezhou.southernquiet.filesystem.FileSystemException;
+import me.insidezhou.southernquiet.filesystem.PathMeta;
+import me.insidezhou.southernquiet.filesystem.ReactiveFileSystem;
+import me.insidezhou.southernquiet.filesystem.driver.MongoDbFileSystem;
+import me.insidezhou.southernquiet.filesystem.driver.MongoDirectoryCache;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@SpringBootTest(properties = "southern-quiet.framework.file-system.mongodb.directory-cache.enable=true")
+@RunWith(SpringRunner.class)
+public class MongoDirectoryCacheTest {
+    @Configuration
+    @EnableAutoConfiguration
+    @ComponentScan({"me.insidezhou.southernquiet.filesystem"})
+    public static class Config {}
+
+    @Autowired
+    private MongoDbFileSystem fileSystem;
+
+    @Autowired(required = false)
+    private ReactiveFileSystem reactiveFileSystem;
+
+    @Test
+    public void directoryCache() throws FileSystemException {
+        MongoDirectoryCache cache = fileSystem.getDirectoryCache();
+        Assert.assertNotNull(cache);
+
+        fileSystem.put("directoryCache/a/b/1.txt", "1");
+
+        long hitCount = cache.getHitCount();
+        fileSystem.put("directoryCache/a/b/2.txt", "2");
+        Assert.assertTrue(cache.getHitCount() > hitCount);
+
+        if (null != reactiveFileSystem) {
+            hitCount = cache.getHitCount();
+            PathMeta meta = reactiveFileSystem.meta("directoryCache/a/b").block();
+            Assert.assertNotNull(meta);
+            Assert.assertTrue(meta.isDirectory());
+            Assert.assertTrue(cache.getHitCount() > hitCount);
+        }
+
+        fileSystem.delete("directoryCache/a");
+        Assert.assertFalse(fileSystem.exists("directoryCache/a/b"));
+
+        fileSystem.put("directoryCache/a/b/1.txt", "3");
+        Assert.assertEquals("3", fileSystem.read("directoryCache/a/b/1.txt"));
+        Assert.assertEquals(1, fileSystem.files("directoryCache", null, true).count());
+
+        fileSystem.delete("directoryCache");
+    }
+}
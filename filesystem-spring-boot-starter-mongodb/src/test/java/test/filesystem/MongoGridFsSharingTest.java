@@ -0,0 +1,99 @@
+package test.filesystem;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import me.insidezhou.southernquiet.filesystem.FileSystem;
+import me.insidezhou.southernquiet.filesystem.FileSystemException;
+import me.insidezhou.southernquiet.filesystem.driver.MongoPathMeta;
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+@SpringBootTest(properties = "southern-quiet.framework.file-system.mongodb.file-size-threshold=4")
+@RunWith(SpringRunner.class)
+public class MongoGridFsSharingTest {
+    @Configuration
+    @EnableAutoConfiguration
+    @ComponentScan({"me.insidezhou.southernquiet.filesystem"})
+    public static class Config {}
+
+    @Autowired
+    private FileSystem fileSystem;
+
+    @Autowired
+    private GridFsOperations gridFsOperations;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Test
+    public void copyOnWrite() throws FileSystemException {
+        fileSystem.put("sharing/a.txt", "0123456789");
+        ObjectId fileId = fileId("sharing/a.txt");
+        Assert.assertNotNull(fileId);
+
+        fileSystem.copy("sharing/a.txt", "sharing/b.txt");
+        Assert.assertEquals(fileId, fileId("sharing/b.txt"));
+
+        fileSystem.writeAt("sharing/b.txt", 0, ByteBuffer.wrap("xx".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertNotEquals(fileId, fileId("sharing/b.txt"));
+        Assert.assertEquals("0123456789", fileSystem.read("sharing/a.txt"));
+        Assert.assertEquals("xx23456789", fileSystem.read("sharing/b.txt"));
+
+        fileSystem.copy("sharing/a.txt", "sharing/c.txt");
+        fileSystem.move("sharing/c.txt", "sharing/b.txt", true);
+        Assert.assertEquals(fileId, fileId("sharing/b.txt"));
+        Assert.assertEquals("0123456789", fileSystem.read("sharing/b.txt"));
+
+        fileSystem.delete("sharing/a.txt");
+        Assert.assertEquals("0123456789", fileSystem.read("sharing/b.txt"));
+        Assert.assertNotNull(gridFsOperations.findOne(Query.query(Criteria.where("_id").is(fileId))));
+
+        fileSystem.delete("sharing");
+        Assert.assertNull(gridFsOperations.findOne(Query.query(Criteria.where("_id").is(fileId))));
+    }
+
+    @Test
+    public void legacyRefCount() throws FileSystemException {
+        fileSystem.put("legacy/a.txt", "0123456789");
+        fileSystem.copy("legacy/a.txt", "legacy/b.txt");
+        fileSystem.copy("legacy/a.txt", "legacy/c.txt");
+        ObjectId fileId = fileId("legacy/a.txt");
+
+        //引入引用计数之前写入的文件没有refCount。
+        mongoOperations.getCollection("fs.files").updateOne(Filters.eq("_id", fileId), Updates.unset("refCount"));
+
+        fileSystem.writeAt("legacy/c.txt", 0, ByteBuffer.wrap("xx".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertNotEquals(fileId, fileId("legacy/c.txt"));
+        Assert.assertEquals("0123456789", fileSystem.read("legacy/a.txt"));
+
+        fileSystem.delete("legacy/a.txt");
+        Assert.assertNotNull(gridFsOperations.findOne(Query.query(Criteria.where("_id").is(fileId))));
+        Assert.assertEquals("0123456789", fileSystem.read("legacy/b.txt"));
+
+        fileSystem.delete("legacy/b.txt");
+        Assert.assertNull(gridFsOperations.findOne(Query.query(Criteria.where("_id").is(fileId))));
+        Assert.assertEquals("xx23456789", fileSystem.read("legacy/c.txt"));
+
+        fileSystem.delete("legacy");
+    }
+
+    private ObjectId fileId(String path) {
+        MongoPathMeta meta = fileSystem.meta(path);
+        return meta.getFileId();
+    }
+}
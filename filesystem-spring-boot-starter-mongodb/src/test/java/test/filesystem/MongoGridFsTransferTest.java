@@ -0,0 +1,63 @@
+package test.filesystem;
+
+import me.insidezhou.southernquiet.filesystem.FileSystem;
+import me.insidezhou.southernquiet.filesystem.FileSystemException;
+import me.insidezhou.southernquiet.filesystem.driver.MongoPathMeta;
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+@SpringBootTest(properties = {
+    "southern-quiet.framework.file-system.mongodb.file-size-threshold=4",
+    "southern-quiet.framework.file-system.mongodb.grid-fs.chunk-size=1KB",
+    "southern-quiet.framework.file-system.mongodb.grid-fs.prefetch-chunks=3",
+    "southern-quiet.framework.file-system.mongodb.grid-fs.outstanding-writes=3"
+})
+@RunWith(SpringRunner.class)
+public class MongoGridFsTransferTest {
+    @Configuration
+    @EnableAutoConfiguration
+    @ComponentScan({"me.insidezhou.southernquiet.filesystem"})
+    public static class Config {}
+
+    @Autowired
+    private FileSystem fileSystem;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Test
+    public void multiChunkTransfer() throws FileSystemException, IOException {
+        byte[] data = new byte[10000];
+        new Random().nextBytes(data);
+
+        fileSystem.put("transfer/data.bin", new ByteArrayInputStream(data));
+
+        MongoPathMeta meta = fileSystem.meta("transfer/data.bin");
+        ObjectId fileId = meta.getFileId();
+        Assert.assertNotNull(fileId);
+        Assert.assertEquals((data.length + 1023) / 1024, mongoOperations.count(Query.query(Criteria.where("files_id").is(fileId)), "fs.chunks"));
+
+        try (InputStream stream = fileSystem.openReadStream("transfer/data.bin")) {
+            Assert.assertArrayEquals(data, StreamUtils.copyToByteArray(stream));
+        }
+
+        fileSystem.delete("transfer");
+    }
+}
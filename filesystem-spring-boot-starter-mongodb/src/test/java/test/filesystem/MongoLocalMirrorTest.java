@@ -0,0 +1,106 @@
+package test.filesystem;
+
+import me.insidezhou.southernquiet.filesystem.FileSystemException;
+import me.insidezhou.southernquiet.filesystem.ReactiveFileSystem;
+import me.insidezhou.southernquiet.filesystem.driver.MongoDbFileSystem;
+import me.insidezhou.southernquiet.filesystem.driver.MongoLocalMirror;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+@SpringBootTest(properties = {
+    "southern-quiet.framework.file-system.mongodb.file-size-threshold=4",
+    "southern-quiet.framework.file-system.mongodb.local-mirror.enable=true",
+    "southern-quiet.framework.file-system.mongodb.local-mirror.directory=${java.io.tmpdir}/.SQ_MONGODB_MIRROR_TEST",
+    "southern-quiet.framework.file-system.mongodb.local-mirror.max-bytes=64KB"
+})
+@RunWith(SpringRunner.class)
+public class MongoLocalMirrorTest {
+    @Configuration
+    @EnableAutoConfiguration
+    @ComponentScan({"me.insidezhou.southernquiet.filesystem"})
+    public static class Config {}
+
+    @Autowired
+    private MongoDbFileSystem fileSystem;
+
+    @Autowired(required = false)
+    private ReactiveFileSystem reactiveFileSystem;
+
+    @Test
+    public void localMirror() throws FileSystemException, IOException {
+        MongoLocalMirror mirror = fileSystem.getLocalMirror();
+        Assert.assertNotNull(mirror);
+
+        String path = "mirror/a.txt";
+        fileSystem.put(path, "0123456789");
+
+        //只读了一部分的流不会留下镜像。
+        try (InputStream stream = fileSystem.openReadStream(path)) {
+            Assert.assertEquals('0', stream.read());
+        }
+
+        long hitCount = mirror.getHitCount();
+        Assert.assertEquals("0123456789", fileSystem.read(path));
+        Assert.assertEquals(hitCount, mirror.getHitCount());
+
+        Assert.assertEquals("0123456789", fileSystem.read(path));
+        Assert.assertEquals(hitCount + 1, mirror.getHitCount());
+
+        fileSystem.writeAt(path, 0, ByteBuffer.wrap("ab".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("ab23456789", fileSystem.read(path));
+        Assert.assertEquals(hitCount + 1, mirror.getHitCount());
+
+        Assert.assertTrue(mirror.getTotalBytes() <= 64 * 1024);
+
+        fileSystem.delete("mirror");
+    }
+
+    @Test
+    public void reactiveLocalMirror() throws FileSystemException {
+        Assume.assumeNotNull(reactiveFileSystem);
+        MongoLocalMirror mirror = fileSystem.getLocalMirror();
+
+        String path = "reactiveMirror/a.txt";
+        fileSystem.put(path, "0123456789");
+
+        //响应式的完整读取写入镜像，之后的读取和范围读取都命中。
+        long hitCount = mirror.getHitCount();
+        Assert.assertEquals("0123456789", read(path, 0, -1));
+        Assert.assertEquals(hitCount, mirror.getHitCount());
+
+        Assert.assertEquals("0123456789", read(path, 0, -1));
+        Assert.assertEquals("345", read(path, 3, 3));
+        Assert.assertEquals(hitCount + 2, mirror.getHitCount());
+
+        //阻塞的读取也命中响应式读取写入的镜像。
+        Assert.assertEquals("0123456789", fileSystem.read(path));
+        Assert.assertEquals(hitCount + 3, mirror.getHitCount());
+
+        fileSystem.delete("reactiveMirror");
+    }
+
+    private String read(String path, long offset, long length) {
+        DataBuffer buffer = DataBufferUtils.join(reactiveFileSystem.readRange(path, offset, length, new DefaultDataBufferFactory(), 4)).block();
+        Assert.assertNotNull(buffer);
+
+        String content = buffer.toString(StandardCharsets.UTF_8);
+        DataBufferUtils.release(buffer);
+        return content;
+    }
+}
@@ -7,8 +7,16 @@ import me.insidezhou.southernquiet.debounce.DebouncePointcut;
 import me.insidezhou.southernquiet.debounce.DebouncerProvider;
 import me.insidezhou.southernquiet.debounce.DefaultDebouncerProvider;
 import me.insidezhou.southernquiet.event.EventPubSub;
+import me.insidezhou.southernquiet.filesystem.CachingFileSystem;
+import me.insidezhou.southernquiet.filesystem.ContentAddressedFileSystem;
 import me.insidezhou.southernquiet.filesystem.FileSystem;
+import me.insidezhou.southernquiet.filesystem.FileSystemDecoratorCondition;
+import me.insidezhou.southernquiet.filesystem.FileSystemDecoratorPostProcessor;
+import me.insidezhou.southernquiet.filesystem.ReactiveFileSystem;
+import me.insidezhou.southernquiet.filesystem.UsageAccountingFileSystem;
 import me.insidezhou.southernquiet.filesystem.driver.LocalFileSystem;
+import me.insidezhou.southernquiet.filesystem.driver.ReactiveLocalFileSystem;
+import me.insidezhou.southernquiet.filesystem.driver.ShardedLocalFileSystem;
 import me.insidezhou.southernquiet.keyvalue.driver.FileSystemKeyValueStore;
 import me.insidezhou.southernquiet.throttle.DefaultThrottleManager;
 import me.insidezhou.southernquiet.throttle.ThrottleAdvice;
@@ -18,6 +26,7 @@ import me.insidezhou.southernquiet.util.AsyncRunner;
 import me.insidezhou.southernquiet.util.Metadata;
 import org.springframework.aop.support.DefaultPointcutAdvisor;
 import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.AutoConfigureOrder;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
@@ -26,17 +35,23 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.util.AntPathMatcher;
 import org.springframework.util.PathMatcher;
 import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static me.insidezhou.southernquiet.auth.AuthAdvice.AuthorizationMatcherQualifier;
 
@@ -52,6 +67,10 @@ public class FrameworkAutoConfiguration {
     public final static String ConfigRoot_Throttle = ConfigRoot + ".throttle";
     public final static String ConfigRoot_Event = ConfigRoot + ".event";
     public final static String ConfigRoot_FileSystem = ConfigRoot + ".file-system";
+    public final static String ConfigRoot_ShardedLocalFileSystem = ConfigRoot_FileSystem + ".local.sharding";
+    public final static String ConfigRoot_ContentAddressedFileSystem = ConfigRoot_FileSystem + ".content-addressed";
+    public final static String ConfigRoot_CachingFileSystem = ConfigRoot_FileSystem + ".cache";
+    public final static String ConfigRoot_UsageAccountingFileSystem = ConfigRoot_FileSystem + ".usage";
     public final static String ConfigRoot_KeyValue = ConfigRoot + ".key-value";
 
     @Bean
@@ -61,12 +80,54 @@ public class FrameworkAutoConfiguration {
         return new FileSystemKeyValueStore(properties.getFileSystem(), fileSystem);
     }
 
+    @Bean
+    @ConditionalOnProperty(value = "enable", prefix = ConfigRoot_ShardedLocalFileSystem)
+    @ConditionalOnMissingBean(FileSystem.class)
+    public ShardedLocalFileSystem shardedLocalFileSystem(LocalFileSystemProperties properties) {
+        return new ShardedLocalFileSystem(properties);
+    }
+
     @Bean
     @ConditionalOnMissingBean(FileSystem.class)
     public LocalFileSystem localFileSystem(LocalFileSystemProperties properties) {
         return new LocalFileSystem(properties);
     }
 
+    @Bean
+    @ConditionalOnBean(LocalFileSystem.class)
+    @ConditionalOnMissingBean(ReactiveFileSystem.class)
+    @Conditional(FileSystemDecoratorCondition.class)
+    public ReactiveLocalFileSystem reactiveLocalFileSystem(LocalFileSystem localFileSystem) {
+        return new ReactiveLocalFileSystem(localFileSystem);
+    }
+
+    /**
+     * 用{@link ContentAddressedFileSystem}包装容器中的{@link FileSystem}。
+     */
+    @Bean
+    @ConditionalOnProperty(value = "enable", prefix = ConfigRoot_ContentAddressedFileSystem)
+    public static FileSystemDecoratorPostProcessor contentAddressedFileSystemPostProcessor(ObjectProvider<ContentAddressedFileSystemProperties> properties) {
+        return new FileSystemDecoratorPostProcessor(0, ContentAddressedFileSystem.class, fileSystem -> new ContentAddressedFileSystem(fileSystem, properties.getObject()));
+    }
+
+    /**
+     * 用{@link UsageAccountingFileSystem}包装容器中的{@link FileSystem}，统计的是去重之前的用量。
+     */
+    @Bean
+    @ConditionalOnProperty(value = "enable", prefix = ConfigRoot_UsageAccountingFileSystem)
+    public static FileSystemDecoratorPostProcessor usageAccountingFileSystemPostProcessor(ObjectProvider<UsageAccountingFileSystemProperties> properties) {
+        return new FileSystemDecoratorPostProcessor(50, UsageAccountingFileSystem.class, fileSystem -> new UsageAccountingFileSystem(fileSystem, properties.getObject()));
+    }
+
+    /**
+     * 用{@link CachingFileSystem}包装容器中的{@link FileSystem}，位于其它装饰器的外层。
+     */
+    @Bean
+    @ConditionalOnProperty(value = "enable", prefix = ConfigRoot_CachingFileSystem)
+    public static FileSystemDecoratorPostProcessor cachingFileSystemPostProcessor(ObjectProvider<CachingFileSystemProperties> properties) {
+        return new FileSystemDecoratorPostProcessor(100, CachingFileSystem.class, fileSystem -> new CachingFileSystem(fileSystem, properties.getObject()));
+    }
+
     @Bean
     @ConditionalOnProperty(value = "enable", prefix = ConfigRoot_Auth, matchIfMissing = true)
     @ConditionalOnMissingBean
@@ -214,6 +275,27 @@ public class FrameworkAutoConfiguration {
         return new LocalFileSystemProperties();
     }
 
+    @Bean
+    @ConditionalOnMissingBean
+    @ConfigurationProperties(ConfigRoot_ContentAddressedFileSystem)
+    public ContentAddressedFileSystemProperties contentAddressedFileSystemProperties() {
+        return new ContentAddressedFileSystemProperties();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConfigurationProperties(ConfigRoot_CachingFileSystem)
+    public CachingFileSystemProperties cachingFileSystemProperties() {
+        return new CachingFileSystemProperties();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConfigurationProperties(ConfigRoot_UsageAccountingFileSystem)
+    public UsageAccountingFileSystemProperties usageAccountingFileSystemProperties() {
+        return new UsageAccountingFileSystemProperties();
+    }
+
     @Bean
     @ConditionalOnMissingBean
     @ConfigurationProperties(ConfigRoot_KeyValue)
@@ -306,6 +388,33 @@ public class FrameworkAutoConfiguration {
         }
     }
 
+    public static class UsageAccountingFileSystemProperties {
+        /**
+         * 是否统计目录用量
+         */
+        private boolean enable = false;
+        /**
+         * 目录的字节数配额，路径作为key时需要写成[/path/to/dir]
+         */
+        private Map<String, DataSize> quotas = new HashMap<>();
+
+        public boolean isEnable() {
+            return enable;
+        }
+
+        public void setEnable(boolean enable) {
+            this.enable = enable;
+        }
+
+        public Map<String, DataSize> getQuotas() {
+            return quotas;
+        }
+
+        public void setQuotas(Map<String, DataSize> quotas) {
+            this.quotas = quotas;
+        }
+    }
+
     public static class EventProperties {
         private String[] defaultChannels = new String[]{EventPubSub.DefaultEventChannel};
 
@@ -323,6 +432,236 @@ public class FrameworkAutoConfiguration {
          * FileSystem默认驱动在本地文件系统中的实际路径
          */
         private String workingRoot = "${user.home}/.SQ_FILESYSTEM";
+        /**
+         * 递归遍历目录、批量操作时的并行度
+         */
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+
+        private MetaCache metaCache = new MetaCache();
+
+        private Sharding sharding = new Sharding();
+
+        private Durability durability = new Durability();
+
+        private NameIndex nameIndex = new NameIndex();
+
+        public String getWorkingRoot() {
+            return workingRoot;
+        }
+
+        public void setWorkingRoot(String workingRoot) {
+            this.workingRoot = workingRoot;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public MetaCache getMetaCache() {
+            return metaCache;
+        }
+
+        public void setMetaCache(MetaCache metaCache) {
+            this.metaCache = metaCache;
+        }
+
+        public Sharding getSharding() {
+            return sharding;
+        }
+
+        public void setSharding(Sharding sharding) {
+            this.sharding = sharding;
+        }
+
+        public Durability getDurability() {
+            return durability;
+        }
+
+        public void setDurability(Durability durability) {
+            this.durability = durability;
+        }
+
+        public NameIndex getNameIndex() {
+            return nameIndex;
+        }
+
+        public void setNameIndex(NameIndex nameIndex) {
+            this.nameIndex = nameIndex;
+        }
+
+        public static class MetaCache {
+            /**
+             * 是否缓存路径元信息
+             */
+            private boolean enable = false;
+            /**
+             * 缓存的最大条目数，超出后按LRU淘汰
+             */
+            private int maxSize = 100000;
+
+            public boolean isEnable() {
+                return enable;
+            }
+
+            public void setEnable(boolean enable) {
+                this.enable = enable;
+            }
+
+            public int getMaxSize() {
+                return maxSize;
+            }
+
+            public void setMaxSize(int maxSize) {
+                this.maxSize = maxSize;
+            }
+        }
+
+        public static class Sharding {
+            /**
+             * 是否把文件分散到多个工作目录
+             */
+            private boolean enable = false;
+            /**
+             * 各个磁盘上的工作目录，为空时只使用workingRoot
+             */
+            private List<String> workingRoots = new ArrayList<>();
+            /**
+             * 每个工作目录在一致性哈希环上的虚拟节点数量，越多文件分布越均匀
+             */
+            private int virtualNodes = 160;
+            /**
+             * 启动时是否在后台把文件迁移到一致性哈希指定的工作目录，增减或更换了工作目录后应启用
+             */
+            private boolean rebalanceOnStartup = false;
+
+            public boolean isEnable() {
+                return enable;
+            }
+
+            public void setEnable(boolean enable) {
+                this.enable = enable;
+            }
+
+            public List<String> getWorkingRoots() {
+                return workingRoots;
+            }
+
+            public void setWorkingRoots(List<String> workingRoots) {
+                this.workingRoots = workingRoots;
+            }
+
+            public int getVirtualNodes() {
+                return virtualNodes;
+            }
+
+            public void setVirtualNodes(int virtualNodes) {
+                this.virtualNodes = virtualNodes;
+            }
+
+            public boolean isRebalanceOnStartup() {
+                return rebalanceOnStartup;
+            }
+
+            public void setRebalanceOnStartup(boolean rebalanceOnStartup) {
+                this.rebalanceOnStartup = rebalanceOnStartup;
+            }
+        }
+
+        public static class Durability {
+            /**
+             * 写入完成时是否把数据同步到磁盘
+             */
+            private Mode mode = Mode.NONE;
+            /**
+             * group-commit模式下收集一批写入的最长等待时间
+             */
+            private Duration groupCommitWindow = Duration.ofMillis(2);
+            /**
+             * group-commit模式下一批写入的最大数量
+             */
+            private int maxBatchSize = 256;
+
+            public Mode getMode() {
+                return mode;
+            }
+
+            public void setMode(Mode mode) {
+                this.mode = mode;
+            }
+
+            public Duration getGroupCommitWindow() {
+                return groupCommitWindow;
+            }
+
+            public void setGroupCommitWindow(Duration groupCommitWindow) {
+                this.groupCommitWindow = groupCommitWindow;
+            }
+
+            public int getMaxBatchSize() {
+                return maxBatchSize;
+            }
+
+            public void setMaxBatchSize(int maxBatchSize) {
+                this.maxBatchSize = maxBatchSize;
+            }
+
+            public enum Mode {
+                /**
+                 * 不主动同步，由操作系统决定何时写入磁盘
+                 */
+                NONE,
+                /**
+                 * 每次写入各自同步文件和所在目录
+                 */
+                PER_WRITE,
+                /**
+                 * 各自同步文件数据后，短时间内的并发写入合并为一批rename，每个目录只同步一次
+                 */
+                GROUP_COMMIT
+            }
+        }
+
+        public static class NameIndex {
+            /**
+             * 是否在内存中维护路径名称的trigram索引，加速按名称子串搜索
+             */
+            private boolean enable = false;
+
+            public boolean isEnable() {
+                return enable;
+            }
+
+            public void setEnable(boolean enable) {
+                this.enable = enable;
+            }
+        }
+    }
+
+    public static class ContentAddressedFileSystemProperties {
+        /**
+         * 是否按内容寻址、去重存储文件
+         */
+        private boolean enable = false;
+        /**
+         * 内容、持有者和临时文件在FileSystem中的路径，该路径对使用者不可见
+         */
+        private String workingRoot = "/.SQ_CAS";
+        /**
+         * 回收无人持有的内容的间隔
+         */
+        private Duration gcInterval = Duration.ofMinutes(1);
+
+        public boolean isEnable() {
+            return enable;
+        }
+
+        public void setEnable(boolean enable) {
+            this.enable = enable;
+        }
 
         public String getWorkingRoot() {
             return workingRoot;
@@ -331,6 +670,77 @@ public class FrameworkAutoConfiguration {
         public void setWorkingRoot(String workingRoot) {
             this.workingRoot = workingRoot;
         }
+
+        public Duration getGcInterval() {
+            return gcInterval;
+        }
+
+        public void setGcInterval(Duration gcInterval) {
+            this.gcInterval = gcInterval;
+        }
+    }
+
+    public static class CachingFileSystemProperties {
+        /**
+         * 是否在内存中缓存小文件的内容
+         */
+        private boolean enable = false;
+        /**
+         * 缓存内容的总字节数上限
+         */
+        private DataSize maxBytes = DataSize.ofMegabytes(64);
+        /**
+         * 超过该大小的文件不缓存
+         */
+        private DataSize maxFileSize = DataSize.ofMegabytes(1);
+        /**
+         * 写入缓存后的过期时间，用于发现不经过当前实例的修改，为空则不过期
+         */
+        private Duration expireAfterWrite = Duration.ofMinutes(10);
+        /**
+         * 多长时间上报一次命中率等计数
+         */
+        private Duration reportDuration = Duration.ofMinutes(1);
+
+        public boolean isEnable() {
+            return enable;
+        }
+
+        public void setEnable(boolean enable) {
+            this.enable = enable;
+        }
+
+        public DataSize getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(DataSize maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        public DataSize getMaxFileSize() {
+            return maxFileSize;
+        }
+
+        public void setMaxFileSize(DataSize maxFileSize) {
+            this.maxFileSize = maxFileSize;
+        }
+
+        public Duration getExpireAfterWrite() {
+            return expireAfterWrite;
+        }
+
+        public void setExpireAfterWrite(Duration expireAfterWrite) {
+            this.expireAfterWrite = expireAfterWrite;
+        }
+
+        public Duration getReportDuration() {
+            return reportDuration;
+        }
+
+        public void setReportDuration(Duration reportDuration) {
+            this.reportDuration = reportDuration;
+        }
     }
 
     public static class KeyValueStoreProperties {
@@ -0,0 +1,276 @@
+package me.insidezhou.southernquiet.filesystem;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
+import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
+import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
+import org.springframework.util.StreamUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在堆内存中缓存小文件内容的{@link FileSystem}装饰器。
+ * <p>
+ * 以文件字节数为权重限制总容量，按W-TinyLFU淘汰，偶尔读取一次的文件不会挤掉热点文件；
+ * 同一路径的并发未命中只加载一次。经由本装饰器的写入、移动、删除会使缓存失效，
+ * 其它途径（其它进程、经由软链接写入的目标文件等）的修改最多在expireAfterWrite之后可见。
+ */
+public class CachingFileSystem extends DelegatingFileSystem {
+    private static final SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(CachingFileSystem.class);
+
+    private final Cache<String, byte[]> cache;
+    private final long maxFileSize;
+    private final ScheduledExecutorService scheduler;
+
+    public CachingFileSystem(FileSystem delegate, FrameworkAutoConfiguration.CachingFileSystemProperties properties) {
+        super(delegate);
+
+        this.maxFileSize = properties.getMaxFileSize().toBytes();
+
+        Caffeine<String, byte[]> builder = Caffeine.newBuilder()
+            .maximumWeight(properties.getMaxBytes().toBytes())
+            .weigher((String path, byte[] data) -> data.length)
+            .recordStats();
+
+        if (null != properties.getExpireAfterWrite()) {
+            builder.expireAfterWrite(properties.getExpireAfterWrite());
+        }
+
+        this.cache = builder.build();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CachingFileSystem-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long interval = properties.getReportDuration().toMillis();
+        scheduler.scheduleWithFixedDelay(this::report, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        scheduler.shutdown();
+        super.destroy();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public double getHitRatio() {
+        return cache.stats().hitRate();
+    }
+
+    /**
+     * 缓存的文件数量，是近似值。
+     */
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public InputStream openReadStream(String path) throws InvalidFileException {
+        byte[] data = load(path);
+        if (null == data) return delegate.openReadStream(path);
+
+        return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public SeekableByteChannel openReadChannel(String path) throws InvalidFileException {
+        byte[] data = load(path);
+        if (null == data) return delegate.openReadChannel(path);
+
+        return new StreamSeekableByteChannel(() -> new ByteArrayInputStream(data), data.length);
+    }
+
+    @Override
+    public InputStream readRange(String path, long offset, long length) throws InvalidFileException {
+        byte[] data = load(path);
+        if (null == data) return delegate.readRange(path, offset, length);
+
+        int start = (int) Math.min(Math.max(offset, 0), data.length);
+        int count = length < 0 ? data.length - start : (int) Math.min(length, data.length - start);
+        return new ByteArrayInputStream(data, start, count);
+    }
+
+    @Override
+    public void put(String path, InputStream stream) throws InvalidFileException {
+        try {
+            delegate.put(path, stream);
+        }
+        finally {
+            invalidate(path, false);
+        }
+    }
+
+    @Override
+    public void put(String path, CharSequence txt) throws InvalidFileException {
+        try {
+            delegate.put(path, txt);
+        }
+        finally {
+            invalidate(path, false);
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, InputStream> streams) throws InvalidFileException {
+        try {
+            delegate.putAll(streams);
+        }
+        finally {
+            streams.keySet().forEach(path -> invalidate(path, false));
+        }
+    }
+
+    @Override
+    public void writeAt(String path, long offset, ByteBuffer data) throws InvalidFileException {
+        try {
+            delegate.writeAt(path, offset, data);
+        }
+        finally {
+            invalidate(path, false);
+        }
+    }
+
+    @Override
+    public OutputStream openWriteStream(String path) throws InvalidFileException {
+        invalidate(path, false);
+
+        return new FilterOutputStream(delegate.openWriteStream(path)) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                super.flush();
+                invalidate(path, false);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                }
+                finally {
+                    invalidate(path, false);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void move(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        try {
+            delegate.move(source, destination, replaceExisting);
+        }
+        finally {
+            invalidate(source, true);
+            invalidate(destination, true);
+        }
+    }
+
+    @Override
+    public void copy(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        try {
+            delegate.copy(source, destination, replaceExisting);
+        }
+        finally {
+            invalidate(destination, true);
+        }
+    }
+
+    @Override
+    public void delete(String path) {
+        try {
+            delegate.delete(path);
+        }
+        finally {
+            invalidate(path, true);
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<String> paths) {
+        try {
+            delegate.deleteAll(paths);
+        }
+        finally {
+            paths.forEach(path -> invalidate(path, true));
+        }
+    }
+
+    @Override
+    public void createSymbolicLink(String linkPath, String targetPath) throws InvalidFileException {
+        try {
+            delegate.createSymbolicLink(linkPath, targetPath);
+        }
+        finally {
+            invalidate(linkPath, false);
+        }
+    }
+
+    /**
+     * @return 路径不存在、是目录或超过单文件上限时返回null，由被装饰的文件系统处理。
+     */
+    private byte[] load(String path) {
+        return cache.get(new NormalizedPath(path).toString(), key -> {
+            PathMeta meta = delegate.meta(key);
+            if (null == meta || meta.isDirectory() || meta.getSize() < 0 || meta.getSize() > maxFileSize) return null;
+
+            try (InputStream inputStream = delegate.openReadStream(key)) {
+                return StreamUtils.copyToByteArray(inputStream);
+            }
+            catch (InvalidFileException | IOException e) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 等待正在进行的加载完成后再移除，写入之前开始的加载不会把旧内容留在缓存中。
+     *
+     * @param recursive 同时移除路径之下的所有文件。
+     */
+    private void invalidate(String path, boolean recursive) {
+        String normalizedPath = new NormalizedPath(path).toString();
+        cache.invalidate(normalizedPath);
+
+        if (!recursive) return;
+
+        String prefix = PATH_SEPARATOR_STRING.equals(normalizedPath) ? normalizedPath : normalizedPath + PATH_SEPARATOR_STRING;
+        cache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    private void report() {
+        CacheStats stats = cache.stats();
+
+        log.message("文件缓存计数器")
+            .context(context -> {
+                context.put("hitRate", stats.hitRate());
+                context.put("hit", stats.hitCount());
+                context.put("miss", stats.missCount());
+                context.put("eviction", stats.evictionCount());
+                context.put("averageLoadPenalty", stats.averageLoadPenalty());
+                context.put("files", cache.estimatedSize());
+            })
+            .info();
+    }
+}
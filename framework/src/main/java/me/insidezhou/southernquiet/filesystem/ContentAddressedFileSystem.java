@@ -0,0 +1,775 @@
+package me.insidezhou.southernquiet.filesystem;
+
+import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
+import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
+import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 按内容寻址、去重存储的{@link FileSystem}装饰器。
+ * <p>
+ * 文件内容以sha256为名只保存一份，位于工作目录下的blobs；用户路径上保存的是指向内容的引用，
+ * 引用以用户路径加上保留的后缀{@value #REF_SUFFIX}命名，与内容恰好形如引用的普通文件不会混淆；
+ * 每个引用在refs下以一个持有者文件计数，{@link #copy(String, String, boolean)}只需要写引用和持有者，不复制内容。
+ * 没有持有者的内容由后台定时回收。
+ * <p>
+ * 元信息中的大小记录在引用中，获取引用的元信息时需要读取引用，普通文件和目录不需要。
+ * 引用的名称与用户路径不同，按名称或大小排序、按名称搜索时无法交给驱动分页。
+ * <p>
+ * 启用前已经存在的普通文件仍可读取，下一次写入时转换为引用。
+ * 通过软链接写入时，持有者记在软链接路径上，目标文件之后被覆盖或删除时旧内容不会被回收，只会多占空间，不会丢失数据。
+ * 引用与回收之间的互斥只在本进程内有效，多个进程共享同一存储时不应同时启用回收。
+ */
+public class ContentAddressedFileSystem extends DelegatingFileSystem {
+    private static final SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(ContentAddressedFileSystem.class);
+
+    public final static String REF_SUFFIX = ".sq_ref";
+
+    private final static Pattern REF_PATTERN = Pattern.compile("^sha256:([0-9a-f]{64}):(\\d+)$");
+    private final static int LOCK_STRIPES = 64;
+
+    private final String workingRoot;
+    private final String blobsRoot;
+    private final String refsRoot;
+    private final String tempRoot;
+
+    private final Object[] pathLocks = newLocks();
+    private final Object[] hashLocks = newLocks();
+
+    private final Set<String> garbageCandidates = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+
+    public ContentAddressedFileSystem(FileSystem delegate, FrameworkAutoConfiguration.ContentAddressedFileSystemProperties properties) {
+        super(delegate);
+
+        this.workingRoot = new NormalizedPath(properties.getWorkingRoot()).toString();
+        this.blobsRoot = workingRoot + PATH_SEPARATOR_STRING + "blobs";
+        this.refsRoot = workingRoot + PATH_SEPARATOR_STRING + "refs";
+        this.tempRoot = workingRoot + PATH_SEPARATOR_STRING + "tmp";
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ContentAddressedFileSystem-gc");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long interval = properties.getGcInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::collectGarbageQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        scheduler.shutdown();
+        super.destroy();
+    }
+
+    @Override
+    public void put(String path, InputStream stream) throws InvalidFileException {
+        NormalizedPath normalizedPath = checkPath(path);
+        String temp = newTempPath();
+
+        HashingInputStream hashingStream = new HashingInputStream(stream);
+        try {
+            delegate.put(temp, hashingStream);
+            commit(normalizedPath.toString(), temp, hashingStream.toRef());
+        }
+        finally {
+            delegate.delete(temp);
+        }
+    }
+
+    @Override
+    public void put(String path, CharSequence txt) throws InvalidFileException {
+        put(path, new ByteArrayInputStream(txt.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 逐个写入，驱动的批量写入不经过引用。
+     */
+    @Override
+    public void putAll(Map<String, InputStream> streams) throws InvalidFileException {
+        FileSystem.putEach(this, streams);
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return null != storedMeta(path);
+    }
+
+    @Override
+    public InputStream openReadStream(String path) throws InvalidFileException {
+        return delegate.openReadStream(contentPath(path));
+    }
+
+    @Override
+    public SeekableByteChannel openReadChannel(String path) throws InvalidFileException {
+        return delegate.openReadChannel(contentPath(path));
+    }
+
+    @Override
+    public InputStream readRange(String path, long offset, long length) throws InvalidFileException {
+        return delegate.readRange(contentPath(path), offset, length);
+    }
+
+    /**
+     * 先把现有内容复制到临时文件，关闭时才计算hash并替换引用，关闭之前写入的内容对读取方不可见。
+     */
+    @Override
+    public OutputStream openWriteStream(String path) throws InvalidFileException {
+        String normalizedPath = checkPath(path).toString();
+        String temp = newTempPath();
+
+        if (exists(normalizedPath)) {
+            try (InputStream inputStream = openReadStream(normalizedPath)) {
+                delegate.put(temp, inputStream);
+            }
+            catch (IOException e) {
+                throw new InvalidFileException(path, e);
+            }
+        }
+
+        OutputStream outputStream = delegate.openWriteStream(temp);
+        return new FilterOutputStream(outputStream) {
+            private boolean closed = false;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+
+                try {
+                    super.close();
+
+                    HashingInputStream hashingStream = new HashingInputStream(delegate.openReadStream(temp));
+                    try (InputStream inputStream = hashingStream) {
+                        byte[] buffer = new byte[8192];
+                        //noinspection StatementWithEmptyBody
+                        while (inputStream.read(buffer) >= 0) {}
+                    }
+
+                    commit(normalizedPath, temp, hashingStream.toRef());
+                }
+                catch (InvalidFileException e) {
+                    throw new IOException(e);
+                }
+                finally {
+                    delegate.delete(temp);
+                }
+            }
+        };
+    }
+
+    /**
+     * 在临时路径上复制一份当前内容并定位写入，再按新内容的摘要提交，其它引用同一内容的路径不受影响。
+     */
+    @Override
+    public void writeAt(String path, long offset, ByteBuffer data) throws InvalidFileException {
+        String normalizedPath = checkPath(path).toString();
+        String temp = newTempPath();
+
+        try {
+            if (exists(normalizedPath)) {
+                try (InputStream inputStream = openReadStream(normalizedPath)) {
+                    delegate.put(temp, inputStream);
+                }
+                catch (IOException e) {
+                    throw new InvalidFileException(path, e);
+                }
+            }
+
+            delegate.writeAt(temp, offset, data);
+
+            HashingInputStream hashingStream = new HashingInputStream(delegate.openReadStream(temp));
+            try (InputStream inputStream = hashingStream) {
+                byte[] buffer = new byte[8192];
+                //noinspection StatementWithEmptyBody
+                while (inputStream.read(buffer) >= 0) {}
+            }
+            catch (IOException e) {
+                throw new InvalidFileException(path, e);
+            }
+
+            commit(normalizedPath, temp, hashingStream.toRef());
+        }
+        finally {
+            delegate.delete(temp);
+        }
+    }
+
+    /**
+     * 只写入引用，不复制内容。
+     */
+    @Override
+    public void copy(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        NormalizedPath src = checkPath(source);
+        NormalizedPath dest = checkPath(destination);
+
+        PathMeta sourceMeta = storedMeta(src.toString());
+        if (null == sourceMeta) throw new PathNotFoundException(source);
+
+        PathMeta destMeta = storedMeta(dest.toString());
+
+        if (!sourceMeta.isDirectory()) {
+            String target = null != destMeta && destMeta.isDirectory() ? child(dest.toString(), src.getName()) : dest.toString();
+            copyFile(src.toString(), target, replaceExisting);
+            return;
+        }
+
+        if (null != destMeta && !destMeta.isDirectory()) throw new FileSystemException("不能把目录移动或复制到文件。");
+        if (isSameOrDescendant(dest.toString(), src.toString())) throw new FileSystemException("不能把目录移动或复制到其自身之下。");
+
+        delegate.createDirectory(dest.toString());
+
+        List<String> directories;
+        List<String> files;
+        try (
+            Stream<? extends PathMeta> directoryStream = delegate.directories(src.toString(), null, true, 0, 0, null);
+            Stream<? extends PathMeta> fileStream = delegate.files(src.toString(), null, true, 0, 0, null)
+        ) {
+            directories = directoryStream.map(PathMeta::getPath).collect(Collectors.toList());
+            files = fileStream.map(meta -> userPath(meta.getPath())).collect(Collectors.toList());
+        }
+
+        for (String directory : directories) {
+            delegate.createDirectory(relocate(directory, src.toString(), dest.toString()));
+        }
+
+        for (String file : files) {
+            copyFile(file, relocate(file, src.toString(), dest.toString()), replaceExisting);
+        }
+    }
+
+    @Override
+    public void move(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        copy(source, destination, replaceExisting);
+        delete(source);
+    }
+
+    @Override
+    public void delete(String path) {
+        String normalizedPath = new NormalizedPath(path).toString();
+        if (isSameOrDescendant(normalizedPath, workingRoot)) return;
+
+        PathMeta meta = storedMeta(normalizedPath);
+        if (null == meta) return;
+
+        if (!meta.isDirectory()) {
+            deleteFile(normalizedPath);
+            return;
+        }
+
+        //目录包含内容存储时，只删除存储之外的内容。
+        if (isSameOrDescendant(workingRoot, normalizedPath)) {
+            try (
+                Stream<? extends PathMeta> directoryStream = delegate.directories(normalizedPath, null, false, 0, 0, null);
+                Stream<? extends PathMeta> fileStream = delegate.files(normalizedPath, null, false, 0, 0, null)
+            ) {
+                Stream.concat(directoryStream, fileStream)
+                    .map(m -> userPath(m.getPath()))
+                    .collect(Collectors.toList())
+                    .forEach(this::delete);
+            }
+            catch (PathNotFoundException e) {
+                return;
+            }
+
+            return;
+        }
+
+        try (Stream<? extends PathMeta> fileStream = delegate.files(normalizedPath, null, true, 0, 0, null)) {
+            fileStream.map(m -> userPath(m.getPath())).collect(Collectors.toList()).forEach(this::deleteFile);
+        }
+        catch (PathNotFoundException e) {
+            return;
+        }
+
+        delegate.delete(normalizedPath);
+    }
+
+    @Override
+    public void deleteAll(Collection<String> paths) {
+        paths.forEach(this::delete);
+    }
+
+    @Override
+    public <M extends PathMeta> M meta(String path) {
+        M meta = storedMeta(path);
+        if (null != meta) {
+            resolveRef(meta);
+        }
+
+        return meta;
+    }
+
+    /**
+     * 引用和普通文件通过一次{@link FileSystem#metas(Collection)}获取。
+     */
+    @Override
+    public <M extends PathMeta> Map<String, M> metas(Collection<String> paths) {
+        Map<String, String> refPaths = paths.stream().distinct().collect(Collectors.toMap(path -> path, path -> refPath(new NormalizedPath(path).toString())));
+        Map<String, M> storedMetas = delegate.metas(Stream.concat(paths.stream(), refPaths.values().stream()).collect(Collectors.toSet()));
+
+        Map<String, M> metas = new HashMap<>();
+        refPaths.forEach((path, refPath) -> {
+            M meta = storedMetas.getOrDefault(refPath, storedMetas.get(path));
+            if (null != meta) {
+                resolveRef(meta);
+                metas.put(path, meta);
+            }
+        });
+
+        return metas;
+    }
+
+    @Override
+    public void touchCreation(String path) {
+        delegate.touchCreation(storedPath(path));
+    }
+
+    @Override
+    public void touchLastModified(String path) {
+        delegate.touchLastModified(storedPath(path));
+    }
+
+    @Override
+    public void touchLastAccess(String path) {
+        delegate.touchLastAccess(storedPath(path));
+    }
+
+    /**
+     * 目标是引用时，软链接也建立在引用之间，通过软链接读写的是目标的引用。
+     */
+    @Override
+    public void createSymbolicLink(String linkPath, String targetPath) throws InvalidFileException {
+        String link = checkPath(linkPath).toString();
+        String target = new NormalizedPath(targetPath).toString();
+
+        if (delegate.exists(refPath(target))) {
+            delegate.createSymbolicLink(refPath(link), refPath(target));
+        }
+        else {
+            delegate.createSymbolicLink(link, target);
+        }
+    }
+
+    @Override
+    public Stream<? extends PathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        String normalizedPath = new NormalizedPath(path).toString();
+        if (!mayList(normalizedPath, recursive)) return delegate.directories(path, search, recursive, offset, limit, sort);
+
+        Stream<? extends PathMeta> stream = delegate.directories(path, search, recursive, 0, 0, null)
+            .filter(meta -> !isSameOrDescendant(meta.getPath(), workingRoot));
+
+        return FileSystem.sort(stream, sort, offset, limit);
+    }
+
+    /**
+     * 引用的名称和大小需要替换为用户路径和内容的大小，按名称或大小排序、按名称搜索或列表包含内容存储时需要自行排序分页。
+     */
+    @Override
+    public Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        String normalizedPath = new NormalizedPath(path).toString();
+        boolean sortByRef = PathMetaSort.Size == sort || PathMetaSort.SizeDesc == sort || PathMetaSort.Name == sort || PathMetaSort.NameDesc == sort;
+        boolean hasSearch = StringUtils.hasText(search);
+
+        if (!sortByRef && !hasSearch && !mayList(normalizedPath, recursive)) {
+            return delegate.files(path, search, recursive, offset, limit, sort).peek(this::resolveRef);
+        }
+
+        Stream<? extends PathMeta> stream = delegate.files(path, search, recursive, 0, 0, null)
+            .filter(meta -> !isSameOrDescendant(meta.getPath(), workingRoot))
+            .peek(this::resolveRef)
+            .filter(meta -> !hasSearch || meta.getName().contains(search));
+
+        return FileSystem.sort(stream, sort, offset, limit);
+    }
+
+    /**
+     * 内容存储之下的变更不对外发出，用户路径上的变更是引用文件的变更。
+     */
+    @Override
+    public Flux<PathEvent> watch(String path, boolean recursive) {
+        return delegate.watch(path, recursive)
+            .filter(event -> PathEvent.Type.Overflow == event.getType() || !isSameOrDescendant(event.getPath(), workingRoot))
+            .map(event -> isRefPath(event.getPath()) ? new PathEvent(event.getType(), userPath(event.getPath()), event.getTime()) : event);
+    }
+
+    /**
+     * 回收已登记的、没有任何持有者的内容。
+     */
+    public void collectGarbage() {
+        Iterator<String> iterator = garbageCandidates.iterator();
+        while (iterator.hasNext()) {
+            String hash = iterator.next();
+            iterator.remove();
+
+            synchronized (hashLock(hash)) {
+                if (hasHolder(hash)) continue;
+
+                delegate.delete(blobPath(hash));
+                delegate.delete(holdersPath(hash));
+            }
+        }
+    }
+
+    /**
+     * 扫描所有内容并回收没有持有者的，用于进程异常退出后清理未来得及回收的内容。
+     */
+    public void sweep() {
+        try (Stream<? extends PathMeta> stream = delegate.files(blobsRoot, null, true, 0, 0, null)) {
+            stream.map(PathMeta::getName).forEach(garbageCandidates::add);
+        }
+        catch (PathNotFoundException e) {
+            return;
+        }
+
+        collectGarbage();
+    }
+
+    private void collectGarbageQuietly() {
+        try {
+            collectGarbage();
+        }
+        catch (Exception e) {
+            log.message("回收内容失败").exception(e).warn();
+        }
+    }
+
+    /**
+     * 把临时文件登记为内容，增加持有者，再替换路径上的引用。
+     * 锁的顺序总是先路径后hash，回收只持有hash锁。
+     */
+    private void commit(String path, String temp, Ref ref) throws InvalidFileException {
+        String hash = ref.hash;
+
+        synchronized (pathLock(path)) {
+            PathMeta plain = plainFile(path);
+            Ref previous = readRef(path);
+
+            synchronized (hashLock(hash)) {
+                String blob = blobPath(hash);
+                if (!delegate.exists(blob)) {
+                    try {
+                        delegate.createDirectory(new NormalizedPath(blob).getParent());
+                        delegate.move(temp, blob, true);
+                    }
+                    catch (FileSystemException e) {
+                        throw new InvalidFileException(path, e);
+                    }
+                }
+
+                addHolder(hash, path);
+            }
+
+            writeRef(path, ref, previous, plain);
+        }
+    }
+
+    private void copyFile(String source, String target, boolean replaceExisting) throws FileSystemException {
+        if (!replaceExisting && exists(target)) return;
+
+        Ref ref = readRef(source);
+        if (null == ref) {
+            try (InputStream inputStream = delegate.openReadStream(source)) {
+                put(target, inputStream);
+            }
+            catch (IOException e) {
+                throw new InvalidFileException(source, e);
+            }
+
+            return;
+        }
+
+        synchronized (pathLock(target)) {
+            PathMeta plain = plainFile(target);
+            Ref previous = readRef(target);
+
+            synchronized (hashLock(ref.hash)) {
+                if (!delegate.exists(blobPath(ref.hash))) throw new InvalidFileException(source);
+
+                addHolder(ref.hash, target);
+            }
+
+            writeRef(target, ref, previous, plain);
+        }
+    }
+
+    private void deleteFile(String path) {
+        synchronized (pathLock(path)) {
+            Ref ref = readRef(path);
+            delegate.delete(path);
+
+            if (null != ref) {
+                delegate.delete(refPath(path));
+                release(ref.hash, path);
+            }
+        }
+    }
+
+    /**
+     * @param plain 路径上启用前的普通文件，写入引用后删除。
+     */
+    private void writeRef(String path, Ref ref, Ref previous, PathMeta plain) throws InvalidFileException {
+        delegate.put(refPath(path), "sha256:" + ref.hash + ":" + ref.size);
+
+        if (null != plain) {
+            delegate.delete(path);
+        }
+
+        if (null != previous && !previous.hash.equals(ref.hash)) {
+            release(previous.hash, path);
+        }
+    }
+
+    private void release(String hash, String path) {
+        synchronized (hashLock(hash)) {
+            delegate.delete(holderPath(hash, path));
+        }
+
+        garbageCandidates.add(hash);
+    }
+
+    private void addHolder(String hash, String path) throws InvalidFileException {
+        delegate.put(holderPath(hash, path), path);
+    }
+
+    private boolean hasHolder(String hash) {
+        try (Stream<? extends PathMeta> stream = delegate.files(holdersPath(hash), null, false, 0, 1, null)) {
+            return stream.findAny().isPresent();
+        }
+        catch (PathNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 路径上是引用时返回内容的路径，否则是启用前的普通文件，返回路径本身。
+     */
+    private String contentPath(String path) {
+        Ref ref = readRef(path);
+        return null == ref ? path : blobPath(ref.hash);
+    }
+
+    /**
+     * 路径上是引用时返回引用的路径，否则返回路径本身。
+     */
+    private String storedPath(String path) {
+        String refPath = refPath(new NormalizedPath(path).toString());
+        return delegate.exists(refPath) ? refPath : path;
+    }
+
+    /**
+     * 驱动中的元信息，路径上是引用时为引用的元信息，名称和大小尚未替换。
+     */
+    private <M extends PathMeta> M storedMeta(String path) {
+        M meta = delegate.meta(refPath(new NormalizedPath(path).toString()));
+        return null == meta ? delegate.meta(path) : meta;
+    }
+
+    /**
+     * @return 路径上启用前的普通文件，不存在时为null。
+     * @throws InvalidFileException 路径是目录
+     */
+    private PathMeta plainFile(String path) throws InvalidFileException {
+        PathMeta meta = delegate.meta(path);
+        if (null != meta && meta.isDirectory()) throw new InvalidFileException(path);
+
+        return meta;
+    }
+
+    /**
+     * 引用的名称替换为用户路径的名称，大小替换为内容的大小。
+     */
+    private void resolveRef(PathMeta meta) {
+        if (meta.isDirectory() || !isRefPath(meta.getPath())) return;
+
+        String path = userPath(meta.getPath());
+        meta.setName(new NormalizedPath(path).getName());
+
+        Ref ref = readRef(path);
+        if (null != ref) {
+            meta.setSize(ref.size);
+        }
+    }
+
+    private Ref readRef(String path) {
+        String content;
+        try {
+            content = delegate.read(refPath(path));
+        }
+        catch (InvalidFileException e) {
+            return null;
+        }
+
+        Matcher matcher = REF_PATTERN.matcher(content);
+        if (!matcher.matches()) return null;
+
+        return new Ref(matcher.group(1), Long.parseLong(matcher.group(2)));
+    }
+
+    private NormalizedPath checkPath(String path) throws InvalidFileException {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+        if (isSameOrDescendant(normalizedPath.toString(), workingRoot) || isRefPath(normalizedPath.toString())) throw new InvalidFileException(path);
+
+        return normalizedPath;
+    }
+
+    /**
+     * 列表中是否可能包含内容存储。
+     */
+    private boolean mayList(String path, boolean recursive) {
+        if (recursive) return isSameOrDescendant(workingRoot, path);
+
+        return new NormalizedPath(workingRoot).getParent().equals(path);
+    }
+
+    private String newTempPath() {
+        return tempRoot + PATH_SEPARATOR_STRING + UUID.randomUUID().toString();
+    }
+
+    private String blobPath(String hash) {
+        return String.join(PATH_SEPARATOR_STRING, blobsRoot, hash.substring(0, 2), hash.substring(2, 4), hash);
+    }
+
+    private String holdersPath(String hash) {
+        return refsRoot + PATH_SEPARATOR_STRING + hash;
+    }
+
+    private String holderPath(String hash, String path) {
+        MessageDigest digest = newDigest();
+        return holdersPath(hash) + PATH_SEPARATOR_STRING + hex(digest.digest(path.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private Object pathLock(String path) {
+        return pathLocks[Math.floorMod(path.hashCode(), LOCK_STRIPES)];
+    }
+
+    private Object hashLock(String hash) {
+        return hashLocks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static Object[] newLocks() {
+        Object[] locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; ++i) {
+            locks[i] = new Object();
+        }
+
+        return locks;
+    }
+
+    private static String refPath(String path) {
+        return path + REF_SUFFIX;
+    }
+
+    private static boolean isRefPath(String path) {
+        return path.endsWith(REF_SUFFIX);
+    }
+
+    /**
+     * 引用的路径去掉后缀，其它路径原样返回。
+     */
+    private static String userPath(String path) {
+        return isRefPath(path) ? path.substring(0, path.length() - REF_SUFFIX.length()) : path;
+    }
+
+    private static String child(String parent, String name) {
+        return PATH_SEPARATOR_STRING.equals(parent) ? parent + name : parent + PATH_SEPARATOR_STRING + name;
+    }
+
+    private static String relocate(String path, String source, String destination) {
+        String relative = PATH_SEPARATOR_STRING.equals(source) ? path.substring(1) : path.substring(source.length() + 1);
+        return child(destination, relative);
+    }
+
+    private static boolean isSameOrDescendant(String path, String ancestor) {
+        if (PATH_SEPARATOR_STRING.equals(ancestor)) return true;
+
+        return path.equals(ancestor) || path.startsWith(ancestor + PATH_SEPARATOR_STRING);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * 读取的同时计算sha256和长度，不依赖驱动给出的文件大小。
+     */
+    private static class HashingInputStream extends DigestInputStream {
+        private long size;
+
+        private HashingInputStream(InputStream stream) {
+            super(stream, newDigest());
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                ++size;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                size += read;
+            }
+
+            return read;
+        }
+
+        private Ref toRef() {
+            return new Ref(hex(getMessageDigest().digest()), size);
+        }
+    }
+
+    private static class Ref {
+        private final String hash;
+        private final long size;
+
+        private Ref(String hash, long size) {
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+}
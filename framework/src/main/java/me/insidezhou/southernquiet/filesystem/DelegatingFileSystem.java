@@ -0,0 +1,158 @@
+package me.insidezhou.southernquiet.filesystem;
+
+import org.springframework.beans.factory.DisposableBean;
+import reactor.core.publisher.Flux;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Collection;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * 把所有操作转发给另一个{@link FileSystem}，用于实现装饰器，子类只需覆盖需要改变的操作。
+ * 驱动自己实现的批量、定位读取等操作同样转发，不会退化为接口的默认实现。
+ */
+public abstract class DelegatingFileSystem implements FileSystem, DisposableBean {
+    protected final FileSystem delegate;
+
+    public DelegatingFileSystem(FileSystem delegate) {
+        this.delegate = delegate;
+    }
+
+    public FileSystem getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * 装饰器替换了原来的bean，原来的bean需要由装饰器负责销毁。
+     */
+    @Override
+    public void destroy() throws Exception {
+        if (delegate instanceof DisposableBean) {
+            ((DisposableBean) delegate).destroy();
+        }
+    }
+
+    @Override
+    public void createDirectory(String path) {
+        delegate.createDirectory(path);
+    }
+
+    @Override
+    public void put(String path, InputStream stream) throws InvalidFileException {
+        delegate.put(path, stream);
+    }
+
+    @Override
+    public void put(String path, CharSequence txt) throws InvalidFileException {
+        delegate.put(path, txt);
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return delegate.exists(path);
+    }
+
+    @Override
+    public InputStream openReadStream(String path) throws InvalidFileException {
+        return delegate.openReadStream(path);
+    }
+
+    @Override
+    public SeekableByteChannel openReadChannel(String path) throws InvalidFileException {
+        return delegate.openReadChannel(path);
+    }
+
+    @Override
+    public InputStream readRange(String path, long offset, long length) throws InvalidFileException {
+        return delegate.readRange(path, offset, length);
+    }
+
+    @Override
+    public OutputStream openWriteStream(String path) throws InvalidFileException {
+        return delegate.openWriteStream(path);
+    }
+
+    @Override
+    public void writeAt(String path, long offset, ByteBuffer data) throws InvalidFileException {
+        delegate.writeAt(path, offset, data);
+    }
+
+    @Override
+    public void move(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        delegate.move(source, destination, replaceExisting);
+    }
+
+    @Override
+    public void copy(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        delegate.copy(source, destination, replaceExisting);
+    }
+
+    @Override
+    public void delete(String path) {
+        delegate.delete(path);
+    }
+
+    @Override
+    public void touchCreation(String path) {
+        delegate.touchCreation(path);
+    }
+
+    @Override
+    public void touchLastModified(String path) {
+        delegate.touchLastModified(path);
+    }
+
+    @Override
+    public void touchLastAccess(String path) {
+        delegate.touchLastAccess(path);
+    }
+
+    @Override
+    public <M extends PathMeta> M meta(String path) {
+        return delegate.meta(path);
+    }
+
+    @Override
+    public <M extends PathMeta> Map<String, M> metas(Collection<String> paths) {
+        return delegate.metas(paths);
+    }
+
+    @Override
+    public void putAll(Map<String, InputStream> streams) throws InvalidFileException {
+        delegate.putAll(streams);
+    }
+
+    @Override
+    public void deleteAll(Collection<String> paths) {
+        delegate.deleteAll(paths);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return delegate.directories(path, search, recursive, offset, limit, sort);
+    }
+
+    @Override
+    public Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return delegate.files(path, search, recursive, offset, limit, sort);
+    }
+
+    @Override
+    public void createSymbolicLink(String linkPath, String targetPath) throws InvalidFileException {
+        delegate.createSymbolicLink(linkPath, targetPath);
+    }
+
+    @Override
+    public Flux<PathEvent> watch(String path, boolean recursive) {
+        return delegate.watch(path, recursive);
+    }
+
+    @Override
+    public boolean isWatchSupported() {
+        return delegate.isWatchSupported();
+    }
+}
@@ -1,15 +1,25 @@
 package me.insidezhou.southernquiet.filesystem;
 
+import me.insidezhou.southernquiet.util.Pair;
+import org.springframework.util.Assert;
 import org.springframework.util.StreamUtils;
+import reactor.core.publisher.Flux;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.Comparator;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 文件系统。
@@ -19,42 +29,108 @@ public interface FileSystem {
     char PATH_SEPARATOR = '/';
     String PATH_SEPARATOR_STRING = String.valueOf(PATH_SEPARATOR);
 
-    static <T extends PathMeta> Stream<T> sort(Stream<T> stream, PathMetaSort sort) {
+    static <T extends PathMeta> Comparator<T> comparator(PathMetaSort sort) {
         switch (sort) {
             case Name:
-                return stream.sorted(Comparator.comparing(PathMeta::getName));
+                return Comparator.comparing(PathMeta::getName);
             case NameDesc:
-                return stream.sorted(Comparator.comparing(PathMeta::getName).reversed());
+                return Comparator.<T, String>comparing(PathMeta::getName).reversed();
 
             case IsDirectory:
-                return stream.sorted(Comparator.comparing(PathMeta::isDirectory));
+                return Comparator.comparing(PathMeta::isDirectory);
             case IsDirectoryDesc:
-                return stream.sorted(Comparator.comparing(PathMeta::isDirectory).reversed());
+                return Comparator.<T, Boolean>comparing(PathMeta::isDirectory).reversed();
 
             case CreationTime:
-                return stream.sorted(Comparator.comparing(PathMeta::getCreationTime));
+                return Comparator.comparing(PathMeta::getCreationTime);
             case CreationTimeDesc:
-                return stream.sorted(Comparator.comparing(PathMeta::getCreationTime).reversed());
+                return Comparator.<T, Instant>comparing(PathMeta::getCreationTime).reversed();
 
             case LastAccessTime:
-                return stream.sorted(Comparator.comparing(PathMeta::getLastAccessTime));
+                return Comparator.comparing(PathMeta::getLastAccessTime);
             case LastAccessTimeDesc:
-                return stream.sorted(Comparator.comparing(PathMeta::getLastAccessTime).reversed());
+                return Comparator.<T, Instant>comparing(PathMeta::getLastAccessTime).reversed();
 
             case LastModifiedTime:
-                return stream.sorted(Comparator.comparing(PathMeta::getLastModifiedTime));
+                return Comparator.comparing(PathMeta::getLastModifiedTime);
             case LastModifiedTimeDesc:
-                return stream.sorted(Comparator.comparing(PathMeta::getLastModifiedTime).reversed());
+                return Comparator.<T, Instant>comparing(PathMeta::getLastModifiedTime).reversed();
 
             case Size:
-                return stream.sorted(Comparator.comparing(PathMeta::getSize));
+                return Comparator.comparing(PathMeta::getSize);
             case SizeDesc:
-                return stream.sorted(Comparator.comparing(PathMeta::getSize).reversed());
+                return Comparator.<T, Long>comparing(PathMeta::getSize).reversed();
             default:
                 throw new RuntimeException();
         }
     }
 
+    static <T extends PathMeta> Stream<T> sort(Stream<T> stream, PathMetaSort sort) {
+        return stream.sorted(comparator(sort));
+    }
+
+    /**
+     * 排序并分页。
+     * <p>
+     * 同时指定了sort与limit时，使用容量为offset+limit的堆选出排在最前的元素，内存占用是O(offset+limit)而不是O(n)，
+     * 结果与完整的稳定排序一致。
+     *
+     * @param offset 开始位置索引。小于0则忽略。
+     * @param limit  数量限制。小于0则忽略。
+     * @param sort   排序选项。为null则不排序。
+     */
+    static <T extends PathMeta> Stream<T> sort(Stream<T> stream, PathMetaSort sort, int offset, int limit) {
+        int skip = Math.max(offset, 0);
+
+        if (null != sort) {
+            long capacity = (long) skip + limit;
+
+            if (limit > 0 && capacity < Integer.MAX_VALUE) {
+                Comparator<T> comparator = comparator(sort);
+                Stream<T> source = stream;
+                stream = StreamSupport
+                    .stream(() -> top(source, comparator, (int) capacity).spliterator(), Spliterator.ORDERED | Spliterator.SIZED, false)
+                    .onClose(source::close);
+            }
+            else {
+                stream = sort(stream, sort);
+            }
+        }
+
+        if (skip > 0) {
+            stream = stream.skip(skip);
+        }
+
+        if (limit > 0) {
+            stream = stream.limit(limit);
+        }
+
+        return stream;
+    }
+
+    /**
+     * 选出按comparator排序后的前k个元素，相等的元素按出现顺序排列。
+     */
+    private static <T> List<T> top(Stream<T> stream, Comparator<? super T> comparator, int k) {
+        Comparator<Pair<T, Long>> order = Comparator.<Pair<T, Long>, T>comparing(Pair::getFirst, comparator).thenComparing(Pair::getSecond);
+        PriorityQueue<Pair<T, Long>> heap = new PriorityQueue<>(order.reversed());
+        AtomicLong sequence = new AtomicLong();
+
+        stream.forEachOrdered(element -> {
+            Pair<T, Long> candidate = new Pair<>(element, sequence.getAndIncrement());
+
+            if (heap.size() < k) {
+                heap.add(candidate);
+            }
+            else if (order.compare(candidate, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        });
+
+        return heap.stream().sorted(order).map(Pair::getFirst).collect(Collectors.toList());
+    }
+
     /**
      * 创建目录。目录已存在则忽略。
      *
@@ -128,6 +204,50 @@ public interface FileSystem {
      */
     InputStream openReadStream(String path) throws InvalidFileException;
 
+    /**
+     * 用可定位的通道读取文件内容，调用方负责通道的关闭。
+     * <p>
+     * 默认实现基于{@link #openReadStream(String)}，定位时需要跳过或重新读取之前的内容，驱动应尽可能提供原生实现。
+     *
+     * @param path 路径
+     * @throws InvalidFileException 无效文件
+     */
+    default SeekableByteChannel openReadChannel(String path) throws InvalidFileException {
+        PathMeta meta = meta(path);
+        if (null == meta || meta.isDirectory()) throw new InvalidFileException(path);
+
+        return new StreamSeekableByteChannel(() -> openReadStream(path), meta.getSize());
+    }
+
+    /**
+     * 用流的方式读取文件的一段内容，调用方负责流的关闭。
+     *
+     * @param path   路径
+     * @param offset 开始位置，单位：byte
+     * @param length 读取长度，单位：byte。小于0则读取到文件末尾。
+     * @throws InvalidFileException 无效文件
+     */
+    default InputStream readRange(String path, long offset, long length) throws InvalidFileException {
+        SeekableByteChannel channel = openReadChannel(path);
+
+        try {
+            channel.position(offset);
+        }
+        catch (IOException e) {
+            try {
+                channel.close();
+            }
+            catch (IOException ex) {
+                e.addSuppressed(ex);
+            }
+
+            throw new InvalidFileException(path, e);
+        }
+
+        InputStream inputStream = Channels.newInputStream(channel);
+        return length < 0 ? inputStream : new RangeInputStream(inputStream, length);
+    }
+
     /**
      * 用流的方式写入文件内容，调用方负责流的关闭。
      * <ul>
@@ -140,6 +260,44 @@ public interface FileSystem {
      */
     OutputStream openWriteStream(String path) throws InvalidFileException;
 
+    /**
+     * 从offset开始覆盖写入data的剩余内容，不改变写入范围之外的内容。
+     * <ul>
+     * <li>当文件不存在时会自动创建。</li>
+     * <li>offset超过文件大小时，中间的空白以0填充。</li>
+     * <li>默认实现读出整个文件修改后重新保存，驱动应当只写入受影响的部分。</li>
+     * </ul>
+     *
+     * @param path   路径
+     * @param offset 写入位置，不能小于0。
+     * @param data   写入的内容，写入后position移动到limit。
+     * @throws InvalidFileException 无效文件
+     */
+    default void writeAt(String path, long offset, ByteBuffer data) throws InvalidFileException {
+        Assert.isTrue(offset >= 0, "offset不能小于0");
+
+        PathMeta meta = meta(path);
+        if (null != meta && meta.isDirectory()) throw new InvalidFileException(path);
+
+        byte[] origin = new byte[0];
+        if (null != meta) {
+            try (InputStream inputStream = openReadStream(path)) {
+                origin = StreamUtils.copyToByteArray(inputStream);
+            }
+            catch (IOException e) {
+                throw new InvalidFileException(path, e);
+            }
+        }
+
+        long length = Math.max(origin.length, offset + data.remaining());
+        if (length > Integer.MAX_VALUE) throw new InvalidFileException(path);
+
+        byte[] bytes = Arrays.copyOf(origin, (int) length);
+        data.get(bytes, (int) offset, data.remaining());
+
+        put(path, new ByteArrayInputStream(bytes));
+    }
+
     /**
      * 以 replaceExisting=false 的方式移动文件或目录。
      *
@@ -216,6 +374,69 @@ public interface FileSystem {
      */
     <M extends PathMeta> M meta(String path);
 
+    /**
+     * 批量获取路径的元信息。
+     *
+     * @param paths 路径集合
+     * @return 以传入的路径为key，不存在的路径不包含在结果中。
+     */
+    default <M extends PathMeta> Map<String, M> metas(Collection<String> paths) {
+        Map<String, M> metas = new HashMap<>();
+
+        paths.forEach(path -> {
+            M meta = meta(path);
+            if (null != meta) {
+                metas.put(path, meta);
+            }
+        });
+
+        return metas;
+    }
+
+    /**
+     * 批量写入文件，如果文件未存在，则创建；否则替换。调用方负责流的关闭。
+     *
+     * @param streams 以要写入的路径为key，输入流为value。
+     * @throws InvalidFileException 无效文件。其它失败的文件以{@link Throwable#getSuppressed()}附带。
+     */
+    default void putAll(Map<String, InputStream> streams) throws InvalidFileException {
+        putEach(this, streams);
+    }
+
+    /**
+     * 逐个调用{@link #put(String, InputStream)}实现的批量写入。
+     *
+     * @see #putAll(Map)
+     */
+    static void putEach(FileSystem fileSystem, Map<String, InputStream> streams) throws InvalidFileException {
+        InvalidFileException exception = null;
+
+        for (Map.Entry<String, InputStream> entry : streams.entrySet()) {
+            try {
+                fileSystem.put(entry.getKey(), entry.getValue());
+            }
+            catch (InvalidFileException e) {
+                if (null == exception) {
+                    exception = e;
+                }
+                else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+
+        if (null != exception) throw exception;
+    }
+
+    /**
+     * 批量删除文件或目录。
+     *
+     * @param paths 路径集合
+     */
+    default void deleteAll(Collection<String> paths) {
+        paths.forEach(this::delete);
+    }
+
     /**
      * 获取目录下子目录，非递归。
      *
@@ -254,6 +475,7 @@ public interface FileSystem {
 
     /**
      * 获取目录下子目录。
+     * 驱动可能边遍历边返回，没有读完的Stream应当由调用方关闭。
      *
      * @param path      目录路径
      * @param search    以contains方式查找目录名。如果为空，返回所有结果。
@@ -303,6 +525,7 @@ public interface FileSystem {
 
     /**
      * 获取目录下文件。
+     * 驱动可能边遍历边返回，没有读完的Stream应当由调用方关闭。
      *
      * @param path      目录路径
      * @param search    以contains方式查找文件名。如果为空，返回所有结果。
@@ -322,4 +545,24 @@ public interface FileSystem {
      * @throws InvalidFileException 无效文件
      */
     void createSymbolicLink(String linkPath, String targetPath) throws InvalidFileException;
+
+    /**
+     * 监听目录之下的路径变更。每个订阅独立监听，取消订阅后释放资源。
+     * 事件只保证最终反映变更，不保证与写操作一一对应，如覆盖文件可能表现为{@link PathEvent.Type#Create}。
+     *
+     * @param path      目录路径
+     * @param recursive 如果true，则同时监听所有子目录，包括之后新建的子目录。
+     * @return 驱动不支持时以{@link UnsupportedOperationException}结束，目录不存在时以{@link PathNotFoundException}结束。
+     * @see #isWatchSupported()
+     */
+    default Flux<PathEvent> watch(String path, boolean recursive) {
+        return Flux.error(new UnsupportedOperationException(getClass().getName() + "不支持监听路径变更"));
+    }
+
+    /**
+     * 是否支持{@link #watch(String, boolean)}，装饰器返回被装饰的驱动的结果。
+     */
+    default boolean isWatchSupported() {
+        return false;
+    }
 }
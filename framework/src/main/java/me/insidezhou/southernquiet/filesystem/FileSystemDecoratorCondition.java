@@ -0,0 +1,24 @@
+package me.insidezhou.southernquiet.filesystem;
+
+import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.NoneNestedConditions;
+
+/**
+ * 没有启用任何{@link FileSystem}装饰器时成立。
+ * 装饰器改变了驱动中保存的内容或需要感知所有写入，直接访问驱动的{@link ReactiveFileSystem}在此时不可用。
+ */
+public class FileSystemDecoratorCondition extends NoneNestedConditions {
+    public FileSystemDecoratorCondition() {
+        super(ConfigurationPhase.REGISTER_BEAN);
+    }
+
+    @ConditionalOnProperty(value = "enable", prefix = FrameworkAutoConfiguration.ConfigRoot_ContentAddressedFileSystem)
+    static class ContentAddressed {}
+
+    @ConditionalOnProperty(value = "enable", prefix = FrameworkAutoConfiguration.ConfigRoot_CachingFileSystem)
+    static class Caching {}
+
+    @ConditionalOnProperty(value = "enable", prefix = FrameworkAutoConfiguration.ConfigRoot_UsageAccountingFileSystem)
+    static class UsageAccounting {}
+}
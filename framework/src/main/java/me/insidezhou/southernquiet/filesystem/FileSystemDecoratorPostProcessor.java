@@ -0,0 +1,34 @@
+package me.insidezhou.southernquiet.filesystem;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.Ordered;
+import org.springframework.lang.NonNull;
+
+import java.util.function.Function;
+
+/**
+ * 用装饰器包装容器中的{@link FileSystem}。order越大越晚包装，处于越外层。
+ */
+public class FileSystemDecoratorPostProcessor implements BeanPostProcessor, Ordered {
+    private final int order;
+    private final Class<? extends FileSystem> decoratorClass;
+    private final Function<FileSystem, ? extends FileSystem> decorator;
+
+    public FileSystemDecoratorPostProcessor(int order, Class<? extends FileSystem> decoratorClass, Function<FileSystem, ? extends FileSystem> decorator) {
+        this.order = order;
+        this.decoratorClass = decoratorClass;
+        this.decorator = decorator;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(@NonNull Object bean, @NonNull String beanName) {
+        if (!(bean instanceof FileSystem) || decoratorClass.isInstance(bean)) return bean;
+
+        return decorator.apply((FileSystem) bean);
+    }
+
+    @Override
+    public int getOrder() {
+        return order;
+    }
+}
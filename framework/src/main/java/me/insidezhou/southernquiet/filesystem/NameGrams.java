@@ -0,0 +1,23 @@
+package me.insidezhou.southernquiet.filesystem;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 路径名称的trigram，驱动以其建立名称的子串搜索索引。
+ */
+public final class NameGrams {
+    public final static int GRAM = 3;
+
+    /**
+     * @return 名称中所有长度为{@link #GRAM}的子串，名称短于{@link #GRAM}时为空。
+     */
+    public static Set<String> of(String name) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= name.length(); ++i) {
+            grams.add(name.substring(i, i + GRAM));
+        }
+
+        return grams;
+    }
+}
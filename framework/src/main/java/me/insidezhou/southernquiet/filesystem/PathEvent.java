@@ -0,0 +1,53 @@
+package me.insidezhou.southernquiet.filesystem;
+
+import java.time.Instant;
+
+/**
+ * {@link FileSystem#watch(String, boolean)}发出的路径变更事件。
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class PathEvent {
+    public enum Type {
+        Create,
+        Modify,
+        Delete,
+        /**
+         * 驱动丢失了部分事件，订阅方需要重新读取所监听的目录。
+         */
+        Overflow
+    }
+
+    private final Type type;
+    private final String path;
+    private final Instant time;
+
+    public PathEvent(Type type, String path) {
+        this(type, path, Instant.now());
+    }
+
+    public PathEvent(Type type, String path, Instant time) {
+        this.type = type;
+        this.path = path;
+        this.time = time;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * 发生变更的路径，{@link Type#Overflow}时是所监听的目录。
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public Instant getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + path;
+    }
+}
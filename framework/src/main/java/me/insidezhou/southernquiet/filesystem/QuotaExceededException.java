@@ -0,0 +1,16 @@
+package me.insidezhou.southernquiet.filesystem;
+
+/**
+ * 写入会使目录超出配额
+ */
+public class QuotaExceededException extends InvalidFileException {
+    private final static long serialVersionUID = 3520957447305861862L;
+
+    public QuotaExceededException(String message) {
+        super(message);
+    }
+
+    public QuotaExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,54 @@
+package me.insidezhou.southernquiet.filesystem;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 最多读取指定长度的输入流，关闭时同时关闭底层输入流。
+ */
+public class RangeInputStream extends FilterInputStream {
+    private long remaining;
+
+    public RangeInputStream(InputStream in, long length) {
+        super(in);
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) return -1;
+
+        int b = super.read();
+        if (b >= 0) --remaining;
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) return -1;
+
+        int read = super.read(b, off, (int) Math.min(len, remaining));
+        if (read > 0) remaining -= read;
+
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(super.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
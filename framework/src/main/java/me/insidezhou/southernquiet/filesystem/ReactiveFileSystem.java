@@ -0,0 +1,63 @@
+package me.insidezhou.southernquiet.filesystem;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link FileSystem}的非阻塞版本，读写文件内容时不占用线程，并发下载数量只受连接数限制。
+ * 路径语义与{@link FileSystem}一致，两者可以操作同一份数据。
+ */
+public interface ReactiveFileSystem {
+    /**
+     * 默认的读取缓冲区大小。
+     */
+    int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 保存文件，路径已存在时覆盖。
+     *
+     * @param path 文件路径
+     * @param data 文件内容，订阅完成后由文件系统释放。
+     */
+    Mono<Void> put(String path, Publisher<DataBuffer> data);
+
+    /**
+     * 读取文件的全部内容。
+     *
+     * @return 路径不存在或为目录时以{@link InvalidFileException}结束。
+     */
+    default Flux<DataBuffer> read(String path, DataBufferFactory bufferFactory) {
+        return readRange(path, 0, -1, bufferFactory, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 读取文件从offset开始的length个字节。
+     *
+     * @param length     小于0时读取到文件结尾。
+     * @param bufferSize 每个{@link DataBuffer}的最大长度，驱动以存储单元分块时可以忽略。
+     * @return 路径不存在或为目录时以{@link InvalidFileException}结束。
+     */
+    Flux<DataBuffer> readRange(String path, long offset, long length, DataBufferFactory bufferFactory, int bufferSize);
+
+    /**
+     * 路径是否存在。
+     */
+    default Mono<Boolean> exists(String path) {
+        return meta(path).hasElement();
+    }
+
+    /**
+     * 获取路径的元信息。
+     *
+     * @return 路径不存在时为空。
+     */
+    <M extends PathMeta> Mono<M> meta(String path);
+
+    /**
+     * 删除路径，路径为目录时一并删除其下所有内容。
+     */
+    Mono<Void> delete(String path);
+}
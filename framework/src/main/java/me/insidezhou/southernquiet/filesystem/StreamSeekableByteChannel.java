@@ -0,0 +1,136 @@
+package me.insidezhou.southernquiet.filesystem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.Callable;
+
+/**
+ * 基于输入流的只读{@link SeekableByteChannel}，用作没有原生定位读取能力的驱动的默认实现。
+ * <ul>
+ * <li>向后定位时跳过中间的字节。</li>
+ * <li>向前定位时重新打开输入流。</li>
+ * </ul>
+ */
+public class StreamSeekableByteChannel implements SeekableByteChannel {
+    private final Callable<InputStream> streamOpener;
+    private final long size;
+
+    private InputStream stream;
+    private long streamPosition;
+    private long position;
+    private boolean open = true;
+
+    /**
+     * @param streamOpener 每次调用都返回从头开始的新输入流
+     * @param size         内容总长度，单位：byte
+     */
+    public StreamSeekableByteChannel(Callable<InputStream> streamOpener, long size) {
+        this.streamOpener = streamOpener;
+        this.size = size;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+
+        if (position >= size) return -1;
+
+        seekStream();
+
+        int length = (int) Math.min(dst.remaining(), size - position);
+        byte[] buffer = new byte[length];
+        int read = stream.read(buffer, 0, length);
+        if (read < 0) return -1;
+
+        dst.put(buffer, 0, read);
+        position += read;
+        streamPosition += read;
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("newPosition");
+
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+
+        if (null != stream) {
+            stream.close();
+            stream = null;
+        }
+    }
+
+    private void seekStream() throws IOException {
+        if (null != stream && streamPosition > position) {
+            stream.close();
+            stream = null;
+        }
+
+        if (null == stream) {
+            try {
+                stream = streamOpener.call();
+            }
+            catch (IOException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw new IOException(e);
+            }
+
+            streamPosition = 0;
+        }
+
+        while (streamPosition < position) {
+            long skipped = stream.skip(position - streamPosition);
+            if (skipped <= 0) {
+                if (stream.read() < 0) throw new EOFException();
+                skipped = 1;
+            }
+
+            streamPosition += skipped;
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) throw new ClosedChannelException();
+    }
+}
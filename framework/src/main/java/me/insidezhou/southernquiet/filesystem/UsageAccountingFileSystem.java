@@ -0,0 +1,576 @@
+package me.insidezhou.southernquiet.filesystem;
+
+import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
+import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
+import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 统计每个目录（含所有子目录）中文件的字节数和数量的{@link FileSystem}装饰器，可以为目录设置字节数配额。
+ * <p>
+ * 启动时在后台遍历一次整个文件系统，之后每次写入、复制、移动、删除只更新受影响路径的所有上级目录，查询目录用量不需要遍历。
+ * 启动时的统计完成之前，查询用量、检查配额以及目录的复制、移动、删除会等待统计完成；没有配额时文件的写入不等待，统计期间写入的文件可能少量重复或遗漏统计。
+ * 目录的复制、移动会重新统计目标目录。
+ * 配额在写入时按剩余空间限制输入流的字节数，超出时中止写入；并发写入同一目录时各自按写入开始时的剩余空间检查，可能少量超出配额。
+ * 其它途径（其它进程、不经过本装饰器的写入）的修改不会被统计，可以调用{@link #rebuild()}重新统计。
+ */
+public class UsageAccountingFileSystem extends DelegatingFileSystem {
+    private final static SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(UsageAccountingFileSystem.class);
+
+    private final static int LOCK_STRIPES = 256;
+
+    /**
+     * 目录路径到其中所有文件用量的映射，用量为零的目录不保存。
+     */
+    private final ConcurrentSkipListMap<String, Usage> directories = new ConcurrentSkipListMap<>();
+    private final Map<String, Long> quotas = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final CountDownLatch initialized = new CountDownLatch(1);
+
+    public UsageAccountingFileSystem(FileSystem delegate, FrameworkAutoConfiguration.UsageAccountingFileSystemProperties properties) {
+        super(delegate);
+
+        for (int i = 0; i < LOCK_STRIPES; ++i) {
+            locks[i] = new Object();
+        }
+
+        properties.getQuotas().forEach((path, quota) -> setQuota(path, quota.toBytes()));
+
+        Thread thread = new Thread(this::initialize, "UsageAccountingFileSystem-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 遍历整个文件系统，重新统计所有目录的用量。
+     */
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+
+        Map<String, Usage> usages = scan(NormalizedPath.ROOT);
+        directories.clear();
+        directories.putAll(usages);
+
+        Usage root = usages.getOrDefault(PATH_SEPARATOR_STRING, Usage.ZERO);
+        log.message("文件用量统计完成")
+            .context("bytes", root.getBytes())
+            .context("files", root.getFiles())
+            .context("directories", usages.size())
+            .context("elapsed", System.currentTimeMillis() - start)
+            .info();
+    }
+
+    private void initialize() {
+        try {
+            rebuild();
+        }
+        catch (RuntimeException e) {
+            log.message("文件用量统计失败").exception(e).warn();
+        }
+        finally {
+            initialized.countDown();
+        }
+    }
+
+    /**
+     * 等待启动时的统计完成。
+     */
+    private void awaitInitialized() {
+        if (0 == initialized.getCount()) return;
+
+        try {
+            initialized.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return 目录中所有文件的用量，或文件本身的大小，路径不存在时返回零。
+     */
+    public Usage getUsage(String path) {
+        return usageOf(new NormalizedPath(path));
+    }
+
+    /**
+     * @param bytes 小于等于0时取消配额。
+     */
+    public void setQuota(String path, long bytes) {
+        String key = new NormalizedPath(path).toString();
+
+        if (bytes <= 0) {
+            quotas.remove(key);
+        }
+        else {
+            quotas.put(key, bytes);
+        }
+    }
+
+    /**
+     * @return 没有配额时返回null。
+     */
+    public Long getQuota(String path) {
+        return quotas.get(new NormalizedPath(path).toString());
+    }
+
+    @Override
+    public void put(String path, InputStream stream) throws InvalidFileException {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+
+        synchronized (lock(normalizedPath)) {
+            PathMeta before = delegate.meta(path);
+            long allowance = allowance(normalizedPath, size(before), null);
+
+            try {
+                delegate.put(path, Long.MAX_VALUE == allowance ? stream : new QuotaInputStream(stream, allowance, path));
+            }
+            catch (InvalidFileException e) {
+                throw quotaExceeded(path, e);
+            }
+            catch (RuntimeException e) {
+                throw quotaExceeded(path, e);
+            }
+            finally {
+                account(normalizedPath, before, delegate.meta(path));
+            }
+        }
+    }
+
+    @Override
+    public void put(String path, CharSequence txt) throws InvalidFileException {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+
+        synchronized (lock(normalizedPath)) {
+            PathMeta before = delegate.meta(path);
+            long length = txt.toString().getBytes(StandardCharsets.UTF_8).length;
+            if (length > allowance(normalizedPath, size(before), null)) throw new QuotaExceededException(path);
+
+            try {
+                delegate.put(path, txt);
+            }
+            finally {
+                account(normalizedPath, before, delegate.meta(path));
+            }
+        }
+    }
+
+    /**
+     * 写入范围超出文件末尾时，超出的部分计入用量。
+     */
+    @Override
+    public void writeAt(String path, long offset, ByteBuffer data) throws InvalidFileException {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+
+        synchronized (lock(normalizedPath)) {
+            PathMeta before = delegate.meta(path);
+            long length = Math.max(size(before), offset + data.remaining());
+            if (length > allowance(normalizedPath, size(before), null)) throw new QuotaExceededException(path);
+
+            try {
+                delegate.writeAt(path, offset, data);
+            }
+            finally {
+                account(normalizedPath, before, delegate.meta(path));
+            }
+        }
+    }
+
+    /**
+     * 追加写入，关闭时按写入的字节数更新用量。
+     */
+    @Override
+    public OutputStream openWriteStream(String path) throws InvalidFileException {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+
+        PathMeta before = delegate.meta(path);
+        long allowance = allowance(normalizedPath, 0, null);
+        AtomicLong written = new AtomicLong();
+
+        return new FilterOutputStream(delegate.openWriteStream(path)) {
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (written.get() + len > allowance) throw new QuotaIOException(path);
+
+                out.write(b, off, len);
+                written.addAndGet(len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+
+                try {
+                    super.close();
+                }
+                finally {
+                    synchronized (lock(normalizedPath)) {
+                        long files = null == before && null != delegate.meta(path) ? 1 : 0;
+                        addToAncestors(normalizedPath, written.get(), files);
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public void move(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        NormalizedPath src = new NormalizedPath(source);
+        NormalizedPath dest = new NormalizedPath(destination);
+
+        Usage srcBefore = usageOf(src);
+        Usage destBefore = usageOf(dest);
+        checkQuota(dest, srcBefore.getBytes(), src);
+
+        try {
+            delegate.move(source, destination, replaceExisting);
+        }
+        finally {
+            refresh(src, srcBefore);
+            refresh(dest, destBefore);
+        }
+    }
+
+    @Override
+    public void copy(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        NormalizedPath dest = new NormalizedPath(destination);
+
+        Usage destBefore = usageOf(dest);
+        checkQuota(dest, usageOf(new NormalizedPath(source)).getBytes(), null);
+
+        try {
+            delegate.copy(source, destination, replaceExisting);
+        }
+        finally {
+            refresh(dest, destBefore);
+        }
+    }
+
+    @Override
+    public void delete(String path) {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+        Usage before = usageOf(normalizedPath);
+
+        try {
+            delegate.delete(path);
+        }
+        finally {
+            refresh(normalizedPath, before);
+        }
+    }
+
+    /**
+     * 用批量查询取得写入前后的元信息，每个文件各自按写入开始时的剩余空间检查配额。
+     */
+    @Override
+    public void putAll(Map<String, InputStream> streams) throws InvalidFileException {
+        Map<String, PathMeta> befores = delegate.metas(streams.keySet());
+
+        Map<String, InputStream> limited = new HashMap<>();
+        streams.forEach((path, stream) -> {
+            long allowance = allowance(new NormalizedPath(path), size(befores.get(path)), null);
+            limited.put(path, Long.MAX_VALUE == allowance ? stream : new QuotaInputStream(stream, allowance, path));
+        });
+
+        try {
+            delegate.putAll(limited);
+        }
+        catch (InvalidFileException e) {
+            throw quotaExceeded(String.join(",", streams.keySet()), e);
+        }
+        catch (RuntimeException e) {
+            throw quotaExceeded(String.join(",", streams.keySet()), e);
+        }
+        finally {
+            Map<String, PathMeta> afters = delegate.metas(streams.keySet());
+            streams.keySet().forEach(path -> account(new NormalizedPath(path), befores.get(path), afters.get(path)));
+        }
+    }
+
+    /**
+     * 上级目录同时被删除的路径只统计一次。
+     */
+    @Override
+    public void deleteAll(Collection<String> paths) {
+        Set<NormalizedPath> normalizedPaths = paths.stream().map(NormalizedPath::new).collect(Collectors.toSet());
+        Map<NormalizedPath, Usage> befores = normalizedPaths.stream()
+            .filter(path -> {
+                NormalizedPath ancestor = path;
+                while (!NormalizedPath.ROOT.equals(ancestor)) {
+                    ancestor = ancestor.getParentPath();
+                    if (normalizedPaths.contains(ancestor)) return false;
+                }
+
+                return true;
+            })
+            .collect(Collectors.toMap(path -> path, this::usageOf));
+
+        try {
+            delegate.deleteAll(paths);
+        }
+        finally {
+            befores.forEach(this::refresh);
+        }
+    }
+
+    @Override
+    public void createSymbolicLink(String linkPath, String targetPath) throws InvalidFileException {
+        NormalizedPath link = new NormalizedPath(linkPath);
+        Usage before = usageOf(link);
+
+        try {
+            delegate.createSymbolicLink(linkPath, targetPath);
+        }
+        finally {
+            refresh(link, before);
+        }
+    }
+
+    private Object lock(NormalizedPath path) {
+        return locks[Math.floorMod(path.toString().hashCode(), LOCK_STRIPES)];
+    }
+
+    private Usage usageOf(NormalizedPath path) {
+        PathMeta meta = delegate.meta(path.toString());
+        if (null == meta) return Usage.ZERO;
+
+        if (meta.isDirectory()) {
+            awaitInitialized();
+            return directories.getOrDefault(path.toString(), Usage.ZERO);
+        }
+
+        return new Usage(size(meta), 1);
+    }
+
+    private long size(PathMeta meta) {
+        return null == meta || meta.isDirectory() ? 0 : Math.max(0, meta.getSize());
+    }
+
+    private void account(NormalizedPath path, PathMeta before, PathMeta after) {
+        long files = (null == after || after.isDirectory() ? 0 : 1) - (null == before || before.isDirectory() ? 0 : 1);
+        addToAncestors(path, size(after) - size(before), files);
+    }
+
+    private void addToAncestors(NormalizedPath path, long bytes, long files) {
+        if (0 == bytes && 0 == files) return;
+
+        NormalizedPath ancestor = path;
+        while (!NormalizedPath.ROOT.equals(ancestor)) {
+            ancestor = ancestor.getParentPath();
+            directories.compute(ancestor.toString(), (key, usage) -> (null == usage ? Usage.ZERO : usage).add(bytes, files).orNull());
+        }
+    }
+
+    /**
+     * 路径变成文件、目录或被删除后，重新计算其用量，并把差值加到所有上级目录。
+     */
+    private void refresh(NormalizedPath path, Usage before) {
+        PathMeta meta = delegate.meta(path.toString());
+
+        Usage after;
+        if (null == meta) {
+            removeTree(path);
+            after = Usage.ZERO;
+        }
+        else if (meta.isDirectory()) {
+            Map<String, Usage> usages = scan(path);
+            removeTree(path);
+            directories.putAll(usages);
+            after = usages.getOrDefault(path.toString(), Usage.ZERO);
+        }
+        else {
+            removeTree(path);
+            after = new Usage(size(meta), 1);
+        }
+
+        addToAncestors(path, after.getBytes() - before.getBytes(), after.getFiles() - before.getFiles());
+    }
+
+    private void removeTree(NormalizedPath path) {
+        if (NormalizedPath.ROOT.equals(path)) {
+            directories.clear();
+            return;
+        }
+
+        String key = path.toString();
+        directories.remove(key);
+        directories.subMap(key + PATH_SEPARATOR_STRING, key + PATH_SEPARATOR_STRING + Character.MAX_VALUE).clear();
+    }
+
+    /**
+     * 统计目录及其所有子目录的用量。
+     */
+    private Map<String, Usage> scan(NormalizedPath directory) {
+        Map<String, Usage> usages = new HashMap<>();
+
+        try {
+            delegate.files(directory.toString(), null, true, 0, 0, null).forEach(meta -> {
+                long size = size(meta);
+
+                NormalizedPath ancestor = new NormalizedPath(meta.getPath());
+                do {
+                    ancestor = ancestor.getParentPath();
+                    usages.merge(ancestor.toString(), new Usage(size, 1), (a, b) -> a.add(b.getBytes(), b.getFiles()));
+                }
+                while (!directory.equals(ancestor) && !NormalizedPath.ROOT.equals(ancestor));
+            });
+        }
+        catch (PathNotFoundException e) {
+            return usages;
+        }
+
+        return usages;
+    }
+
+    /**
+     * @param released 写入完成后会被替换掉的字节数。
+     * @param exempt   移动的源路径，源路径与目标路径位于同一个配额目录中时，该目录的用量不变。
+     * @return 路径及其所有上级目录的配额中剩余最少的字节数，没有配额时返回{@link Long#MAX_VALUE}。
+     */
+    private long allowance(NormalizedPath path, long released, NormalizedPath exempt) {
+        if (quotas.isEmpty()) return Long.MAX_VALUE;
+
+        awaitInitialized();
+
+        long allowance = Long.MAX_VALUE;
+
+        NormalizedPath ancestor = path;
+        while (true) {
+            String key = ancestor.toString();
+            Long quota = quotas.get(key);
+
+            if (null != quota && !isUnder(exempt, key)) {
+                allowance = Math.min(allowance, quota - directories.getOrDefault(key, Usage.ZERO).getBytes() + released);
+            }
+
+            if (NormalizedPath.ROOT.equals(ancestor)) break;
+            ancestor = ancestor.getParentPath();
+        }
+
+        return allowance;
+    }
+
+    private boolean isUnder(NormalizedPath path, String directory) {
+        if (null == path) return false;
+
+        String p = path.toString();
+        return PATH_SEPARATOR_STRING.equals(directory) || p.equals(directory) || p.startsWith(directory + PATH_SEPARATOR_STRING);
+    }
+
+    private void checkQuota(NormalizedPath path, long bytes, NormalizedPath exempt) throws QuotaExceededException {
+        if (bytes > allowance(path, 0, exempt)) throw new QuotaExceededException(path.toString());
+    }
+
+    /**
+     * 输入流因超出配额而中止时转换为{@link QuotaExceededException}。
+     */
+    private <E extends Exception> E quotaExceeded(String path, E e) {
+        for (Throwable cause = e; null != cause; cause = cause.getCause()) {
+            if (cause instanceof QuotaIOException) {
+                @SuppressWarnings("unchecked")
+                E exception = (E) new QuotaExceededException(path, e);
+                return exception;
+            }
+        }
+
+        return e;
+    }
+
+    /**
+     * 不可变的用量。
+     */
+    public static class Usage {
+        public final static Usage ZERO = new Usage(0, 0);
+
+        private final long bytes;
+        private final long files;
+
+        public Usage(long bytes, long files) {
+            this.bytes = bytes;
+            this.files = files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        private Usage add(long bytes, long files) {
+            return new Usage(this.bytes + bytes, this.files + files);
+        }
+
+        private Usage orNull() {
+            return 0 == bytes && 0 == files ? null : this;
+        }
+
+        @Override
+        public String toString() {
+            return "Usage{bytes=" + bytes + ", files=" + files + "}";
+        }
+    }
+
+    private static class QuotaIOException extends IOException {
+        private final static long serialVersionUID = -2270993372390826052L;
+
+        private QuotaIOException(String path) {
+            super("超出配额：" + path);
+        }
+    }
+
+    private static class QuotaInputStream extends FilterInputStream {
+        private final long allowance;
+        private final String path;
+        private long count;
+
+        private QuotaInputStream(InputStream in, long allowance, String path) {
+            super(in);
+            this.allowance = allowance;
+            this.path = path;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (-1 != b) count(1);
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count(n);
+
+            return n;
+        }
+
+        private void count(long n) throws QuotaIOException {
+            count += n;
+            if (count > allowance) throw new QuotaIOException(path);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
+import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
+import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按{@link FrameworkAutoConfiguration.LocalFileSystemProperties.Durability.Mode}把写完的文件同步到磁盘。
+ * <p>
+ * 文件数据由调用方在各自的线程中并行同步；group-commit模式下由一个后台线程收集一批请求，只做rename，最后每个目录只同步一次。
+ * 在ext4等日志文件系统上，一次目录同步会提交这一批文件的全部元数据，并发写入越多，平均每次写入的同步开销越小。
+ */
+public class FileCommitter {
+    private final static SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(FileCommitter.class);
+
+    private final FrameworkAutoConfiguration.LocalFileSystemProperties.Durability.Mode mode;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    private volatile boolean closed;
+    private volatile boolean directorySyncSupported = true;
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong directorySyncCount = new AtomicLong();
+
+    public FileCommitter(FrameworkAutoConfiguration.LocalFileSystemProperties.Durability durability) {
+        this.mode = durability.getMode();
+        this.windowNanos = durability.getGroupCommitWindow().toNanos();
+        this.maxBatchSize = Math.max(1, durability.getMaxBatchSize());
+
+        if (FrameworkAutoConfiguration.LocalFileSystemProperties.Durability.Mode.GROUP_COMMIT == mode) {
+            thread = new Thread(this::run, "LocalFileSystem-group-commit");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        else {
+            thread = null;
+        }
+    }
+
+    public boolean isDurable() {
+        return FrameworkAutoConfiguration.LocalFileSystemProperties.Durability.Mode.NONE != mode;
+    }
+
+    /**
+     * 等待队列中的请求处理完成后停止后台线程。
+     */
+    public void close() {
+        closed = true;
+
+        if (null != thread) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 以rename用写完的临时文件替换目标文件，返回时已按配置同步到磁盘。
+     *
+     * @param channel 写入临时文件的channel，会被关闭。为null时在需要同步时打开临时文件。
+     */
+    public void commit(FileChannel channel, Path temp, Path target) throws IOException {
+        if (!isDurable()) {
+            if (null != channel) channel.close();
+            rename(temp, target);
+            return;
+        }
+
+        try (FileChannel fileChannel = null == channel ? FileChannel.open(temp, StandardOpenOption.WRITE) : channel) {
+            force(fileChannel);
+        }
+
+        Request request = new Request(temp, target, target.getParent());
+
+        submit(request);
+        await(request);
+    }
+
+    /**
+     * 同步追加写入的文件及其所在目录，channel保持打开。
+     */
+    public void sync(FileChannel channel, Path directory) throws IOException {
+        if (!isDurable()) return;
+
+        force(channel);
+
+        Request request = new Request(null, null, directory);
+
+        submit(request);
+        await(request);
+    }
+
+    /**
+     * 已经处理的批次数，per-write模式下每次写入是一批。
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * 实际执行的目录同步次数。
+     */
+    public long getDirectorySyncCount() {
+        return directorySyncCount.get();
+    }
+
+    /**
+     * 后台线程已经停止或正在停止时，调用方自己处理仍在队列中的请求。
+     */
+    private void submit(Request request) {
+        if (null == thread) {
+            process(Collections.singletonList(request));
+            return;
+        }
+
+        queue.add(request);
+
+        if (closed && queue.remove(request)) {
+            process(Collections.singletonList(request));
+        }
+    }
+
+    private void await(Request request) throws IOException {
+        try {
+            request.future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * 不中断后台线程，{@link FileChannel#force(boolean)}被中断会关闭channel。
+     * 仍然被中断时，已经取出的请求放回队列，由下一批处理。
+     */
+    private void run() {
+        List<Request> batch = new ArrayList<>();
+
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (null == first) continue;
+
+                batch.add(first);
+
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Request request = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (null == request) break;
+
+                    batch.add(request);
+                }
+                queue.drainTo(batch, maxBatchSize - batch.size());
+
+                process(batch);
+            }
+            catch (InterruptedException e) {
+                queue.addAll(batch);
+                log.message("group-commit线程被中断").exception(e).warn();
+            }
+            catch (RuntimeException e) {
+                batch.forEach(request -> request.future.completeExceptionally(e));
+                log.message("group-commit失败").exception(e).warn();
+            }
+            finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void process(List<Request> batch) {
+        batchCount.incrementAndGet();
+
+        Map<Path, IOException> directories = new LinkedHashMap<>();
+
+        for (Request request : batch) {
+            try {
+                if (null != request.temp) {
+                    rename(request.temp, request.target);
+                }
+
+                directories.put(request.directory, null);
+            }
+            catch (IOException e) {
+                request.future.completeExceptionally(e);
+            }
+        }
+
+        for (Path directory : directories.keySet()) {
+            try {
+                syncDirectory(directory);
+            }
+            catch (IOException e) {
+                directories.put(directory, e);
+            }
+        }
+
+        for (Request request : batch) {
+            if (request.future.isDone()) continue;
+
+            IOException exception = directories.get(request.directory);
+            if (null == exception) {
+                request.future.complete(null);
+            }
+            else {
+                request.future.completeExceptionally(exception);
+            }
+        }
+    }
+
+    /**
+     * 只同步文件数据和取回数据所需的元数据（如文件大小），其余元数据随目录同步一起提交。
+     */
+    private void force(FileChannel channel) throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * 不支持打开目录的平台（如Windows）上跳过目录同步。
+     */
+    private void syncDirectory(Path directory) throws IOException {
+        if (!directorySyncSupported || null == directory) return;
+
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+            directorySyncCount.incrementAndGet();
+        }
+        catch (AccessDeniedException | UnsupportedOperationException e) {
+            directorySyncSupported = false;
+
+            log.message("当前平台不支持同步目录，新建、rename的文件在断电后可能丢失")
+                .context("directory", directory.toString())
+                .exception(e)
+                .warn();
+        }
+    }
+
+    static void rename(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static class Request {
+        private final Path temp;
+        private final Path target;
+        private final Path directory;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Request(Path temp, Path target, Path directory) {
+            this.temp = temp;
+            this.target = target;
+            this.directory = directory;
+        }
+    }
+}
@@ -4,30 +4,57 @@ import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
 import me.insidezhou.southernquiet.filesystem.FileSystem;
 import me.insidezhou.southernquiet.filesystem.FileSystemException;
 import me.insidezhou.southernquiet.filesystem.*;
+import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
+import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
+import me.insidezhou.southernquiet.util.Pair;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.util.StreamUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.util.SystemPropertyUtils;
-
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import reactor.core.publisher.Flux;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
 import java.time.Instant;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * 基于操作系统本地文件系统的驱动.
  */
-public class LocalFileSystem implements FileSystem {
+public class LocalFileSystem implements FileSystem, DisposableBean {
+    private final static SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(LocalFileSystem.class);
+
+    /**
+     * 写入过程中的临时文件后缀，临时文件与目标文件位于同一目录，写完后以原子rename替换目标文件。
+     */
+    private final static String TEMP_FILE_SUFFIX = ".sq_tmp";
+
     private String workingRoot;
+    private Path workingRootPath;
+    private ForkJoinPool pool;
+    private ParallelPathWalker walker;
+    private TreeCopier copier;
+    private PathMetaCache metaCache;
+    private PathNameIndex nameIndex;
+    private FileCommitter committer;
 
     public LocalFileSystem(FrameworkAutoConfiguration.LocalFileSystemProperties properties) {
         String workingRoot = SystemPropertyUtils.resolvePlaceholders(properties.getWorkingRoot());
@@ -40,46 +67,129 @@ public class LocalFileSystem implements FileSystem {
         }
 
         this.workingRoot = workingRoot;
+        this.workingRootPath = workingPath;
+        this.pool = new ForkJoinPool(properties.getParallelism());
+        this.walker = new ParallelPathWalker(pool);
+        this.copier = new TreeCopier(pool, walker, this);
+        this.committer = new FileCommitter(properties.getDurability());
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties.MetaCache metaCacheProperties = properties.getMetaCache();
+        if (metaCacheProperties.isEnable()) {
+            this.metaCache = new PathMetaCache(workingPath, metaCacheProperties.getMaxSize(), this::getWorkingPath, this::getNormalizedPath);
+        }
+
+        if (properties.getNameIndex().isEnable()) {
+            this.nameIndex = new PathNameIndex();
+
+            Thread thread = new Thread(this::rebuildNameIndex, "LocalFileSystem-name-index");
+            thread.setDaemon(true);
+            thread.start();
+        }
     }
 
-    @Override
-    public void createDirectory(String path) {
+    /**
+     * @return 解析了占位符的工作目录。
+     */
+    public String getWorkingRoot() {
+        return workingRoot;
+    }
+
+    /**
+     * @return 未启用索引时返回null。
+     */
+    public PathNameIndex getNameIndex() {
+        return nameIndex;
+    }
+
+    /**
+     * 遍历整个工作目录重新构建名称索引，构建期间搜索退化为遍历目录。
+     */
+    public void rebuildNameIndex() {
+        if (null == nameIndex) return;
+
+        long start = System.currentTimeMillis();
+        nameIndex.setReady(false);
+        nameIndex.clear();
+
         try {
-            Files.createDirectories(getWorkingPath(path));
+            walker.walk(workingRootPath, true, (p, attributes) -> {
+                if (!isTempFile(p)) {
+                    nameIndex.add(getNormalizedPath(p));
+                }
+
+                return null;
+            });
         }
         catch (IOException e) {
             throw new RuntimeException(e);
         }
+
+        nameIndex.setReady(true);
+
+        log.message("路径名称索引构建完成")
+            .context("paths", nameIndex.size())
+            .context("elapsed", System.currentTimeMillis() - start)
+            .info();
+    }
+
+    /**
+     * @return 未启用缓存时返回null。
+     */
+    public PathMetaCache getMetaCache() {
+        return metaCache;
     }
 
     @Override
-    public void put(String path, InputStream stream) throws InvalidFileException {
+    public void destroy() {
+        pool.shutdown();
+        committer.close();
+
+        if (null != metaCache) {
+            metaCache.close();
+        }
+    }
+
+    @Override
+    public void createDirectory(String path) {
         Path workingPath = getWorkingPath(path);
 
         try {
-            createDirectories(workingPath.getParent());
-            Files.write(workingPath, StreamUtils.copyToByteArray(stream));
+            Files.createDirectories(workingPath);
         }
         catch (IOException e) {
-            throw new InvalidFileException(path, e);
+            throw new RuntimeException(e);
+        }
+        finally {
+            invalidateMeta(workingPath, false);
         }
     }
 
     @Override
-    public void put(String path, CharSequence txt) throws InvalidFileException {
+    public void put(String path, InputStream stream) throws InvalidFileException {
         Path workingPath = getWorkingPath(path);
 
         try {
-            createDirectories(workingPath.getParent());
-            Files.write(workingPath, txt.toString().getBytes(StandardCharsets.UTF_8));
+            Path target = prepareWrite(workingPath);
+            writeAtomically(target, stream);
+            invalidateMeta(target, false);
         }
         catch (IOException e) {
             throw new InvalidFileException(path, e);
         }
+        finally {
+            invalidateMeta(workingPath, false);
+        }
+    }
+
+    @Override
+    public void put(String path, CharSequence txt) throws InvalidFileException {
+        put(path, new ByteArrayInputStream(txt.toString().getBytes(StandardCharsets.UTF_8)));
     }
 
     @Override
     public boolean exists(String path) {
+        if (null != metaCache) return null != meta(path);
+
         Path workingPath = getWorkingPath(path);
         return Files.exists(workingPath);
     }
@@ -96,33 +206,160 @@ public class LocalFileSystem implements FileSystem {
         }
     }
 
+    @Override
+    public SeekableByteChannel openReadChannel(String path) throws InvalidFileException {
+        Path workingPath = getWorkingPath(path);
+
+        try {
+            return FileChannel.open(workingPath, StandardOpenOption.READ);
+        }
+        catch (IOException e) {
+            throw new InvalidFileException(path, e);
+        }
+    }
+
+    /**
+     * 启用了持久化时，关闭输出流会等待数据同步到磁盘。
+     */
     @Override
     public OutputStream openWriteStream(String path) throws InvalidFileException {
         Path workingPath = getWorkingPath(path);
 
+        FileChannel channel;
         try {
             createDirectories(workingPath.getParent());
-            return Files.newOutputStream(workingPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            channel = FileChannel.open(workingPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        catch (IOException e) {
+            throw new InvalidFileException(path, e);
+        }
+
+        OutputStream outputStream = Channels.newOutputStream(channel);
+        if (null == metaCache && null == nameIndex && !committer.isDurable()) return outputStream;
+
+        invalidateMeta(workingPath, false);
+
+        Path target;
+        try {
+            target = resolveSymbolicLink(workingPath);
+        }
+        catch (IOException e) {
+            target = workingPath;
+        }
+
+        Path writtenPath = target;
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                super.flush();
+
+                invalidateMeta(workingPath, false);
+                invalidateMeta(writtenPath, false);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    flush();
+                    committer.sync(channel, writtenPath.getParent());
+                }
+                finally {
+                    out.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * 以{@link FileChannel#write(ByteBuffer, long)}原地写入，不经过临时文件，并发读取可能看到写了一半的内容。
+     */
+    @Override
+    public void writeAt(String path, long offset, ByteBuffer data) throws InvalidFileException {
+        if (offset < 0) throw new IllegalArgumentException("offset不能小于0");
+
+        Path workingPath = getWorkingPath(path);
+        Path target = workingPath;
+
+        try {
+            target = prepareWrite(workingPath);
+
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                long position = offset;
+                while (data.hasRemaining()) {
+                    position += channel.write(data, position);
+                }
+
+                committer.sync(channel, target.getParent());
+            }
         }
         catch (IOException e) {
             throw new InvalidFileException(path, e);
         }
+        finally {
+            invalidateMeta(workingPath, false);
+            if (!target.equals(workingPath)) {
+                invalidateMeta(target, false);
+            }
+        }
     }
 
     @Override
     public void move(String source, String destination, boolean replaceExisting) throws FileSystemException {
-        moveOrCopy(true, source, destination, replaceExisting);
+        move(source, destination, replaceExisting, null);
+    }
+
+    /**
+     * 源路径是目录时，把其中的内容合并到目标目录之下，同一卷上尽量直接rename，否则并行复制后删除源文件。
+     *
+     * @param listener 进度回调，可能被并发调用，可以为null。
+     */
+    public void move(String source, String destination, boolean replaceExisting, Consumer<TreeCopyProgress> listener) throws FileSystemException {
+        try {
+            moveOrCopy(true, source, destination, replaceExisting, listener);
+        }
+        finally {
+            invalidateMeta(getWorkingPath(source), true);
+            invalidateMeta(getWorkingPath(destination), true);
+        }
     }
 
     @Override
     public void copy(String source, String destination, boolean replaceExisting) throws FileSystemException {
-        moveOrCopy(false, source, destination, replaceExisting);
+        copy(source, destination, replaceExisting, null);
+    }
+
+    /**
+     * 源路径是目录时，先创建全部目标目录，再在{@link #pool}中并行复制文件。
+     *
+     * @param listener 进度回调，可能被并发调用，可以为null。
+     */
+    public void copy(String source, String destination, boolean replaceExisting, Consumer<TreeCopyProgress> listener) throws FileSystemException {
+        try {
+            moveOrCopy(false, source, destination, replaceExisting, listener);
+        }
+        finally {
+            invalidateMeta(getWorkingPath(destination), true);
+        }
     }
 
     @Override
     public void delete(String path) {
         Path workingPath = getWorkingPath(path);
 
+        try {
+            deleteWorkingPath(workingPath);
+        }
+        finally {
+            invalidateMeta(workingPath, true);
+        }
+    }
+
+    private void deleteWorkingPath(Path workingPath) {
         if (Files.notExists(workingPath)) return;
 
         if (!Files.isDirectory(workingPath)) {
@@ -166,6 +403,9 @@ public class LocalFileSystem implements FileSystem {
         catch (IOException e) {
             throw new RuntimeException(e);
         }
+        finally {
+            invalidateMeta(workingPath, false);
+        }
     }
 
     @Override
@@ -177,6 +417,9 @@ public class LocalFileSystem implements FileSystem {
         catch (IOException e) {
             throw new RuntimeException(e);
         }
+        finally {
+            invalidateMeta(workingPath, false);
+        }
     }
 
     @Override
@@ -189,182 +432,406 @@ public class LocalFileSystem implements FileSystem {
         catch (IOException e) {
             throw new RuntimeException(e);
         }
+        finally {
+            invalidateMeta(workingPath, false);
+        }
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public <M extends PathMeta> M meta(String path) {
         NormalizedPath normalizedPath = new NormalizedPath(path);
-        return (M) meta(normalizedPath, getWorkingPath(normalizedPath));
+
+        if (null == metaCache) return (M) meta(normalizedPath, getWorkingPath(normalizedPath));
+
+        return (M) metaCache.get(normalizedPath, () -> meta(normalizedPath, getWorkingPath(normalizedPath)));
     }
 
     @Override
-    public Stream<? extends PathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
-        Stream<PathMeta> stream = pathStream(path, search, recursive, sort).filter(PathMeta::isDirectory);
-        if (offset > 0) {
-            stream = stream.skip(offset);
-        }
+    public <M extends PathMeta> Map<String, M> metas(Collection<String> paths) {
+        return parallel(() -> paths.parallelStream()
+            .distinct()
+            .map(path -> new Pair<String, M>(path, meta(path)))
+            .filter(pair -> null != pair.getSecond())
+            .collect(Collectors.toMap(Pair::getFirst, Pair::getSecond))
+        );
+    }
 
-        if (limit > 0) {
-            stream = stream.limit(limit);
+    @Override
+    public void putAll(Map<String, InputStream> streams) throws InvalidFileException {
+        Queue<InvalidFileException> exceptions = new ConcurrentLinkedQueue<>();
+
+        parallel(() -> {
+            streams.entrySet().parallelStream().forEach(entry -> {
+                try {
+                    put(entry.getKey(), entry.getValue());
+                }
+                catch (InvalidFileException e) {
+                    exceptions.add(e);
+                }
+            });
+
+            return null;
+        });
+
+        InvalidFileException exception = exceptions.poll();
+        if (null != exception) {
+            exceptions.forEach(exception::addSuppressed);
+            throw exception;
         }
+    }
 
-        return stream;
+    /**
+     * 并行删除，路径的上级目录同时被删除时，只删除上级目录。
+     */
+    @Override
+    public void deleteAll(Collection<String> paths) {
+        Set<NormalizedPath> normalizedPaths = paths.stream().map(NormalizedPath::new).collect(Collectors.toSet());
+
+        parallel(() -> {
+            normalizedPaths.parallelStream()
+                .filter(path -> {
+                    NormalizedPath ancestor = path;
+                    while (!NormalizedPath.ROOT.equals(ancestor)) {
+                        ancestor = ancestor.getParentPath();
+                        if (normalizedPaths.contains(ancestor)) return false;
+                    }
+
+                    return true;
+                })
+                .forEach(path -> delete(path.toString()));
+
+            return null;
+        });
     }
 
     @Override
-    public Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
-        Stream<PathMeta> stream = pathStream(path, search, recursive, sort).filter(m -> !m.isDirectory());
-        if (offset > 0) {
-            stream = stream.skip(offset);
-        }
+    public Stream<? extends PathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return FileSystem.sort(pathStream(path, search, recursive).filter(PathMeta::isDirectory), sort, offset, limit);
+    }
 
-        if (limit > 0) {
-            stream = stream.limit(limit);
-        }
+    @Override
+    public Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        return FileSystem.sort(pathStream(path, search, recursive).filter(m -> !m.isDirectory()), sort, offset, limit);
+    }
 
-        return stream;
+    /**
+     * 在{@link #pool}中执行任务，任务中的并行流也会使用该线程池。
+     */
+    private <T> T parallel(Callable<T> task) {
+        return pool.submit(task).join();
     }
 
     private Path getWorkingPath(NormalizedPath path) {
         return Paths.get(workingRoot + path.toString());
     }
 
-    private Path getWorkingPath(String path) {
+    Path getWorkingPath(String path) {
         return Paths.get(workingRoot + new NormalizedPath(path).toString());
     }
 
     private NormalizedPath getNormalizedPath(Path path) {
-        return new NormalizedPath(path.subpath(Paths.get(workingRoot).getNameCount(), path.getNameCount()).toString());
+        int workingRootNameCount = workingRootPath.getNameCount();
+        if (path.getNameCount() == workingRootNameCount) return NormalizedPath.ROOT;
+
+        return new NormalizedPath(path.subpath(workingRootNameCount, path.getNameCount()).toString());
     }
 
-    private void moveOrCopy(boolean move, String source, String destination, boolean replaceExisting) throws FileSystemException {
-        Path src = getWorkingPath(source);
-        Path dest = getWorkingPath(destination);
+    /**
+     * 写操作之后失效元信息缓存、更新名称索引。
+     *
+     * @param recursive 路径之下的所有路径都可能改变，如移动、复制、删除目录。
+     */
+    void invalidateMeta(Path workingPath, boolean recursive) {
+        if ((null == metaCache && null == nameIndex) || !workingPath.startsWith(workingRootPath)) return;
 
-        if (Files.notExists(src)) throw new PathNotFoundException(source);
+        NormalizedPath normalizedPath = getNormalizedPath(workingPath);
 
-        if (Files.notExists(dest)) {
-            try {
-                moveOrCopy(move, src, dest);
-            }
-            catch (IOException e) {
-                throw new FileSystemException(source + " " + destination, e);
-            }
+        if (null != metaCache) {
+            metaCache.invalidate(normalizedPath, recursive);
+        }
+
+        if (null != nameIndex) {
+            updateNameIndex(normalizedPath, workingPath, recursive);
+        }
+    }
+
+    /**
+     * 路径存在时连同尚未索引的上级目录一起加入索引，目录被整体移动、复制时重新索引其下的所有路径。
+     */
+    private void updateNameIndex(NormalizedPath normalizedPath, Path workingPath, boolean recursive) {
+        if (recursive) {
+            nameIndex.remove(normalizedPath, true);
+        }
 
+        if (!Files.exists(workingPath)) {
+            nameIndex.remove(normalizedPath, false);
             return;
         }
 
-        Stream<Path> stream;
-        if (Files.isDirectory(src)) {
-            if (!Files.isDirectory(dest)) throw new FileSystemException("不能把目录移动或复制到文件。");
+        NormalizedPath path = normalizedPath;
+        while (!NormalizedPath.ROOT.equals(path) && !nameIndex.contains(path)) {
+            nameIndex.add(path);
+            path = path.getParentPath();
+        }
 
+        if (recursive && Files.isDirectory(workingPath)) {
             try {
-                stream = Files.walk(src).filter(p -> !Files.isDirectory(p));
+                walker.walk(workingPath, true, (p, attributes) -> {
+                    if (!isTempFile(p)) {
+                        nameIndex.add(getNormalizedPath(p));
+                    }
+
+                    return null;
+                });
             }
             catch (IOException e) {
-                throw new FileSystemException(source + " " + destination, e);
+                throw new RuntimeException(e);
             }
         }
-        else {
-            stream = Stream.of(src);
-        }
+    }
 
-        if (replaceExisting) {
-            stream.forEach(path -> {
-                Path target = dest.resolve(path.relativize(src));
-                try {
-                    moveOrCopy(move, src, target, StandardCopyOption.REPLACE_EXISTING);
-                }
-                catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
+    private void moveOrCopy(boolean move, String source, String destination, boolean replaceExisting, Consumer<TreeCopyProgress> listener) throws FileSystemException {
+        Path src = getWorkingPath(source);
+        Path dest = getWorkingPath(destination);
+
+        if (Files.notExists(src, LinkOption.NOFOLLOW_LINKS)) throw new PathNotFoundException(source);
+        if (src.equals(dest)) return;
+
+        if (Files.isDirectory(src, LinkOption.NOFOLLOW_LINKS)) {
+            if (Files.exists(dest) && !Files.isDirectory(dest)) throw new FileSystemException("不能把目录移动或复制到文件。");
+            if (dest.startsWith(src)) throw new FileSystemException("不能把目录移动或复制到其自身之下。");
         }
-        else {
-            stream.forEach(path -> {
-                Path target = dest.resolve(path.relativize(src));
-                if (Files.exists(target)) return;
 
-                try {
-                    moveOrCopy(move, src, target);
-                }
-                catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
+        try {
+            copier.transfer(move, src, dest, replaceExisting, listener);
+        }
+        catch (IOException e) {
+            throw new FileSystemException(source + " " + destination, e);
         }
     }
 
-    private void moveOrCopy(boolean move, Path src, Path dest, CopyOption... options) throws IOException {
-        Set<CopyOption> opts = new HashSet<>(Arrays.asList(options));
-        opts.add(StandardCopyOption.COPY_ATTRIBUTES);
+    /**
+     * 索引可用时只查询名称包含搜索串的路径的元信息，否则遍历目录。
+     */
+    private Stream<PathMeta> pathStream(String path, String search, boolean recursive) throws PathNotFoundException {
+        Path workingPath = getWorkingPath(path);
+        if (Files.notExists(workingPath)) throw new PathNotFoundException(path);
+
+        if (null != nameIndex && nameIndex.supports(search)) {
+            List<NormalizedPath> candidates = nameIndex.search(new NormalizedPath(path), search, recursive);
 
-        if (move) {
-            Files.move(src, dest, opts.toArray(new CopyOption[0]));
+            return parallel(() -> candidates.parallelStream()
+                .map(candidate -> meta(candidate, getWorkingPath(candidate)))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList())
+            ).stream();
         }
-        else {
-            Files.copy(src, dest, opts.toArray(new CopyOption[0]));
+
+        return walker.stream(workingPath, recursive, (p, attributes) -> {
+            if (isTempFile(p)) return null;
+
+            if (StringUtils.hasText(search) && !p.getFileName().toString().contains(search)) return null;
+
+            return meta(getNormalizedPath(p), attributes);
+        });
+    }
+
+    private void createDirectories(Path dir) throws IOException {
+        if (Files.notExists(dir)) {
+            Files.createDirectories(dir);
         }
     }
 
-    private Stream<PathMeta> pathStream(String path, String search, boolean recursive, PathMetaSort sort) throws PathNotFoundException {
-        Path workingPath = getWorkingPath(path);
-        if (Files.notExists(workingPath)) throw new PathNotFoundException(path);
+    /**
+     * 创建上级目录并解析软链接，返回实际要写入的文件。
+     */
+    Path prepareWrite(Path workingPath) throws IOException {
+        createDirectories(workingPath.getParent());
+
+        return resolveSymbolicLink(workingPath);
+    }
+
+    /**
+     * 先写入同目录下的临时文件，再原子rename为目标文件，读取方不会看到写了一半的文件。
+     * 输入流经由{@link FileChannel}传输，内存占用与文件大小无关。
+     * 启用了持久化时，rename之前同步文件数据，rename之后同步所在目录。
+     */
+    private void writeAtomically(Path target, InputStream stream) throws IOException {
+        Path temp = getTempPath(target);
 
-        Stream<Path> stream;
         try {
-            if (recursive) {
-                stream = Files.walk(workingPath);
+            FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            try {
+                transfer(stream, channel);
             }
-            else {
-                stream = Files.list(workingPath);
+            catch (IOException e) {
+                channel.close();
+                throw e;
             }
 
-            if (StringUtils.hasText(search)) {
-                stream = stream.filter(p -> p.getFileName().toString().contains(search));
+            copyAttributes(target, temp);
+            committer.commit(channel, temp, target);
+        }
+        catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * 与目标文件位于同一目录的临时文件，列表时会被忽略。
+     */
+    Path getTempPath(Path target) {
+        return target.resolveSibling("." + target.getFileName() + "." + System.nanoTime() + TEMP_FILE_SUFFIX);
+    }
+
+    /**
+     * 以原子rename用写完的临时文件替换目标文件，返回时已按配置同步到磁盘。
+     */
+    void commitTempFile(Path temp, Path target) throws IOException {
+        copyAttributes(target, temp);
+        committer.commit(null, temp, target);
+    }
+
+    /**
+     * 替换已有的文件时，把其权限、所有者和用户自定义属性复制到临时文件，rename之后保持不变。
+     * 没有权限修改所有者时只复制权限。
+     */
+    private void copyAttributes(Path target, Path temp) throws IOException {
+        PosixFileAttributeView targetView = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (null != targetView) {
+            PosixFileAttributes attributes;
+            try {
+                attributes = targetView.readAttributes();
+            }
+            catch (NoSuchFileException e) {
+                return;
             }
 
-            Stream<PathMeta> metaStream = stream.map(p -> meta(getNormalizedPath(p), p));
+            PosixFileAttributeView tempView = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+            tempView.setPermissions(attributes.permissions());
 
-            if (null != sort) {
-                metaStream = FileSystem.sort(metaStream, sort);
+            try {
+                tempView.setOwner(attributes.owner());
+                tempView.setGroup(attributes.group());
+            }
+            catch (IOException e) {
+                //非root用户不能修改所有者。
             }
+        }
+        else if (!Files.exists(target)) {
+            return;
+        }
+
+        UserDefinedFileAttributeView userView = Files.getFileAttributeView(target, UserDefinedFileAttributeView.class);
+        if (null == userView) return;
 
-            return metaStream;
+        List<String> names;
+        try {
+            names = userView.list();
         }
-        catch (IOException e) {
-            throw new RuntimeException(e);
+        catch (UnsupportedOperationException | java.nio.file.FileSystemException e) {
+            //文件系统不支持用户自定义属性。
+            return;
         }
-    }
 
-    private void createDirectories(Path dir) throws IOException {
-        if (Files.notExists(dir)) {
-            Files.createDirectories(dir);
+        UserDefinedFileAttributeView tempUserView = Files.getFileAttributeView(temp, UserDefinedFileAttributeView.class);
+        for (String name : names) {
+            ByteBuffer value = ByteBuffer.allocate(userView.size(name));
+            userView.read(name, value);
+            value.flip();
+            tempUserView.write(name, value);
         }
     }
 
-    private PathMeta meta(NormalizedPath normalizedPath, Path workingPath) {
-        if (Files.notExists(workingPath)) return null;
+    /**
+     * 来源是普通文件时从其当前位置起使用transferTo，之后新增的内容逐块读到流末尾。
+     * 管道、FIFO等来源的size()不可信，也不支持position()，直接逐块读到流末尾。
+     */
+    private void transfer(InputStream stream, FileChannel channel) throws IOException {
+        if (stream instanceof FileInputStream) {
+            FileChannel source = ((FileInputStream) stream).getChannel();
+            if (isRegularFile(source)) {
+                long position = source.position();
+                long size = source.size();
+                while (position < size) {
+                    long transferred = source.transferTo(position, size - position, channel);
+                    if (transferred <= 0) break;
+
+                    position += transferred;
+                }
 
-        File file = workingPath.toFile();
-        PathMeta meta = new PathMeta(normalizedPath);
+                source.position(position);
+            }
+        }
 
-        meta.setDirectory(file.isDirectory());
+        copy(Channels.newChannel(stream), channel);
+    }
 
-        if (file.isFile()) {
-            meta.setSize(file.length());
+    /**
+     * 还有未读内容的普通文件。
+     */
+    private boolean isRegularFile(FileChannel channel) {
+        try {
+            return channel.size() > channel.position();
         }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 读到-1才结束，非阻塞或较慢的来源在流末尾之前可能读到0字节。
+     */
+    private void copy(ReadableByteChannel source, FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(StreamUtils.BUFFER_SIZE);
+        while (source.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * 写入软链接时，写入其指向的文件，而不是用普通文件替换软链接本身。
+     */
+    private Path resolveSymbolicLink(Path path) throws IOException {
+        if (!Files.isSymbolicLink(path)) return path;
 
+        return path.resolveSibling(Files.readSymbolicLink(path));
+    }
+
+    boolean isTempFile(Path path) {
+        return path.getFileName().toString().endsWith(TEMP_FILE_SUFFIX);
+    }
 
+    private PathMeta meta(NormalizedPath normalizedPath, Path workingPath) {
         BasicFileAttributes attributes;
         try {
             attributes = Files.readAttributes(workingPath, BasicFileAttributes.class);
         }
+        catch (NoSuchFileException e) {
+            return null;
+        }
         catch (IOException e) {
             throw new RuntimeException(e);
         }
 
+        return meta(normalizedPath, attributes);
+    }
+
+    private PathMeta meta(NormalizedPath normalizedPath, BasicFileAttributes attributes) {
+        PathMeta meta = new PathMeta(normalizedPath);
+
+        meta.setDirectory(attributes.isDirectory());
+
+        if (attributes.isRegularFile()) {
+            meta.setSize(attributes.size());
+        }
+
         meta.setCreationTime(attributes.creationTime().toInstant());
         meta.setLastAccessTime(attributes.lastAccessTime().toInstant());
         meta.setLastModifiedTime(attributes.lastModifiedTime().toInstant());
@@ -374,9 +841,44 @@ public class LocalFileSystem implements FileSystem {
 
     @Override
     public void createSymbolicLink(String link, String path) throws InvalidFileException {
-        Path linkPath = getWorkingPath(link);
+        createSymbolicLink(link, getWorkingPath(path));
+    }
+
+    /**
+     * 以{@link WatchService}监听，能收到其它进程的修改。
+     */
+    @Override
+    public Flux<PathEvent> watch(String path, boolean recursive) {
         Path workingPath = getWorkingPath(path);
 
+        return Flux.create(sink -> {
+            if (!Files.isDirectory(workingPath)) {
+                sink.error(new PathNotFoundException(path));
+                return;
+            }
+
+            try {
+                PathWatcher watcher = new PathWatcher(workingPath, recursive, this::getNormalizedPath, this::isTempFile, sink);
+                sink.onDispose(watcher::close);
+                watcher.start();
+            }
+            catch (IOException e) {
+                sink.error(e);
+            }
+        });
+    }
+
+    @Override
+    public boolean isWatchSupported() {
+        return true;
+    }
+
+    /**
+     * @param workingPath 软链接指向的实际路径，可以位于工作目录之外。
+     */
+    void createSymbolicLink(String link, Path workingPath) throws InvalidFileException {
+        Path linkPath = getWorkingPath(link);
+
         try {
             createDirectories(linkPath.getParent());
 
@@ -386,7 +888,10 @@ public class LocalFileSystem implements FileSystem {
             Files.createSymbolicLink(linkPath, workingPath);
         }
         catch (IOException e) {
-            throw new InvalidFileException(path, e);
+            throw new InvalidFileException(link, e);
+        }
+        finally {
+            invalidateMeta(linkPath, false);
         }
     }
 }
@@ -0,0 +1,291 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 基于ForkJoin work-stealing的目录遍历，每个子目录作为一个子任务并行遍历。
+ * <ul>
+ * <li>每个条目只调用一次{@link Files#readAttributes(Path, Class, LinkOption...)}，软链接条目再多一次以获取其指向的属性，失效的软链接会被忽略。</li>
+ * <li>与{@link Files#walk(Path, FileVisitOption...)}一样不跟随指向目录的软链接，遍历结果不包含根目录本身。</li>
+ * <li>遍历期间被删除的条目会被忽略。</li>
+ * <li>结果经由容量有限的队列交给调用方，队列满时遍历任务暂停并让出线程，调用方读取后再继续，内存占用与条目总数无关。</li>
+ * </ul>
+ */
+public class ParallelPathWalker {
+    private final static int QUEUE_CAPACITY = 1024;
+
+    /**
+     * 所有遍历任务都结束后放入队列。
+     */
+    private final static Object END = new Object();
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param pool 执行遍历的线程池，由调用方负责关闭。
+     */
+    public ParallelPathWalker(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * 遍历并收集所有结果。
+     *
+     * @see #stream(Path, boolean, BiFunction)
+     */
+    public <T> List<T> walk(Path root, boolean recursive, BiFunction<Path, BasicFileAttributes, T> mapper) throws IOException {
+        try (Stream<T> stream = stream(root, recursive, mapper)) {
+            return stream.collect(Collectors.toList());
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 惰性遍历，调用方读取的同时在线程池中并行遍历，结果的顺序不确定。
+     * 返回的Stream是顺序的，调用{@link Stream#parallel()}后可以拆分给多个线程处理结果。
+     * 与{@link Files#walk(Path, FileVisitOption...)}一样，没有读完时应当关闭返回的Stream，以停止遍历并释放目录句柄。
+     *
+     * @param root      要遍历的目录
+     * @param recursive 如果true，则递归遍历所有子目录。
+     * @param mapper    把条目及其属性转换成结果，可能被并发调用。返回null则忽略该条目，但不影响对其子目录的遍历。
+     * @return 遍历出错时，读取返回的Stream会抛出{@link UncheckedIOException}。
+     */
+    public <T> Stream<T> stream(Path root, boolean recursive, BiFunction<Path, BasicFileAttributes, T> mapper) {
+        Walk<T> walk = new Walk<>(recursive, mapper);
+        walk.submit(root);
+
+        return StreamSupport.stream(walk, false).onClose(walk::cancel);
+    }
+
+    /**
+     * 由{@link Spliterators.AbstractSpliterator}按批拆分，并行Stream的各个线程分别处理已经取出的一批结果。
+     */
+    private class Walk<T> extends Spliterators.AbstractSpliterator<T> {
+        private final boolean recursive;
+        private final BiFunction<Path, BasicFileAttributes, T> mapper;
+
+        private final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+        private final Queue<DirectoryTask> paused = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 尚未结束的遍历任务数，包括暂停的任务。
+         */
+        private final AtomicInteger unfinished = new AtomicInteger();
+
+        private volatile boolean cancelled;
+        private volatile Throwable failure;
+        private boolean ended;
+
+        private Walk(boolean recursive, BiFunction<Path, BasicFileAttributes, T> mapper) {
+            super(Long.MAX_VALUE, NONNULL);
+
+            this.recursive = recursive;
+            this.mapper = mapper;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (ended) return false;
+
+            Object result = take();
+            if (results.size() < QUEUE_CAPACITY / 2) {
+                resume();
+            }
+
+            if (END == result) {
+                ended = true;
+                if (failure instanceof IOException) throw new UncheckedIOException((IOException) failure);
+                if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+                if (failure instanceof Error) throw (Error) failure;
+
+                return false;
+            }
+
+            action.accept((T) result);
+            return true;
+        }
+
+        private void submit(Path directory) {
+            unfinished.incrementAndGet();
+            pool.execute(new DirectoryTask(directory));
+        }
+
+        /**
+         * 调用方可能也是线程池中的线程，等待期间由线程池补充线程，避免遍历任务无线程可用。
+         */
+        private Object take() {
+            Object result = results.poll();
+            if (null != result) return result;
+
+            Object[] holder = new Object[1];
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        if (null == holder[0]) {
+                            holder[0] = results.take();
+                        }
+
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        if (null == holder[0]) {
+                            holder[0] = results.poll();
+                        }
+
+                        return null != holder[0];
+                    }
+                });
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                throw new RuntimeException(e);
+            }
+
+            return holder[0];
+        }
+
+        private void resume() {
+            DirectoryTask task;
+            while (null != (task = paused.poll())) {
+                pool.execute(task);
+            }
+        }
+
+        /**
+         * 暂停的任务也要恢复执行，以关闭目录句柄并结束。
+         */
+        private void cancel() {
+            cancelled = true;
+            resume();
+        }
+
+        private void fail(Throwable e) {
+            if (null == failure) {
+                failure = e;
+            }
+
+            cancel();
+        }
+
+        private void finish() {
+            if (0 == unfinished.decrementAndGet()) {
+                results.add(END);
+            }
+        }
+
+        private class DirectoryTask implements Runnable {
+            private final Path directory;
+
+            private DirectoryStream<Path> stream;
+            private Iterator<Path> iterator;
+
+            private DirectoryTask(Path directory) {
+                this.directory = directory;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    if (null == iterator && !cancelled) {
+                        stream = Files.newDirectoryStream(directory);
+                        iterator = stream.iterator();
+                    }
+
+                    while (!cancelled && iterator.hasNext()) {
+                        if (results.size() >= QUEUE_CAPACITY && pause()) return;
+
+                        visit(iterator.next());
+                    }
+                }
+                catch (NoSuchFileException | NotDirectoryException e) {
+                    //遍历期间被删除。
+                }
+                catch (DirectoryIteratorException | UncheckedIOException e) {
+                    fail(e.getCause());
+                }
+                catch (IOException | RuntimeException | Error e) {
+                    fail(e);
+                }
+
+                close();
+                finish();
+            }
+
+            /**
+             * @return 如果true，任务已加入暂停队列，当前线程应当直接返回。
+             */
+            private boolean pause() {
+                paused.add(this);
+                if (!cancelled && results.size() >= QUEUE_CAPACITY) return true;
+
+                //加入暂停队列之前调用方可能已经读空了队列或者取消了遍历，不会再有人恢复，由当前线程继续；移除失败说明已经被恢复。
+                return !paused.remove(this);
+            }
+
+            private void visit(Path entry) throws IOException {
+                BasicFileAttributes attributes = readAttributes(entry, LinkOption.NOFOLLOW_LINKS);
+                if (null == attributes) return;
+
+                boolean walkInto = recursive && attributes.isDirectory();
+
+                if (attributes.isSymbolicLink()) {
+                    attributes = readAttributes(entry);
+                    if (null == attributes) return;
+                }
+
+                T result = mapper.apply(entry, attributes);
+                if (null != result) {
+                    results.add(result);
+                }
+
+                if (walkInto) {
+                    submit(entry);
+                }
+            }
+
+            private void close() {
+                if (null == stream) return;
+
+                try {
+                    stream.close();
+                }
+                catch (IOException e) {
+                    //只影响句柄的释放。
+                }
+            }
+        }
+
+        private BasicFileAttributes readAttributes(Path entry, LinkOption... options) throws IOException {
+            try {
+                return Files.readAttributes(entry, BasicFileAttributes.class, options);
+            }
+            catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import me.insidezhou.southernquiet.filesystem.NormalizedPath;
+import me.insidezhou.southernquiet.filesystem.PathMeta;
+import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
+import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static me.insidezhou.southernquiet.filesystem.FileSystem.PATH_SEPARATOR_STRING;
+
+/**
+ * {@link LocalFileSystem}的路径元信息缓存，容量有限，按LRU淘汰。
+ * <ul>
+ * <li>通过{@link LocalFileSystem}进行的写操作会同步失效相关缓存。</li>
+ * <li>其它进程对文件系统的修改通过{@link WatchService}监听缓存条目所在的目录，异步失效。</li>
+ * </ul>
+ */
+public class PathMetaCache implements AutoCloseable {
+    private final static SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(PathMetaCache.class);
+
+    private final int maxSize;
+    private final Function<NormalizedPath, Path> workingPathResolver;
+    private final Function<Path, NormalizedPath> normalizedPathResolver;
+
+    private final LinkedHashMap<NormalizedPath, PathMeta> entries;
+    private final Map<Path, WatchKey> watchedDirectories = new HashMap<>();
+    private final Map<WatchKey, Path> watchKeys = new HashMap<>();
+    private final WatchService watchService;
+    private final Thread watchThread;
+
+    /**
+     * 每次失效都会递增，用来丢弃加载期间已经过时的结果。
+     */
+    private long generation = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public PathMetaCache(Path workingRoot, int maxSize, Function<NormalizedPath, Path> workingPathResolver, Function<Path, NormalizedPath> normalizedPathResolver) {
+        this.maxSize = maxSize;
+        this.workingPathResolver = workingPathResolver;
+        this.normalizedPathResolver = normalizedPathResolver;
+
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private final static long serialVersionUID = 2912485462396164573L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<NormalizedPath, PathMeta> eldest) {
+                return size() > PathMetaCache.this.maxSize;
+            }
+        };
+
+        try {
+            this.watchService = workingRoot.getFileSystem().newWatchService();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        this.watchThread = new Thread(this::watch, "PathMetaCache-" + workingRoot);
+        this.watchThread.setDaemon(true);
+        this.watchThread.start();
+    }
+
+    /**
+     * 优先从缓存获取元信息，未命中时使用loader加载。
+     *
+     * @param loader 路径不存在时返回null，不存在的路径不会被缓存。
+     */
+    public PathMeta get(NormalizedPath normalizedPath, Supplier<PathMeta> loader) {
+        long loadingGeneration;
+
+        synchronized (this) {
+            PathMeta meta = entries.get(normalizedPath);
+            if (null != meta) {
+                hitCount.incrementAndGet();
+                return copy(meta);
+            }
+
+            loadingGeneration = generation;
+        }
+
+        missCount.incrementAndGet();
+
+        //先监听再加载，加载之后的修改一定会失效缓存。
+        if (!NormalizedPath.ROOT.equals(normalizedPath)) {
+            register(workingPathResolver.apply(normalizedPath.getParentPath()));
+        }
+
+        PathMeta meta = loader.get();
+        if (null == meta) return null;
+
+        //目录要等加载后才知道，第一次监听其自身时重新加载，丢弃监听之前可能已经过时的结果。
+        if (meta.isDirectory() && register(workingPathResolver.apply(normalizedPath))) {
+            meta = loader.get();
+            if (null == meta) return null;
+        }
+
+        synchronized (this) {
+            if (loadingGeneration == generation) {
+                entries.put(normalizedPath, copy(meta));
+            }
+        }
+
+        return meta;
+    }
+
+    /**
+     * 失效路径及其所有上级目录的缓存。
+     *
+     * @param recursive 如果true，同时失效路径下的所有缓存。
+     */
+    public synchronized void invalidate(NormalizedPath normalizedPath, boolean recursive) {
+        ++generation;
+
+        entries.remove(normalizedPath);
+
+        if (recursive) {
+            String prefix = NormalizedPath.ROOT.equals(normalizedPath) ? PATH_SEPARATOR_STRING : normalizedPath.toString() + PATH_SEPARATOR_STRING;
+            entries.keySet().removeIf(p -> p.toString().startsWith(prefix));
+        }
+
+        NormalizedPath path = normalizedPath;
+        while (!NormalizedPath.ROOT.equals(path)) {
+            path = path.getParentPath();
+            entries.remove(path);
+        }
+    }
+
+    public synchronized void clear() {
+        ++generation;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public double getHitRatio() {
+        long hit = hitCount.get();
+        long total = hit + missCount.get();
+
+        return 0 == total ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public void close() {
+        watchThread.interrupt();
+
+        try {
+            watchService.close();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 监听条目所在的目录，目录条目同时监听其自身，因为子路径的变化会改变目录的修改时间。
+     * 监听的目录数超过缓存容量时，放弃所有监听并清空缓存，避免耗尽操作系统的监听资源。
+     *
+     * @return 如果true，目录此前没有被监听，现在开始监听。
+     */
+    private synchronized boolean register(Path directory) {
+        if (watchedDirectories.containsKey(directory)) return false;
+
+        if (watchedDirectories.size() >= maxSize) {
+            watchKeys.keySet().forEach(WatchKey::cancel);
+            watchKeys.clear();
+            watchedDirectories.clear();
+            clear();
+        }
+
+        try {
+            WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirectories.put(directory, key);
+            watchKeys.put(key, directory);
+            return true;
+        }
+        catch (NoSuchFileException | NotDirectoryException e) {
+            //目录已经不存在，后续的读取会重新加载。
+            return false;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void watch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            }
+            catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            try {
+                onWatchKey(key);
+            }
+            catch (Exception e) {
+                log.message("处理文件系统变更通知失败，清空缓存").exception(e).warn();
+                clear();
+            }
+        }
+    }
+
+    private void onWatchKey(WatchKey key) {
+        Path directory;
+        synchronized (this) {
+            directory = watchKeys.get(key);
+        }
+
+        if (null == directory) {
+            key.cancel();
+            return;
+        }
+
+        NormalizedPath normalizedDirectory = normalizedPathResolver.apply(directory);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+                clear();
+                continue;
+            }
+
+            Path child = directory.resolve((Path) event.context());
+            invalidate(normalizedPathResolver.apply(child), true);
+        }
+
+        invalidate(normalizedDirectory, false);
+
+        if (!key.reset()) {
+            synchronized (this) {
+                watchKeys.remove(key);
+                watchedDirectories.remove(directory);
+            }
+
+            invalidate(normalizedDirectory, true);
+        }
+    }
+
+    private PathMeta copy(PathMeta meta) {
+        PathMeta copy = new PathMeta();
+        copy.setParent(meta.getParent());
+        copy.setName(meta.getName());
+        copy.setDirectory(meta.isDirectory());
+        copy.setCreationTime(meta.getCreationTime());
+        copy.setLastModifiedTime(meta.getLastModifiedTime());
+        copy.setLastAccessTime(meta.getLastAccessTime());
+        copy.setSize(meta.getSize());
+        return copy;
+    }
+}
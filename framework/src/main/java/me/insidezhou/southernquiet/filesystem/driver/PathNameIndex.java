@@ -0,0 +1,142 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import me.insidezhou.southernquiet.filesystem.NameGrams;
+import me.insidezhou.southernquiet.filesystem.NormalizedPath;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import static me.insidezhou.southernquiet.filesystem.FileSystem.PATH_SEPARATOR_STRING;
+
+/**
+ * {@link LocalFileSystem}的路径名称索引，以名称的trigram（见{@link NameGrams}）倒排索引支持子串搜索。
+ * <ul>
+ * <li>搜索串的所有trigram对应的名称集合求交集后得到候选名称，再逐个确认是否包含搜索串，只有候选名称下的路径会被访问。</li>
+ * <li>搜索串短于{@link NameGrams#GRAM}时无法使用索引，由调用方遍历目录。</li>
+ * <li>通过{@link LocalFileSystem}进行的写操作会同步更新索引，其它进程的修改不会反映到索引中。索引中多出的路径在查询元信息时被过滤掉，
+ * 缺少的路径需要{@link LocalFileSystem#rebuildNameIndex()}。</li>
+ * </ul>
+ */
+public class PathNameIndex {
+    private final Map<String, Set<String>> namesByGram = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> pathsByName = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<String> paths = new ConcurrentSkipListSet<>();
+
+    private volatile boolean ready = false;
+
+    /**
+     * 初次构建完成之前，索引中的路径不完整。
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    void setReady(boolean ready) {
+        this.ready = ready;
+    }
+
+    public int size() {
+        return paths.size();
+    }
+
+    public boolean contains(NormalizedPath path) {
+        return paths.contains(path.toString());
+    }
+
+    /**
+     * @return 索引已经构建完成并且搜索串不短于{@link NameGrams#GRAM}。
+     */
+    public boolean supports(String search) {
+        return ready && null != search && search.length() >= NameGrams.GRAM;
+    }
+
+    public void add(NormalizedPath normalizedPath) {
+        if (NormalizedPath.ROOT.equals(normalizedPath)) return;
+
+        String path = normalizedPath.toString();
+        if (!paths.add(path)) return;
+
+        pathsByName.compute(normalizedPath.getName(), (name, set) -> {
+            if (null == set) {
+                set = ConcurrentHashMap.newKeySet();
+                NameGrams.of(name).forEach(gram -> namesByGram.computeIfAbsent(gram, g -> ConcurrentHashMap.newKeySet()).add(name));
+            }
+
+            set.add(path);
+            return set;
+        });
+    }
+
+    /**
+     * @param recursive 同时移除路径之下的所有路径。
+     */
+    public void remove(NormalizedPath normalizedPath, boolean recursive) {
+        String path = normalizedPath.toString();
+
+        remove(path);
+
+        if (!recursive) return;
+
+        String prefix = PATH_SEPARATOR_STRING.equals(path) ? path : path + PATH_SEPARATOR_STRING;
+        new ArrayList<>(paths.subSet(prefix, prefix + Character.MAX_VALUE)).forEach(this::remove);
+    }
+
+    public void clear() {
+        paths.clear();
+        pathsByName.clear();
+        namesByGram.clear();
+    }
+
+    /**
+     * @param directory 在该目录之下搜索。
+     * @param recursive 如果false，则只搜索目录的直接下级。
+     * @return 名称包含搜索串的路径，可能包含已经被其它进程删除的路径。
+     */
+    public List<NormalizedPath> search(NormalizedPath directory, String search, boolean recursive) {
+        List<Set<String>> candidates = new ArrayList<>();
+        for (String gram : NameGrams.of(search)) {
+            Set<String> names = namesByGram.get(gram);
+            if (null == names) return Collections.emptyList();
+
+            candidates.add(names);
+        }
+        candidates.sort(Comparator.comparingInt(Set::size));
+
+        String dir = directory.toString();
+        String prefix = PATH_SEPARATOR_STRING.equals(dir) ? dir : dir + PATH_SEPARATOR_STRING;
+
+        List<NormalizedPath> results = new ArrayList<>();
+        for (String name : candidates.get(0)) {
+            if (!name.contains(search)) continue;
+
+            Set<String> namePaths = pathsByName.get(name);
+            if (null == namePaths) continue;
+
+            for (String path : namePaths) {
+                if (!path.startsWith(prefix)) continue;
+                if (!recursive && path.indexOf(PATH_SEPARATOR_STRING, prefix.length()) >= 0) continue;
+
+                results.add(new NormalizedPath(path));
+            }
+        }
+
+        return results;
+    }
+
+    private void remove(String path) {
+        if (!paths.remove(path)) return;
+
+        pathsByName.computeIfPresent(new NormalizedPath(path).getName(), (name, set) -> {
+            set.remove(path);
+            if (!set.isEmpty()) return set;
+
+            NameGrams.of(name).forEach(gram -> namesByGram.computeIfPresent(gram, (g, names) -> {
+                names.remove(name);
+                return names.isEmpty() ? null : names;
+            }));
+
+            return null;
+        });
+    }
+}
@@ -0,0 +1,168 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import me.insidezhou.southernquiet.filesystem.NormalizedPath;
+import me.insidezhou.southernquiet.filesystem.PathEvent;
+import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
+import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
+import reactor.core.publisher.FluxSink;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * {@link LocalFileSystem#watch(String, boolean)}的一个订阅，以独立的{@link WatchService}和后台线程监听目录。
+ * <ul>
+ * <li>递归监听时，新建的子目录在收到事件后才注册，注册之前已经写入其中的路径以{@link PathEvent.Type#Create}补发，可能与之后的事件重复。</li>
+ * <li>写入过程中的临时文件不发出事件，原子rename到目标路径时发出目标路径的{@link PathEvent.Type#Create}。</li>
+ * <li>所监听的目录被删除后订阅结束。</li>
+ * </ul>
+ */
+class PathWatcher {
+    private final static SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(PathWatcher.class);
+
+    private final Path directory;
+    private final boolean recursive;
+    private final Function<Path, NormalizedPath> normalizedPathResolver;
+    private final Predicate<Path> ignored;
+    private final FluxSink<PathEvent> sink;
+
+    private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+    private final WatchService watchService;
+
+    PathWatcher(Path directory, boolean recursive, Function<Path, NormalizedPath> normalizedPathResolver, Predicate<Path> ignored, FluxSink<PathEvent> sink) throws IOException {
+        this.directory = directory;
+        this.recursive = recursive;
+        this.normalizedPathResolver = normalizedPathResolver;
+        this.ignored = ignored;
+        this.sink = sink;
+        this.watchService = directory.getFileSystem().newWatchService();
+    }
+
+    void start() throws IOException {
+        register(directory, false);
+
+        Thread thread = new Thread(this::run, "LocalFileSystem-watch-" + directory);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void close() {
+        try {
+            watchService.close();
+        }
+        catch (IOException e) {
+            log.message("关闭WatchService失败").context("directory", directory.toString()).exception(e).warn();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            }
+            catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            try {
+                onWatchKey(key);
+            }
+            catch (ClosedWatchServiceException e) {
+                return;
+            }
+            catch (Exception e) {
+                log.message("处理文件系统变更通知失败").context("directory", directory.toString()).exception(e).warn();
+                emit(PathEvent.Type.Overflow, directory);
+            }
+
+            if (!key.reset()) {
+                watchKeys.remove(key);
+
+                if (!Files.isDirectory(directory)) {
+                    close();
+                    sink.complete();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void onWatchKey(WatchKey key) throws IOException {
+        Path parent = watchKeys.get(key);
+        if (null == parent) return;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+                emit(PathEvent.Type.Overflow, directory);
+                continue;
+            }
+
+            Path path = parent.resolve((Path) event.context());
+            if (ignored.test(path)) continue;
+
+            if (StandardWatchEventKinds.ENTRY_CREATE == event.kind()) {
+                emit(PathEvent.Type.Create, path);
+
+                if (recursive && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    register(path, true);
+                }
+            }
+            else if (StandardWatchEventKinds.ENTRY_MODIFY == event.kind()) {
+                emit(PathEvent.Type.Modify, path);
+            }
+            else if (StandardWatchEventKinds.ENTRY_DELETE == event.kind()) {
+                emit(PathEvent.Type.Delete, path);
+            }
+        }
+    }
+
+    /**
+     * @param replay 补发目录中已经存在的路径。
+     */
+    private void register(Path root, boolean replay) throws IOException {
+        if (!recursive) {
+            watchKeys.put(register(root), root);
+            return;
+        }
+
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    watchKeys.put(register(dir), dir);
+
+                    if (replay && !dir.equals(root)) emit(PathEvent.Type.Create, dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (replay && !ignored.test(file)) emit(PathEvent.Type.Create, file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (NoSuchFileException e) {
+            //目录在注册之前已经被删除，删除事件由上级目录发出。
+        }
+    }
+
+    private WatchKey register(Path dir) throws IOException {
+        return dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    private void emit(PathEvent.Type type, Path path) {
+        sink.next(new PathEvent(type, normalizedPathResolver.apply(path).toString()));
+    }
+}
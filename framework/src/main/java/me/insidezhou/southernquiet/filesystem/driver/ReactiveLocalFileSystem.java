@@ -0,0 +1,93 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import me.insidezhou.southernquiet.filesystem.InvalidFileException;
+import me.insidezhou.southernquiet.filesystem.PathMeta;
+import me.insidezhou.southernquiet.filesystem.ReactiveFileSystem;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 基于{@link AsynchronousFileChannel}的{@link ReactiveFileSystem}，与{@link LocalFileSystem}共享工作目录和元信息缓存。
+ * 文件内容的读写完全异步，创建目录、rename、读取属性等短暂的元数据操作在boundedElastic中执行。
+ */
+public class ReactiveLocalFileSystem implements ReactiveFileSystem {
+    private final LocalFileSystem fileSystem;
+
+    public ReactiveLocalFileSystem(LocalFileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
+    /**
+     * 与{@link LocalFileSystem#put(String, java.io.InputStream)}一样先写临时文件再原子rename。
+     */
+    @Override
+    public Mono<Void> put(String path, Publisher<DataBuffer> data) {
+        Path workingPath = fileSystem.getWorkingPath(path);
+
+        return Mono.fromCallable(() -> fileSystem.prepareWrite(workingPath))
+            .subscribeOn(Schedulers.boundedElastic())
+            .flatMap(target -> {
+                Path temp = fileSystem.getTempPath(target);
+
+                return DataBufferUtils.write(data, temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+                    .then(Mono.fromCallable(() -> {
+                        fileSystem.commitTempFile(temp, target);
+                        return target;
+                    }).subscribeOn(Schedulers.boundedElastic()))
+                    .onErrorResume(e -> Mono.fromCallable(() -> Files.deleteIfExists(temp))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .then(Mono.error(e))
+                    )
+                    .doFinally(signal -> fileSystem.invalidateMeta(target, false));
+            })
+            .onErrorMap(IOException.class, e -> new InvalidFileException(path, e))
+            .doFinally(signal -> fileSystem.invalidateMeta(workingPath, false))
+            .then();
+    }
+
+    @Override
+    public Flux<DataBuffer> readRange(String path, long offset, long length, DataBufferFactory bufferFactory, int bufferSize) {
+        if (0 == length) {
+            return meta(path)
+                .filter(meta -> !meta.isDirectory())
+                .switchIfEmpty(Mono.error(() -> new InvalidFileException(path)))
+                .thenMany(Flux.empty());
+        }
+
+        Path workingPath = fileSystem.getWorkingPath(path);
+
+        Flux<DataBuffer> flux = DataBufferUtils.readAsynchronousFileChannel(
+            () -> AsynchronousFileChannel.open(workingPath, StandardOpenOption.READ),
+            offset,
+            bufferFactory,
+            bufferSize
+        );
+
+        if (length > 0) {
+            flux = DataBufferUtils.takeUntilByteCount(flux, length);
+        }
+
+        return flux.onErrorMap(IOException.class, e -> new InvalidFileException(path, e));
+    }
+
+    @Override
+    public <M extends PathMeta> Mono<M> meta(String path) {
+        return Mono.<M>fromCallable(() -> fileSystem.meta(path)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Mono<Void> delete(String path) {
+        return Mono.fromRunnable(() -> fileSystem.delete(path)).subscribeOn(Schedulers.boundedElastic()).then();
+    }
+}
@@ -0,0 +1,716 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
+import me.insidezhou.southernquiet.filesystem.FileSystem;
+import me.insidezhou.southernquiet.filesystem.FileSystemException;
+import me.insidezhou.southernquiet.filesystem.*;
+import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
+import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
+import me.insidezhou.southernquiet.util.Pair;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.SystemPropertyUtils;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 把文件分散到多块磁盘上的本地文件系统驱动，每个工作目录由一个{@link LocalFileSystem}负责。
+ * <ul>
+ * <li>文件按路径的一致性哈希放在某个工作目录中，目录在所有工作目录中都可能存在，列表时合并所有工作目录的结果。</li>
+ * <li>文件不在一致性哈希指定的位置时（新增了磁盘而尚未迁移），依次查询其它工作目录，读取不受影响。</li>
+ * <li>新增磁盘后只有约1/N的文件需要迁移，迁移在后台逐个文件进行，期间的写入总是写到新的位置。</li>
+ * <li>文件的位置由完整路径决定，移动目录时其中的文件通常需要在磁盘之间复制。</li>
+ * <li>软链接记录的是目标文件所在磁盘的实际路径，目标文件被迁移到其它磁盘后软链接会失效。</li>
+ * </ul>
+ */
+public class ShardedLocalFileSystem implements FileSystem, DisposableBean {
+    private final static SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(ShardedLocalFileSystem.class);
+
+    private final static int LOCK_STRIPES = 256;
+
+    private final FrameworkAutoConfiguration.LocalFileSystemProperties properties;
+    private final int virtualNodes;
+    private final ForkJoinPool pool;
+    private final ExecutorService rebalanceExecutor;
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+    private volatile Ring ring;
+
+    public ShardedLocalFileSystem(FrameworkAutoConfiguration.LocalFileSystemProperties properties) {
+        FrameworkAutoConfiguration.LocalFileSystemProperties.Sharding sharding = properties.getSharding();
+
+        List<String> workingRoots = sharding.getWorkingRoots();
+        if (null == workingRoots || workingRoots.isEmpty()) {
+            workingRoots = Collections.singletonList(properties.getWorkingRoot());
+        }
+
+        this.properties = properties;
+        this.virtualNodes = Math.max(1, sharding.getVirtualNodes());
+        this.ring = new Ring(workingRoots.stream().distinct().map(this::createShard).collect(Collectors.toList()), virtualNodes);
+        this.pool = new ForkJoinPool(Math.max(properties.getParallelism(), ring.shards.size()));
+        this.rebalanceExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ShardedLocalFileSystem-rebalance");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int i = 0; i < LOCK_STRIPES; ++i) {
+            locks[i] = new ReentrantLock();
+        }
+
+        if (sharding.isRebalanceOnStartup()) {
+            rebalance();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        rebalanceExecutor.shutdownNow();
+        pool.shutdown();
+        ring.shards.forEach(LocalFileSystem::destroy);
+    }
+
+    public List<LocalFileSystem> getShards() {
+        return ring.shards;
+    }
+
+    /**
+     * @return 一致性哈希为路径指定的工作目录，文件可能因尚未迁移而位于其它工作目录。
+     */
+    public LocalFileSystem getShard(String path) {
+        return ring.owner(new NormalizedPath(path));
+    }
+
+    /**
+     * 新增一个工作目录，并在后台把一致性哈希指向新工作目录的文件迁移过去。
+     */
+    public synchronized CompletableFuture<Long> addWorkingRoot(String workingRoot) {
+        String resolvedRoot = SystemPropertyUtils.resolvePlaceholders(workingRoot);
+
+        Ring current = ring;
+        if (current.shards.stream().noneMatch(shard -> shard.getWorkingRoot().equals(resolvedRoot))) {
+            List<LocalFileSystem> shards = new ArrayList<>(current.shards);
+            shards.add(createShard(workingRoot));
+            ring = new Ring(shards, virtualNodes);
+        }
+
+        return rebalance();
+    }
+
+    /**
+     * 把不在一致性哈希指定位置的文件逐个迁移过去，每个工作目录并行处理。
+     * 目标位置已有同名文件时，说明该文件在迁移前已被重新写入，直接删除旧位置的文件。
+     *
+     * @return 迁移或清理的文件数量。
+     */
+    public CompletableFuture<Long> rebalance() {
+        return CompletableFuture.supplyAsync(() -> {
+            Ring current = ring;
+            AtomicLong count = new AtomicLong();
+
+            parallel(() -> {
+                current.shards.parallelStream().forEach(shard -> rebalance(shard, count));
+                return null;
+            });
+
+            log.message("文件迁移完成")
+                .context("shards", current.shards.size())
+                .context("files", count.get())
+                .info();
+
+            return count.get();
+        }, rebalanceExecutor);
+    }
+
+    private void rebalance(LocalFileSystem shard, AtomicLong count) {
+        List<? extends PathMeta> files;
+        try {
+            files = shard.files(PATH_SEPARATOR_STRING, null, true, 0, 0, null).collect(Collectors.toList());
+        }
+        catch (PathNotFoundException e) {
+            return;
+        }
+
+        for (PathMeta meta : files) {
+            NormalizedPath path = new NormalizedPath(meta.getPath());
+
+            withLock(Collections.singletonList(path), () -> {
+                LocalFileSystem owner = ring.owner(path);
+                if (owner == shard || null == shard.meta(path.toString())) return null;
+
+                try {
+                    if (null == owner.meta(path.toString())) {
+                        transfer(true, shard, path, owner, path);
+                    }
+                    else {
+                        shard.delete(path.toString());
+                    }
+
+                    count.incrementAndGet();
+                }
+                catch (IOException e) {
+                    log.message("迁移文件失败")
+                        .context("path", path.toString())
+                        .context("from", shard.getWorkingRoot())
+                        .context("to", owner.getWorkingRoot())
+                        .exception(e)
+                        .warn();
+                }
+
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public void createDirectory(String path) {
+        ring.shards.forEach(shard -> shard.createDirectory(path));
+    }
+
+    @Override
+    public void put(String path, InputStream stream) throws InvalidFileException {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+
+        withLock(Collections.singletonList(normalizedPath), () -> {
+            ring.owner(normalizedPath).put(path, stream);
+            return null;
+        });
+    }
+
+    @Override
+    public void put(String path, CharSequence txt) throws InvalidFileException {
+        put(path, new ByteArrayInputStream(txt.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return null != locate(new NormalizedPath(path));
+    }
+
+    @Override
+    public InputStream openReadStream(String path) throws InvalidFileException {
+        return shardForRead(path).openReadStream(path);
+    }
+
+    @Override
+    public SeekableByteChannel openReadChannel(String path) throws InvalidFileException {
+        return shardForRead(path).openReadChannel(path);
+    }
+
+    @Override
+    public InputStream readRange(String path, long offset, long length) throws InvalidFileException {
+        return shardForRead(path).readRange(path, offset, length);
+    }
+
+    /**
+     * 追加写入之前先把尚未迁移的文件迁移到一致性哈希指定的位置。
+     */
+    @Override
+    public OutputStream openWriteStream(String path) throws InvalidFileException {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+
+        return withLock(Collections.singletonList(normalizedPath), () -> {
+            LocalFileSystem owner = ring.owner(normalizedPath);
+            LocalFileSystem located = locate(normalizedPath);
+
+            if (null != located && located != owner) {
+                try {
+                    transfer(true, located, normalizedPath, owner, normalizedPath);
+                }
+                catch (IOException e) {
+                    throw new InvalidFileException(path, e);
+                }
+            }
+
+            return owner.openWriteStream(path);
+        });
+    }
+
+    /**
+     * 写入之前先把尚未迁移的文件迁移到一致性哈希指定的位置。
+     */
+    @Override
+    public void writeAt(String path, long offset, ByteBuffer data) throws InvalidFileException {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+
+        withLock(Collections.singletonList(normalizedPath), () -> {
+            LocalFileSystem owner = ring.owner(normalizedPath);
+            LocalFileSystem located = locate(normalizedPath);
+
+            if (null != located && located != owner) {
+                try {
+                    transfer(true, located, normalizedPath, owner, normalizedPath);
+                }
+                catch (IOException e) {
+                    throw new InvalidFileException(path, e);
+                }
+            }
+
+            owner.writeAt(path, offset, data);
+            return null;
+        });
+    }
+
+    @Override
+    public void move(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        moveOrCopy(true, source, destination, replaceExisting);
+    }
+
+    @Override
+    public void copy(String source, String destination, boolean replaceExisting) throws FileSystemException {
+        moveOrCopy(false, source, destination, replaceExisting);
+    }
+
+    /**
+     * 文件可能残留在多个工作目录中，所以在所有工作目录中删除。
+     * 持有锁期间不使用{@link #pool}，避免work-stealing让持有锁的线程去执行等待同一把锁的任务。
+     */
+    @Override
+    public void delete(String path) {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+
+        withLock(Collections.singletonList(normalizedPath), () -> {
+            ring.shards.forEach(shard -> shard.delete(path));
+            return null;
+        });
+    }
+
+    @Override
+    public void touchCreation(String path) {
+        shardForRead(path).touchCreation(path);
+    }
+
+    @Override
+    public void touchLastModified(String path) {
+        shardForRead(path).touchLastModified(path);
+    }
+
+    @Override
+    public void touchLastAccess(String path) {
+        shardForRead(path).touchLastAccess(path);
+    }
+
+    @Override
+    public <M extends PathMeta> M meta(String path) {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+
+        LocalFileSystem shard = locate(normalizedPath);
+        if (null == shard) return null;
+
+        return shard.meta(path);
+    }
+
+    @Override
+    public <M extends PathMeta> Map<String, M> metas(Collection<String> paths) {
+        return parallel(() -> paths.parallelStream()
+            .distinct()
+            .map(path -> new Pair<String, M>(path, meta(path)))
+            .filter(pair -> null != pair.getSecond())
+            .collect(Collectors.toMap(Pair::getFirst, Pair::getSecond))
+        );
+    }
+
+    @Override
+    public void putAll(Map<String, InputStream> streams) throws InvalidFileException {
+        Queue<InvalidFileException> exceptions = new ConcurrentLinkedQueue<>();
+
+        parallel(() -> {
+            streams.entrySet().parallelStream().forEach(entry -> {
+                try {
+                    put(entry.getKey(), entry.getValue());
+                }
+                catch (InvalidFileException e) {
+                    exceptions.add(e);
+                }
+            });
+
+            return null;
+        });
+
+        InvalidFileException exception = exceptions.poll();
+        if (null != exception) {
+            exceptions.forEach(exception::addSuppressed);
+            throw exception;
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<String> paths) {
+        parallel(() -> {
+            paths.parallelStream().distinct().forEach(this::delete);
+            return null;
+        });
+    }
+
+    /**
+     * 同一目录在多个工作目录中都存在时，只返回最近修改的一个。
+     */
+    @Override
+    public Stream<? extends PathMeta> directories(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        Collection<PathMeta> directories = merge(path, shard -> shard.directories(path, search, recursive, 0, 0, null)
+            .<PathMeta>map(Function.identity())
+            .collect(Collectors.toList())
+        )
+            .stream()
+            .collect(Collectors.toMap(
+                PathMeta::getPath,
+                Function.identity(),
+                (a, b) -> a.getLastModifiedTime().isBefore(b.getLastModifiedTime()) ? b : a
+            ))
+            .values();
+
+        return FileSystem.sort(directories.stream(), sort, offset, limit);
+    }
+
+    /**
+     * 文件残留在多个工作目录中时，只返回一致性哈希指定位置的那个。
+     */
+    @Override
+    public Stream<? extends PathMeta> files(String path, String search, boolean recursive, int offset, int limit, PathMetaSort sort) throws PathNotFoundException {
+        Ring current = ring;
+
+        Collection<Pair<PathMeta, Boolean>> files = merge(path, shard -> shard.files(path, search, recursive, 0, 0, null)
+            .map(meta -> new Pair<PathMeta, Boolean>(meta, current.owner(new NormalizedPath(meta.getPath())) == shard))
+            .collect(Collectors.toList())
+        )
+            .stream()
+            .collect(Collectors.toMap(
+                pair -> pair.getFirst().getPath(),
+                Function.identity(),
+                (a, b) -> b.getSecond() ? b : a
+            ))
+            .values();
+
+        return FileSystem.sort(files.stream().map(Pair::getFirst), sort, offset, limit);
+    }
+
+    @Override
+    public void createSymbolicLink(String link, String path) throws InvalidFileException {
+        NormalizedPath linkPath = new NormalizedPath(link);
+        NormalizedPath targetPath = new NormalizedPath(path);
+
+        withLock(Collections.singletonList(linkPath), () -> {
+            LocalFileSystem target = locate(targetPath);
+            if (null == target) {
+                target = ring.owner(targetPath);
+            }
+
+            ring.owner(linkPath).createSymbolicLink(link, target.getWorkingPath(path));
+            return null;
+        });
+    }
+
+    /**
+     * 合并所有工作目录的事件，目录在部分工作目录中不存在时先创建，之后写入其中的文件无论落在哪个工作目录都能收到。
+     * 重新平衡在工作目录之间迁移文件时，同一路径会先后发出{@link PathEvent.Type#Create}与{@link PathEvent.Type#Delete}；
+     * 订阅之后新增的工作目录不在监听范围内。
+     */
+    @Override
+    public Flux<PathEvent> watch(String path, boolean recursive) {
+        return Flux.defer(() -> {
+            List<LocalFileSystem> shards = ring.shards;
+
+            if (shards.stream().noneMatch(shard -> Files.isDirectory(shard.getWorkingPath(path)))) {
+                return Flux.error(new PathNotFoundException(path));
+            }
+
+            shards.forEach(shard -> shard.createDirectory(path));
+
+            return Flux.merge(shards.stream().map(shard -> shard.watch(path, recursive)).collect(Collectors.toList()));
+        });
+    }
+
+    @Override
+    public boolean isWatchSupported() {
+        return true;
+    }
+
+    /**
+     * 目录在每个工作目录中各自复制或移动其中的文件，文件在各个工作目录之间并行处理。
+     */
+    private void moveOrCopy(boolean move, String source, String destination, boolean replaceExisting) throws FileSystemException {
+        NormalizedPath src = new NormalizedPath(source);
+        NormalizedPath dest = new NormalizedPath(destination);
+
+        PathMeta srcMeta = meta(source);
+        if (null == srcMeta) throw new PathNotFoundException(source);
+        if (src.equals(dest)) return;
+
+        if (!srcMeta.isDirectory()) {
+            transferLocked(move, src, dest, replaceExisting);
+            return;
+        }
+
+        PathMeta destMeta = meta(destination);
+        if (null != destMeta && !destMeta.isDirectory()) throw new FileSystemException("不能把目录移动或复制到文件。");
+        if (dest.toString().startsWith(src.toString() + PATH_SEPARATOR_STRING)) throw new FileSystemException("不能把目录移动或复制到其自身之下。");
+
+        Function<String, NormalizedPath> rebase = path -> new NormalizedPath(dest.toString() + path.substring(src.toString().length()));
+
+        createDirectory(destination);
+        directories(source, null, true, 0, 0, null).forEach(meta -> createDirectory(rebase.apply(meta.getPath()).toString()));
+
+        List<String> files = files(source, null, true, 0, 0, null).map(PathMeta::getPath).collect(Collectors.toList());
+        Queue<FileSystemException> exceptions = new ConcurrentLinkedQueue<>();
+
+        parallel(() -> {
+            files.parallelStream().forEach(file -> {
+                try {
+                    transferLocked(move, new NormalizedPath(file), rebase.apply(file), replaceExisting);
+                }
+                catch (FileSystemException e) {
+                    exceptions.add(e);
+                }
+            });
+
+            return null;
+        });
+
+        FileSystemException exception = exceptions.poll();
+        if (null != exception) {
+            exceptions.forEach(exception::addSuppressed);
+            throw exception;
+        }
+
+        if (move) {
+            for (LocalFileSystem shard : ring.shards) {
+                deleteEmptyDirectories(shard, source);
+            }
+        }
+    }
+
+    private void transferLocked(boolean move, NormalizedPath src, NormalizedPath dest, boolean replaceExisting) throws FileSystemException {
+        withLock(Arrays.asList(src, dest), () -> {
+            LocalFileSystem from = locate(src);
+            if (null == from) throw new PathNotFoundException(src.toString());
+
+            if (!replaceExisting && null != locate(dest)) return null;
+
+            try {
+                transfer(move, from, src, ring.owner(dest), dest);
+            }
+            catch (IOException e) {
+                throw new FileSystemException(src + " " + dest, e);
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * 同一工作目录内使用{@link LocalFileSystem}自身的移动或复制，跨工作目录时经由{@link FileInputStream}的channel传输。
+     */
+    private void transfer(boolean move, LocalFileSystem from, NormalizedPath src, LocalFileSystem to, NormalizedPath dest) throws IOException {
+        try {
+            if (from == to) {
+                if (move) {
+                    from.move(src.toString(), dest.toString(), true);
+                }
+                else {
+                    from.copy(src.toString(), dest.toString(), true);
+                }
+
+                return;
+            }
+
+            Path srcPath = from.getWorkingPath(src.toString());
+            if (Files.isSymbolicLink(srcPath)) {
+                to.createSymbolicLink(dest.toString(), srcPath.resolveSibling(Files.readSymbolicLink(srcPath)));
+            }
+            else {
+                try (InputStream inputStream = new FileInputStream(srcPath.toFile())) {
+                    to.put(dest.toString(), inputStream);
+                }
+
+                Path destPath = to.getWorkingPath(dest.toString());
+                Files.setLastModifiedTime(destPath, Files.getLastModifiedTime(srcPath));
+                to.invalidateMeta(destPath, false);
+            }
+        }
+        catch (FileSystemException e) {
+            throw new IOException(e);
+        }
+
+        if (move) {
+            from.delete(src.toString());
+        }
+    }
+
+    /**
+     * 由深到浅删除已经清空的目录，因目标已存在而未移动的文件所在的目录会被保留。
+     */
+    private void deleteEmptyDirectories(LocalFileSystem shard, String path) throws FileSystemException {
+        List<String> directories;
+        try {
+            directories = shard.directories(path, null, true, 0, 0, null)
+                .map(PathMeta::getPath)
+                .sorted(Comparator.comparingInt(String::length).reversed())
+                .collect(Collectors.toList());
+        }
+        catch (PathNotFoundException e) {
+            return;
+        }
+        directories.add(path);
+
+        try {
+            for (String directory : directories) {
+                try {
+                    Files.deleteIfExists(shard.getWorkingPath(directory));
+                }
+                catch (DirectoryNotEmptyException ignored) {
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new FileSystemException(path, e);
+        }
+        finally {
+            shard.invalidateMeta(shard.getWorkingPath(path), true);
+        }
+    }
+
+    /**
+     * 在所有工作目录中并行列表，所有工作目录中都不存在该路径时才抛出异常。
+     */
+    private <T> List<T> merge(String path, ShardListing<T> listing) throws PathNotFoundException {
+        Ring current = ring;
+
+        List<List<T>> results = parallel(() -> current.shards.parallelStream()
+            .map(shard -> {
+                try {
+                    return listing.list(shard);
+                }
+                catch (PathNotFoundException e) {
+                    return null;
+                }
+            })
+            .collect(Collectors.toList())
+        );
+
+        if (results.stream().allMatch(Objects::isNull)) throw new PathNotFoundException(path);
+
+        return results.stream().filter(Objects::nonNull).flatMap(List::stream).collect(Collectors.toList());
+    }
+
+    /**
+     * 按路径锁定，多个路径按锁的顺序获取，避免死锁。
+     */
+    private <T, E extends Exception> T withLock(Collection<NormalizedPath> paths, LockedTask<T, E> task) throws E {
+        List<Lock> acquired = paths.stream()
+            .mapToInt(path -> Math.floorMod(path.toString().hashCode(), LOCK_STRIPES))
+            .distinct()
+            .sorted()
+            .mapToObj(index -> locks[index])
+            .collect(Collectors.toList());
+
+        acquired.forEach(Lock::lock);
+        try {
+            return task.call();
+        }
+        finally {
+            acquired.forEach(Lock::unlock);
+        }
+    }
+
+    /**
+     * 在{@link #pool}中执行任务，任务中的并行流也会使用该线程池。
+     */
+    private <T> T parallel(Callable<T> task) {
+        return pool.submit(task).join();
+    }
+
+    private LocalFileSystem createShard(String workingRoot) {
+        FrameworkAutoConfiguration.LocalFileSystemProperties shardProperties = new FrameworkAutoConfiguration.LocalFileSystemProperties();
+        shardProperties.setWorkingRoot(workingRoot);
+        shardProperties.setParallelism(properties.getParallelism());
+        shardProperties.setMetaCache(properties.getMetaCache());
+        shardProperties.setDurability(properties.getDurability());
+        shardProperties.setNameIndex(properties.getNameIndex());
+
+        return new LocalFileSystem(shardProperties);
+    }
+
+    /**
+     * 先查询一致性哈希指定的位置，再依次查询其它工作目录。
+     *
+     * @return 路径不存在时返回null。
+     */
+    private LocalFileSystem locate(NormalizedPath path) {
+        Ring current = ring;
+
+        LocalFileSystem owner = current.owner(path);
+        if (null != owner.meta(path.toString())) return owner;
+
+        for (LocalFileSystem shard : current.shards) {
+            if (shard != owner && null != shard.meta(path.toString())) return shard;
+        }
+
+        return null;
+    }
+
+    /**
+     * 路径不存在时返回一致性哈希指定的位置，由其抛出相应的异常。
+     */
+    private LocalFileSystem shardForRead(String path) {
+        NormalizedPath normalizedPath = new NormalizedPath(path);
+
+        LocalFileSystem shard = locate(normalizedPath);
+        return null == shard ? ring.owner(normalizedPath) : shard;
+    }
+
+    @FunctionalInterface
+    private interface ShardListing<T> {
+        List<T> list(LocalFileSystem shard) throws PathNotFoundException;
+    }
+
+    @FunctionalInterface
+    private interface LockedTask<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * 每个工作目录在环上有多个虚拟节点，路径由顺时针方向的第一个虚拟节点所属的工作目录负责。
+     */
+    private static class Ring {
+        private final List<LocalFileSystem> shards;
+        private final TreeMap<Long, LocalFileSystem> nodes = new TreeMap<>();
+
+        private Ring(List<LocalFileSystem> shards, int virtualNodes) {
+            this.shards = Collections.unmodifiableList(shards);
+
+            for (LocalFileSystem shard : shards) {
+                for (int i = 0; i < virtualNodes; ++i) {
+                    nodes.putIfAbsent(hash(shard.getWorkingRoot() + "#" + i), shard);
+                }
+            }
+        }
+
+        private LocalFileSystem owner(NormalizedPath path) {
+            Map.Entry<Long, LocalFileSystem> entry = nodes.ceilingEntry(hash(path.toString()));
+            return null == entry ? nodes.firstEntry().getValue() : entry.getValue();
+        }
+
+        private static long hash(String key) {
+            return ByteBuffer.wrap(DigestUtils.md5Digest(key.getBytes(StandardCharsets.UTF_8))).getLong();
+        }
+    }
+}
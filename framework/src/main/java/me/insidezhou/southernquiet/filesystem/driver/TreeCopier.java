@@ -0,0 +1,212 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * {@link LocalFileSystem}的目录树复制、移动。
+ * <ul>
+ * <li>先遍历源目录并创建全部目标目录，再在线程池中并行复制文件。</li>
+ * <li>同一卷上的移动直接rename：目标不存在时整棵树一次rename，否则逐个文件rename。</li>
+ * <li>跨卷的移动与所有复制都以{@link FileChannel#transferTo}分块传输，先写临时文件再原子rename，不会留下写了一半的目标文件。</li>
+ * <li>软链接作为软链接本身复制或移动，不复制其指向的内容。</li>
+ * </ul>
+ */
+class TreeCopier {
+    /**
+     * 分块传输的大小，每块传输完成后报告一次进度。
+     */
+    private final static long CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private final ForkJoinPool pool;
+    private final ParallelPathWalker walker;
+    private final LocalFileSystem fileSystem;
+
+    TreeCopier(ForkJoinPool pool, ParallelPathWalker walker, LocalFileSystem fileSystem) {
+        this.pool = pool;
+        this.walker = walker;
+        this.fileSystem = fileSystem;
+    }
+
+    /**
+     * src是目录时，把其中的内容合并到dest之下；src是文件时，dest就是目标文件。
+     *
+     * @param listener 每传输一块、每完成一个文件时被调用，可能被并发调用，可以为null。
+     */
+    void transfer(boolean move, Path src, Path dest, boolean replaceExisting, Consumer<TreeCopyProgress> listener) throws IOException {
+        if (!Files.isDirectory(src, LinkOption.NOFOLLOW_LINKS)) {
+            Files.createDirectories(dest.getParent());
+
+            TreeCopyProgress progress = new TreeCopyProgress(1, Files.size(src), listener);
+            transferFile(move, src, dest, replaceExisting, progress);
+            return;
+        }
+
+        if (move && Files.notExists(dest, LinkOption.NOFOLLOW_LINKS) && renameTree(src, dest)) {
+            new TreeCopyProgress(0, 0, listener).report();
+            return;
+        }
+
+        List<Entry> entries = walker.walk(src, true, (path, attributes) -> {
+            if (fileSystem.isTempFile(path)) return null;
+
+            boolean link = Files.isSymbolicLink(path);
+            return new Entry(path, attributes.isDirectory() && !link, link || !attributes.isRegularFile() ? 0 : attributes.size());
+        });
+
+        Files.createDirectories(dest);
+        for (Entry entry : entries.stream().filter(e -> e.directory).sorted(Comparator.comparingInt(e -> e.path.getNameCount())).collect(Collectors.toList())) {
+            Files.createDirectories(resolve(src, dest, entry.path));
+        }
+
+        List<Entry> files = entries.stream().filter(e -> !e.directory).collect(Collectors.toList());
+        TreeCopyProgress progress = new TreeCopyProgress(files.size(), files.stream().mapToLong(e -> e.size).sum(), listener);
+        progress.report();
+
+        Queue<IOException> exceptions = new ConcurrentLinkedQueue<>();
+        pool.submit(() -> files.parallelStream().forEach(entry -> {
+            try {
+                transferFile(move, entry.path, resolve(src, dest, entry.path), replaceExisting, progress);
+            }
+            catch (IOException e) {
+                exceptions.add(e);
+            }
+        })).join();
+
+        IOException exception = exceptions.poll();
+        if (null != exception) {
+            exceptions.forEach(exception::addSuppressed);
+            throw exception;
+        }
+
+        if (move) {
+            deleteEmptyDirectories(src, entries);
+        }
+    }
+
+    private Path resolve(Path src, Path dest, Path path) {
+        return dest.resolve(src.relativize(path).toString());
+    }
+
+    /**
+     * @return 不在同一卷上时返回false。
+     */
+    private boolean renameTree(Path src, Path dest) throws IOException {
+        Files.createDirectories(dest.getParent());
+
+        try {
+            Files.move(src, dest, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            return false;
+        }
+    }
+
+    private void transferFile(boolean move, Path src, Path target, boolean replaceExisting, TreeCopyProgress progress) throws IOException {
+        long size = Files.isSymbolicLink(src) ? 0 : Files.size(src);
+
+        if (Files.exists(target, LinkOption.NOFOLLOW_LINKS) && !replaceExisting) {
+            progress.addBytes(size);
+            progress.addFile();
+            return;
+        }
+
+        if (move && rename(src, target)) {
+            progress.addBytes(size);
+        }
+        else if (Files.isSymbolicLink(src)) {
+            Files.deleteIfExists(target);
+            Files.createSymbolicLink(target, Files.readSymbolicLink(src));
+            if (move) Files.delete(src);
+        }
+        else {
+            transferContent(src, target, progress);
+            if (move) Files.delete(src);
+        }
+
+        progress.addFile();
+    }
+
+    /**
+     * @return 不在同一卷上时返回false。
+     */
+    private boolean rename(Path src, Path target) throws IOException {
+        try {
+            Files.move(src, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            return false;
+        }
+    }
+
+    private void transferContent(Path src, Path target, TreeCopyProgress progress) throws IOException {
+        Path temp = fileSystem.getTempPath(target);
+
+        try {
+            try (FileChannel source = FileChannel.open(src, StandardOpenOption.READ);
+                 FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+            ) {
+                long size = source.size();
+                long position = 0;
+
+                while (position < size) {
+                    long transferred = source.transferTo(position, Math.min(CHUNK_SIZE, size - position), channel);
+                    if (transferred <= 0) break;
+
+                    position += transferred;
+                    progress.addBytes(transferred);
+                }
+            }
+
+            Files.setLastModifiedTime(temp, Files.getLastModifiedTime(src));
+            fileSystem.commitTempFile(temp, target);
+        }
+        catch (IOException | UncheckedIOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * 由深到浅删除已经清空的源目录，因目标已存在而未移动的文件所在的目录会被保留。
+     */
+    private void deleteEmptyDirectories(Path src, List<Entry> entries) throws IOException {
+        List<Path> directories = entries.stream()
+            .filter(e -> e.directory)
+            .map(e -> e.path)
+            .sorted(Comparator.comparingInt(Path::getNameCount).reversed())
+            .collect(Collectors.toList());
+        directories.add(src);
+
+        for (Path directory : directories) {
+            try {
+                Files.deleteIfExists(directory);
+            }
+            catch (DirectoryNotEmptyException ignored) {
+            }
+        }
+    }
+
+    private static class Entry {
+        private final Path path;
+        private final boolean directory;
+        private final long size;
+
+        private Entry(Path path, boolean directory, long size) {
+            this.path = path;
+            this.directory = directory;
+            this.size = size;
+        }
+    }
+}
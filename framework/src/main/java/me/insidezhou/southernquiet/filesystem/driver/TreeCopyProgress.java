@@ -0,0 +1,58 @@
+package me.insidezhou.southernquiet.filesystem.driver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 目录树复制、移动的进度，总量在开始复制文件之前统计。
+ * 因目标已存在而跳过的文件同样计入已完成的数量，完成时已完成数量与总量相等。
+ */
+public class TreeCopyProgress {
+    private final long totalFiles;
+    private final long totalBytes;
+    private final AtomicLong doneFiles = new AtomicLong();
+    private final AtomicLong doneBytes = new AtomicLong();
+    private final Consumer<TreeCopyProgress> listener;
+
+    TreeCopyProgress(long totalFiles, long totalBytes, Consumer<TreeCopyProgress> listener) {
+        this.totalFiles = totalFiles;
+        this.totalBytes = totalBytes;
+        this.listener = listener;
+    }
+
+    public long getTotalFiles() {
+        return totalFiles;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getDoneFiles() {
+        return doneFiles.get();
+    }
+
+    public long getDoneBytes() {
+        return doneBytes.get();
+    }
+
+    public boolean isDone() {
+        return doneFiles.get() >= totalFiles;
+    }
+
+    void addBytes(long bytes) {
+        doneBytes.addAndGet(bytes);
+        report();
+    }
+
+    void addFile() {
+        doneFiles.incrementAndGet();
+        report();
+    }
+
+    void report() {
+        if (null != listener) {
+            listener.accept(this);
+        }
+    }
+}
@@ -52,7 +52,7 @@ public class FileSystemKeyValueStore implements KeyValueStore {
     @Override
     public <T extends Serializable> T get(String key) {
         try {
-            Optional<? extends PathMeta> opt = fileSystem.files(workingRoot, getKeyPrefix(key)).findFirst();
+            Optional<? extends PathMeta> opt = findFirst(key);
 
             if (opt.isPresent()) {
                 PathMeta meta = opt.get();
@@ -83,7 +83,7 @@ public class FileSystemKeyValueStore implements KeyValueStore {
     @Override
     public void touch(String key, Integer ttl) {
         try {
-            Optional<? extends PathMeta> opt = fileSystem.files(workingRoot, getKeyPrefix(key)).findFirst();
+            Optional<? extends PathMeta> opt = findFirst(key);
 
             if (opt.isPresent()) {
                 PathMeta meta = opt.get();
@@ -107,9 +107,7 @@ public class FileSystemKeyValueStore implements KeyValueStore {
     public void remove(String... keys) {
         Stream.of(keys).forEach(key -> {
             try {
-                fileSystem.files(workingRoot, getKeyPrefix(key))
-                    .findFirst()
-                    .ifPresent(meta -> fileSystem.delete(meta.getPath()));
+                findFirst(key).ifPresent(meta -> fileSystem.delete(meta.getPath()));
             }
             catch (PathNotFoundException e) {
                 return;
@@ -117,6 +115,15 @@ public class FileSystemKeyValueStore implements KeyValueStore {
         });
     }
 
+    /**
+     * 没有读完的列表要关闭，以停止遍历并释放目录句柄。
+     */
+    private Optional<? extends PathMeta> findFirst(String key) throws PathNotFoundException {
+        try (Stream<? extends PathMeta> stream = fileSystem.files(workingRoot, getKeyPrefix(key))) {
+            return stream.findFirst();
+        }
+    }
+
     protected String getFileName(String key, int ttl) {
         return key + nameSeparator + (Math.max(ttl, 0));
     }
@@ -0,0 +1,179 @@
+package test.filesystem;
+
+import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
+import me.insidezhou.southernquiet.filesystem.CachingFileSystem;
+import me.insidezhou.southernquiet.filesystem.FileSystem;
+import me.insidezhou.southernquiet.filesystem.FileSystemException;
+import me.insidezhou.southernquiet.filesystem.InvalidFileException;
+import me.insidezhou.southernquiet.filesystem.PathEvent;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import reactor.core.Disposable;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+@SpringBootTest(
+    classes = FrameworkAutoConfiguration.class,
+    properties = "southern-quiet.framework.file-system.cache.enable=true"
+)
+@RunWith(SpringRunner.class)
+public class CachingFileSystemTest {
+    @Autowired
+    private FileSystem fileSystem;
+
+    @Test
+    public void hit() throws FileSystemException {
+        CachingFileSystem cachingFileSystem = (CachingFileSystem) fileSystem;
+        String path = "cache/hot.txt";
+
+        fileSystem.put(path, "hot");
+        Assert.assertEquals("hot", fileSystem.read(path));
+
+        long hits = cachingFileSystem.getStats().hitCount();
+        long loads = cachingFileSystem.getStats().loadCount();
+        Assert.assertEquals("hot", fileSystem.read(path));
+        Assert.assertEquals("hot", fileSystem.read(path));
+        Assert.assertEquals(hits + 2, cachingFileSystem.getStats().hitCount());
+        Assert.assertEquals(loads, cachingFileSystem.getStats().loadCount());
+
+        fileSystem.delete(path);
+    }
+
+    @Test
+    public void invalidateOnWrite() throws Exception {
+        CachingFileSystem cachingFileSystem = (CachingFileSystem) fileSystem;
+        String path = "cache/write.txt";
+
+        fileSystem.put(path, "first");
+        Assert.assertEquals("first", fileSystem.read(path));
+
+        long loads = cachingFileSystem.getStats().loadCount();
+        fileSystem.put(path, "second");
+        Assert.assertEquals("second", fileSystem.read(path));
+        Assert.assertEquals(loads + 1, cachingFileSystem.getStats().loadCount());
+
+        try (OutputStream outputStream = fileSystem.openWriteStream(path)) {
+            outputStream.write("-third".getBytes(StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals("second-third", fileSystem.read(path));
+        Assert.assertEquals(loads + 2, cachingFileSystem.getStats().loadCount());
+
+        fileSystem.writeAt(path, 0, ByteBuffer.wrap("SECOND".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("SECOND-third", fileSystem.read(path));
+        Assert.assertEquals(loads + 3, cachingFileSystem.getStats().loadCount());
+
+        fileSystem.delete(path);
+    }
+
+    @Test
+    public void invalidateOnDelete() throws FileSystemException {
+        String path = "cache/delete/deleted.txt";
+
+        fileSystem.put(path, "deleted");
+        Assert.assertEquals("deleted", fileSystem.read(path));
+
+        fileSystem.delete(path);
+        Assert.assertFalse(fileSystem.exists(path));
+        Assert.assertThrows(InvalidFileException.class, () -> fileSystem.read(path));
+
+        fileSystem.put(path, "deleted");
+        Assert.assertEquals("deleted", fileSystem.read(path));
+
+        fileSystem.delete("cache/delete");
+        Assert.assertThrows(InvalidFileException.class, () -> fileSystem.read(path));
+    }
+
+    @Test
+    public void invalidateOnMove() throws FileSystemException {
+        String source = "cache/move/source.txt";
+        String destination = "cache/move/destination.txt";
+
+        fileSystem.put(source, "source");
+        fileSystem.put(destination, "destination");
+        Assert.assertEquals("source", fileSystem.read(source));
+        Assert.assertEquals("destination", fileSystem.read(destination));
+
+        fileSystem.move(source, destination, true);
+        Assert.assertThrows(InvalidFileException.class, () -> fileSystem.read(source));
+        Assert.assertEquals("source", fileSystem.read(destination));
+
+        fileSystem.put(source, "copied");
+        Assert.assertEquals("copied", fileSystem.read(source));
+        fileSystem.copy(source, destination, true);
+        Assert.assertEquals("copied", fileSystem.read(destination));
+
+        fileSystem.move("cache/move", "cache/moved");
+        Assert.assertThrows(InvalidFileException.class, () -> fileSystem.read(destination));
+        Assert.assertEquals("copied", fileSystem.read("cache/moved/destination.txt"));
+
+        fileSystem.delete("cache/moved");
+    }
+
+    @Test
+    public void watch() throws Exception {
+        Assert.assertTrue(fileSystem.isWatchSupported());
+
+        fileSystem.delete("cache/watch");
+        fileSystem.createDirectory("cache/watch");
+
+        List<PathEvent> events = new CopyOnWriteArrayList<>();
+        Disposable disposable = fileSystem.watch("cache/watch", false).subscribe(events::add);
+
+        try {
+            fileSystem.put("cache/watch/a.txt", "a");
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (System.currentTimeMillis() < deadline && events.stream().noneMatch(e -> "/cache/watch/a.txt".equals(e.getPath()))) {
+                Thread.sleep(50);
+            }
+
+            Assert.assertTrue(events.stream().anyMatch(e -> "/cache/watch/a.txt".equals(e.getPath())));
+        }
+        finally {
+            disposable.dispose();
+            fileSystem.delete("cache/watch");
+        }
+    }
+
+    @Test
+    public void singleFlight() throws Exception {
+        CachingFileSystem cachingFileSystem = (CachingFileSystem) fileSystem;
+        String path = "cache/single.txt";
+
+        fileSystem.put(path, "single");
+        long loads = cachingFileSystem.getStats().loadCount();
+
+        CountDownLatch latch = new CountDownLatch(1);
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; ++i) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    latch.await();
+                    return fileSystem.read(path);
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+
+        latch.countDown();
+        for (CompletableFuture<String> future : futures) {
+            Assert.assertEquals("single", future.get());
+        }
+
+        Assert.assertEquals(loads + 1, cachingFileSystem.getStats().loadCount());
+        fileSystem.delete(path);
+    }
+}
@@ -0,0 +1,137 @@
+package test.filesystem;
+
+import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
+import me.insidezhou.southernquiet.filesystem.ContentAddressedFileSystem;
+import me.insidezhou.southernquiet.filesystem.FileSystem;
+import me.insidezhou.southernquiet.filesystem.FileSystemException;
+import me.insidezhou.southernquiet.filesystem.PathMeta;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.stream.Stream;
+
+@SpringBootTest(
+    classes = FrameworkAutoConfiguration.class,
+    properties = {
+        "southern-quiet.framework.file-system.local.working-root=${user.home}/.SQ_FILESYSTEM_CAS",
+        "southern-quiet.framework.file-system.content-addressed.enable=true"
+    }
+)
+@RunWith(SpringRunner.class)
+public class ContentAddressedFileSystemTest {
+    @Autowired
+    private FileSystem fileSystem;
+
+    @Test
+    public void deduplicate() throws FileSystemException {
+        ContentAddressedFileSystem contentAddressedFileSystem = (ContentAddressedFileSystem) fileSystem;
+        FileSystem storage = contentAddressedFileSystem.getDelegate();
+
+        contentAddressedFileSystem.sweep();
+        long blobs = countBlobs(storage);
+
+        fileSystem.put("cas/a.txt", "duplicated");
+        fileSystem.put("cas/b.txt", "duplicated");
+        fileSystem.copy("cas/a.txt", "cas/c.txt");
+        Assert.assertEquals(blobs + 1, countBlobs(storage));
+
+        Assert.assertEquals("duplicated", fileSystem.read("cas/c.txt"));
+        Assert.assertEquals(10, fileSystem.meta("cas/c.txt").getSize());
+        Assert.assertTrue(fileSystem.files("/", "", true).noneMatch(meta -> meta.getPath().startsWith("/.SQ_CAS")));
+
+        fileSystem.delete("cas/a.txt");
+        fileSystem.put("cas/b.txt", "changed");
+        contentAddressedFileSystem.collectGarbage();
+        Assert.assertEquals("duplicated", fileSystem.read("cas/c.txt"));
+        Assert.assertEquals(blobs + 2, countBlobs(storage));
+
+        fileSystem.delete("cas");
+        contentAddressedFileSystem.collectGarbage();
+        Assert.assertEquals(blobs, countBlobs(storage));
+    }
+
+    @Test
+    public void refLikeContent() throws FileSystemException {
+        ContentAddressedFileSystem contentAddressedFileSystem = (ContentAddressedFileSystem) fileSystem;
+        FileSystem storage = contentAddressedFileSystem.getDelegate();
+
+        //启用前的普通文件，内容形如引用。
+        String content = "sha256:" + "0".repeat(64) + ":1";
+        storage.put("cas/legacy.txt", content);
+
+        Assert.assertEquals(content, fileSystem.read("cas/legacy.txt"));
+        Assert.assertEquals(content.length(), fileSystem.meta("cas/legacy.txt").getSize());
+
+        fileSystem.put("cas/legacy.txt", content);
+        Assert.assertFalse(storage.exists("cas/legacy.txt"));
+        Assert.assertTrue(storage.exists("cas/legacy.txt" + ContentAddressedFileSystem.REF_SUFFIX));
+        Assert.assertEquals(content, fileSystem.read("cas/legacy.txt"));
+
+        PathMeta meta = fileSystem.files("cas", "legacy").findFirst().orElseThrow();
+        Assert.assertEquals("legacy.txt", meta.getName());
+        Assert.assertEquals(content.length(), meta.getSize());
+
+        fileSystem.delete("cas");
+    }
+
+    @Test
+    public void releaseOnLastDelete() throws FileSystemException {
+        ContentAddressedFileSystem contentAddressedFileSystem = (ContentAddressedFileSystem) fileSystem;
+        FileSystem storage = contentAddressedFileSystem.getDelegate();
+
+        fileSystem.put("cas-ref/a.txt", "referenced");
+        fileSystem.put("cas-ref/b.txt", "referenced");
+        fileSystem.copy("cas-ref/a.txt", "cas-ref/c.txt");
+
+        String ref = storage.read("cas-ref/a.txt" + ContentAddressedFileSystem.REF_SUFFIX);
+        Assert.assertEquals(ref, storage.read("cas-ref/b.txt" + ContentAddressedFileSystem.REF_SUFFIX));
+        Assert.assertEquals(ref, storage.read("cas-ref/c.txt" + ContentAddressedFileSystem.REF_SUFFIX));
+
+        String hash = ref.split(":")[1];
+        String blob = String.join(FileSystem.PATH_SEPARATOR_STRING, "/.SQ_CAS/blobs", hash.substring(0, 2), hash.substring(2, 4), hash);
+        Assert.assertEquals(3, countHolders(storage, hash));
+
+        fileSystem.delete("cas-ref/a.txt");
+        Assert.assertFalse(storage.exists("cas-ref/a.txt" + ContentAddressedFileSystem.REF_SUFFIX));
+        Assert.assertEquals(2, countHolders(storage, hash));
+
+        fileSystem.move("cas-ref/b.txt", "cas-ref/d.txt");
+        Assert.assertEquals(2, countHolders(storage, hash));
+
+        fileSystem.delete("cas-ref/c.txt");
+        contentAddressedFileSystem.collectGarbage();
+        Assert.assertEquals(1, countHolders(storage, hash));
+        Assert.assertTrue(storage.exists(blob));
+        Assert.assertEquals("referenced", fileSystem.read("cas-ref/d.txt"));
+
+        fileSystem.delete("cas-ref/d.txt");
+        Assert.assertEquals(0, countHolders(storage, hash));
+        Assert.assertTrue(storage.exists(blob));
+
+        contentAddressedFileSystem.collectGarbage();
+        Assert.assertFalse(storage.exists(blob));
+
+        fileSystem.delete("cas-ref");
+    }
+
+    private long countHolders(FileSystem storage, String hash) throws FileSystemException {
+        String holders = "/.SQ_CAS/refs/" + hash;
+        if (!storage.exists(holders)) return 0;
+
+        try (Stream<? extends PathMeta> stream = storage.files(holders, "", false)) {
+            return stream.count();
+        }
+    }
+
+    private long countBlobs(FileSystem storage) throws FileSystemException {
+        if (!storage.exists("/.SQ_CAS/blobs")) return 0;
+
+        try (Stream<? extends PathMeta> stream = storage.files("/.SQ_CAS/blobs", "", true)) {
+            return stream.count();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package test.filesystem;
+
+import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
+import me.insidezhou.southernquiet.filesystem.driver.FileCommitter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class FileCommitterTest {
+    private Path root;
+    private FileCommitter committer;
+    private ExecutorService executor;
+
+    @Before
+    public void before() throws IOException {
+        root = Files.createTempDirectory("FileCommitterTest");
+
+        FrameworkAutoConfiguration.LocalFileSystemProperties.Durability durability = new FrameworkAutoConfiguration.LocalFileSystemProperties.Durability();
+        durability.setMode(FrameworkAutoConfiguration.LocalFileSystemProperties.Durability.Mode.GROUP_COMMIT);
+        durability.setGroupCommitWindow(Duration.ofSeconds(1));
+        durability.setMaxBatchSize(4);
+
+        committer = new FileCommitter(durability);
+        executor = Executors.newFixedThreadPool(10);
+    }
+
+    @After
+    public void after() throws IOException {
+        executor.shutdownNow();
+        committer.close();
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Test
+    public void batch() throws IOException {
+        Path directory = Files.createDirectories(root.resolve("batch"));
+
+        //10个请求按每批最多4个分成3批，每批只同步一次目录。
+        List<CompletableFuture<Void>> futures = IntStream.range(0, 10)
+            .mapToObj(i -> commitAsync(directory.resolve(i + ".txt"), String.valueOf(i)))
+            .collect(Collectors.toList());
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        Assert.assertEquals(3, committer.getBatchCount());
+        Assert.assertEquals(3, committer.getDirectorySyncCount());
+
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertEquals(String.valueOf(i), Files.readString(directory.resolve(i + ".txt")));
+        }
+    }
+
+    @Test
+    public void exception() throws IOException {
+        Path directory = Files.createDirectories(root.resolve("exception"));
+
+        //同一批中rename失败的请求得到异常，其余请求正常完成。
+        List<CompletableFuture<Void>> futures = IntStream.range(0, 4)
+            .mapToObj(i -> commitAsync(0 == i ? root.resolve("missing").resolve("0.txt") : directory.resolve(i + ".txt"), String.valueOf(i)))
+            .collect(Collectors.toList());
+
+        try {
+            futures.get(0).join();
+            Assert.fail();
+        }
+        catch (CompletionException e) {
+            Assert.assertTrue(e.getCause().getCause() instanceof NoSuchFileException);
+        }
+
+        futures.subList(1, 4).forEach(CompletableFuture::join);
+        Assert.assertEquals(1, committer.getBatchCount());
+        Assert.assertEquals(1, committer.getDirectorySyncCount());
+    }
+
+    private CompletableFuture<Void> commitAsync(Path target, String content) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                Path temp = Files.writeString(root.resolve(target.getFileName() + "." + System.nanoTime() + ".tmp"), content);
+                committer.commit(null, temp, target);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+}
@@ -2,22 +2,47 @@ package test.filesystem;
 
 import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
 import me.insidezhou.southernquiet.filesystem.*;
+import me.insidezhou.southernquiet.filesystem.driver.LocalFileSystem;
+import me.insidezhou.southernquiet.filesystem.driver.TreeCopyProgress;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.util.DigestUtils;
 import org.springframework.util.StreamUtils;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
 @SpringBootTest(classes = FrameworkAutoConfiguration.class)
@@ -26,6 +51,9 @@ public class FileSystemTest {
     @Autowired
     private FileSystem fileSystem;
 
+    @Autowired(required = false)
+    private ReactiveFileSystem reactiveFileSystem;
+
     @Before
     public void before() {}
 
@@ -129,6 +157,189 @@ public class FileSystemTest {
         Assert.assertEquals("你好，Spring Boot。", result);
     }
 
+    @Test
+    public void putFileInputStream() throws Exception {
+        Path source = Files.createTempFile("putFileInputStream", ".txt");
+        Files.write(source, "0123456789".getBytes(StandardCharsets.UTF_8));
+
+        //调用方已经读取的内容不会写入。
+        try (FileInputStream stream = new FileInputStream(source.toFile())) {
+            Assert.assertEquals(2, stream.read(new byte[2]));
+            fileSystem.put("fileInputStream/file.txt", stream);
+        }
+        Assert.assertEquals("23456789", fileSystem.read("fileInputStream/file.txt"));
+
+        //FIFO的size()为0，仍然要读到流末尾。
+        Path fifo = source.resolveSibling(source.getFileName() + ".fifo");
+        boolean created;
+        try {
+            created = 0 == new ProcessBuilder("mkfifo", fifo.toString()).start().waitFor();
+        }
+        catch (IOException e) {
+            created = false;
+        }
+
+        if (created) {
+            Thread writer = new Thread(() -> {
+                try (OutputStream output = Files.newOutputStream(fifo)) {
+                    output.write("fifo".getBytes(StandardCharsets.UTF_8));
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writer.start();
+
+            try (FileInputStream stream = new FileInputStream(fifo.toFile())) {
+                fileSystem.put("fileInputStream/fifo.txt", stream);
+            }
+            writer.join();
+
+            Assert.assertEquals("fifo", fileSystem.read("fileInputStream/fifo.txt"));
+            Files.delete(fifo);
+        }
+
+        Files.delete(source);
+        fileSystem.delete("fileInputStream");
+    }
+
+    @Test
+    public void putSlowStream() throws InvalidFileException {
+        //流末尾之前读到0字节时不能截断。
+        byte[] data = "0123456789".getBytes(StandardCharsets.UTF_8);
+        InputStream stream = new ByteArrayInputStream(data) {
+            private boolean stall;
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                stall = !stall;
+                return stall && len > 0 ? 0 : super.read(b, off, Math.min(len, 3));
+            }
+        };
+
+        fileSystem.put("slowStream/file.txt", stream);
+        Assert.assertEquals("0123456789", fileSystem.read("slowStream/file.txt"));
+
+        fileSystem.delete("slowStream");
+    }
+
+    @Test
+    public void putKeepsPermissions() throws IOException, FileSystemException {
+        Assume.assumeTrue(fileSystem instanceof LocalFileSystem);
+        LocalFileSystem localFileSystem = (LocalFileSystem) fileSystem;
+
+        fileSystem.put("permissions/file.txt", "a");
+        Path path = Paths.get(localFileSystem.getWorkingRoot(), "permissions", "file.txt");
+        Assume.assumeNotNull(Files.getFileAttributeView(path, PosixFileAttributeView.class));
+
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        Files.setPosixFilePermissions(path, permissions);
+
+        fileSystem.put("permissions/file.txt", "b");
+        Assert.assertEquals("b", fileSystem.read("permissions/file.txt"));
+        Assert.assertEquals(permissions, Files.getPosixFilePermissions(path));
+
+        fileSystem.delete("permissions");
+    }
+
+    @Test
+    public void appendAcrossChunks() throws InvalidFileException, IOException {
+        String path = "streaming/append.bin";
+        fileSystem.delete(path);
+
+        byte[] expected = new byte[700 * 1024];
+        new Random(3).nextBytes(expected);
+
+        int written = 0;
+        for (int part : new int[]{100, 300 * 1024, 1, 200 * 1024}) {
+            try (OutputStream outputStream = fileSystem.openWriteStream(path)) {
+                outputStream.write(expected, written, part);
+            }
+            written += part;
+
+            Assert.assertEquals(written, fileSystem.meta(path).getSize());
+        }
+
+        try (OutputStream outputStream = fileSystem.openWriteStream(path)) {
+            outputStream.write(expected, written, expected.length - written);
+        }
+
+        try (InputStream inputStream = fileSystem.openReadStream(path)) {
+            Assert.assertArrayEquals(expected, StreamUtils.copyToByteArray(inputStream));
+        }
+        Assert.assertEquals(expected.length, fileSystem.meta(path).getSize());
+
+        fileSystem.delete(path);
+    }
+
+    @Test
+    public void rangedRead() throws InvalidFileException, IOException {
+        String path = "range/digits.txt";
+        fileSystem.put(path, "0123456789");
+
+        try (InputStream inputStream = fileSystem.readRange(path, 3, 4)) {
+            Assert.assertEquals("3456", StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8));
+        }
+
+        try (InputStream inputStream = fileSystem.readRange(path, 7, -1)) {
+            Assert.assertEquals("789", StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8));
+        }
+
+        try (SeekableByteChannel channel = fileSystem.openReadChannel(path)) {
+            Assert.assertEquals(10, channel.size());
+
+            ByteBuffer buffer = ByteBuffer.allocate(2);
+            channel.position(8).read(buffer);
+            Assert.assertEquals("89", new String(buffer.array(), StandardCharsets.UTF_8));
+
+            buffer.clear();
+            channel.position(1).read(buffer);
+            Assert.assertEquals("12", new String(buffer.array(), StandardCharsets.UTF_8));
+        }
+
+        fileSystem.delete(path);
+    }
+
+    @Test
+    public void writeAt() throws InvalidFileException, IOException {
+        String path = "writeAt/digits.txt";
+        fileSystem.put(path, "0123456789");
+
+        fileSystem.writeAt(path, 3, ByteBuffer.wrap("abc".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("012abc6789", fileSystem.read(path));
+
+        fileSystem.writeAt(path, 12, ByteBuffer.wrap("x".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("012abc6789\0\0x", fileSystem.read(path));
+        Assert.assertEquals(13, fileSystem.meta(path).getSize());
+
+        String created = "writeAt/created.txt";
+        fileSystem.delete(created);
+        fileSystem.writeAt(created, 0, ByteBuffer.wrap("new".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("new", fileSystem.read(created));
+
+        //跨越多个存储单元的写入。
+        String large = "writeAt/large.bin";
+        byte[] expected = new byte[600 * 1024];
+        new Random(1).nextBytes(expected);
+        fileSystem.put(large, new ByteArrayInputStream(expected));
+
+        byte[] patch = new byte[300 * 1024];
+        new Random(2).nextBytes(patch);
+        fileSystem.writeAt(large, 200 * 1024, ByteBuffer.wrap(patch));
+        System.arraycopy(patch, 0, expected, 200 * 1024, patch.length);
+
+        fileSystem.writeAt(large, expected.length + 1000, ByteBuffer.wrap(patch, 0, 10));
+        byte[] extended = Arrays.copyOf(expected, expected.length + 1010);
+        System.arraycopy(patch, 0, extended, expected.length + 1000, 10);
+
+        try (InputStream inputStream = fileSystem.openReadStream(large)) {
+            Assert.assertArrayEquals(extended, StreamUtils.copyToByteArray(inputStream));
+        }
+        Assert.assertEquals(extended.length, fileSystem.meta(large).getSize());
+
+        fileSystem.deleteAll(Arrays.asList(path, created, large));
+    }
+
     @Test
     public void writeAndFind() {
         String file = "exists.txt";
@@ -166,6 +377,191 @@ public class FileSystemTest {
         }
     }
 
+    @Test
+    public void reactive() throws InvalidFileException, IOException {
+        Assume.assumeNotNull(reactiveFileSystem);
+
+        String path = "reactive/digits.txt";
+        DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+        Flux<DataBuffer> data = Flux.just("0123", "4567", "89")
+            .map(s -> bufferFactory.wrap(s.getBytes(StandardCharsets.UTF_8)));
+        reactiveFileSystem.put(path, data).block();
+
+        try (InputStream inputStream = fileSystem.openReadStream(path)) {
+            Assert.assertEquals("0123456789", StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8));
+        }
+
+        Assert.assertEquals(Boolean.TRUE, reactiveFileSystem.exists(path).block());
+        Assert.assertEquals(Long.valueOf(10), reactiveFileSystem.meta(path).map(PathMeta::getSize).block());
+        Assert.assertEquals("0123456789", join(reactiveFileSystem.read(path, bufferFactory)));
+        Assert.assertEquals("3456", join(reactiveFileSystem.readRange(path, 3, 4, bufferFactory, 3)));
+        Assert.assertEquals("789", join(reactiveFileSystem.readRange(path, 7, -1, bufferFactory, 3)));
+
+        fileSystem.put(path, "changed");
+        Assert.assertEquals("changed", join(reactiveFileSystem.read(path, bufferFactory)));
+
+        reactiveFileSystem.delete(path).block();
+        Assert.assertEquals(Boolean.FALSE, reactiveFileSystem.exists(path).block());
+
+        try {
+            join(reactiveFileSystem.read(path, bufferFactory));
+            Assert.fail();
+        }
+        catch (RuntimeException e) {
+            Assert.assertTrue(Exceptions.unwrap(e) instanceof InvalidFileException);
+        }
+    }
+
+    private String join(Flux<DataBuffer> flux) {
+        return DataBufferUtils.join(flux)
+            .map(buffer -> {
+                String s = buffer.toString(StandardCharsets.UTF_8);
+                DataBufferUtils.release(buffer);
+                return s;
+            })
+            .defaultIfEmpty("")
+            .block();
+    }
+
+    @Test
+    public void copyAndMove() throws FileSystemException {
+        fileSystem.put("copy/a.txt", "a");
+        fileSystem.put("copy/b.txt", "b");
+
+        fileSystem.copy("copy/a.txt", "copy/c.txt");
+        Assert.assertEquals("a", fileSystem.read("copy/c.txt"));
+        Assert.assertEquals("a", fileSystem.read("copy/a.txt"));
+
+        fileSystem.copy("copy/a.txt", "copy/b.txt", false);
+        Assert.assertEquals("b", fileSystem.read("copy/b.txt"));
+
+        fileSystem.move("copy/c.txt", "copy/d.txt");
+        Assert.assertFalse(fileSystem.exists("copy/c.txt"));
+        Assert.assertEquals("a", fileSystem.read("copy/d.txt"));
+        Assert.assertEquals(1, fileSystem.meta("copy/d.txt").getSize());
+
+        fileSystem.deleteAll(Arrays.asList("copy/a.txt", "copy/b.txt", "copy/d.txt"));
+    }
+
+    @Test
+    public void copyTree() throws FileSystemException {
+        fileSystem.put("copyTree/src/a.txt", "a");
+        fileSystem.put("copyTree/src/b/c.txt", "c");
+        fileSystem.put("copyTree/src/b/d/e.txt", "e");
+
+        fileSystem.copy("copyTree/src", "copyTree/dest");
+        Assert.assertEquals("a", fileSystem.read("copyTree/dest/a.txt"));
+        Assert.assertEquals("c", fileSystem.read("copyTree/dest/b/c.txt"));
+        Assert.assertEquals("e", fileSystem.read("copyTree/dest/b/d/e.txt"));
+        Assert.assertEquals("e", fileSystem.read("copyTree/src/b/d/e.txt"));
+
+        fileSystem.put("copyTree/src/a.txt", "aa");
+        fileSystem.put("copyTree/dest/b/c.txt", "cc");
+        fileSystem.copy("copyTree/src", "copyTree/dest", false);
+        Assert.assertEquals("a", fileSystem.read("copyTree/dest/a.txt"));
+        Assert.assertEquals("cc", fileSystem.read("copyTree/dest/b/c.txt"));
+
+        fileSystem.copy("copyTree/src", "copyTree/dest", true);
+        Assert.assertEquals("aa", fileSystem.read("copyTree/dest/a.txt"));
+        Assert.assertEquals("c", fileSystem.read("copyTree/dest/b/c.txt"));
+
+        fileSystem.delete("copyTree");
+        Assert.assertFalse(fileSystem.exists("copyTree/dest/b/d/e.txt"));
+    }
+
+    @Test
+    public void deepTree() throws FileSystemException {
+        fileSystem.delete("deepTree");
+
+        fileSystem.put("deepTree/1.txt", "1");
+        fileSystem.put("deepTree/a/22.txt", "22");
+        fileSystem.put("deepTree/a/b/333.txt", "333");
+        fileSystem.put("deepTree/a/b/c/4444.txt", "4444");
+        fileSystem.put("deepTreeSibling/x.txt", "x");
+
+        List<String> files = fileSystem.files("deepTree", true).map(PathMeta::getPath).sorted().collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("/deepTree/1.txt", "/deepTree/a/22.txt", "/deepTree/a/b/333.txt", "/deepTree/a/b/c/4444.txt"), files);
+
+        files = fileSystem.files("deepTree", "33", true).map(PathMeta::getPath).collect(Collectors.toList());
+        Assert.assertEquals(Collections.singletonList("/deepTree/a/b/333.txt"), files);
+
+        files = fileSystem.files("deepTree", null, true, 1, 2, PathMetaSort.SizeDesc).map(PathMeta::getPath).collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("/deepTree/a/b/333.txt", "/deepTree/a/22.txt"), files);
+
+        List<String> directories = fileSystem.directories("deepTree", "b", true).map(PathMeta::getPath).collect(Collectors.toList());
+        Assert.assertEquals(Collections.singletonList("/deepTree/a/b"), directories);
+
+        fileSystem.delete("deepTree/a");
+        Assert.assertFalse(fileSystem.exists("deepTree/a"));
+        Assert.assertFalse(fileSystem.exists("deepTree/a/b/c/4444.txt"));
+        Assert.assertEquals("1", fileSystem.read("deepTree/1.txt"));
+
+        fileSystem.delete("deepTree");
+        Assert.assertFalse(fileSystem.exists("deepTree"));
+        Assert.assertEquals("x", fileSystem.read("deepTreeSibling/x.txt"));
+
+        fileSystem.delete("deepTreeSibling");
+    }
+
+    @Test
+    public void moveTree() throws FileSystemException {
+        Assume.assumeTrue(fileSystem instanceof LocalFileSystem);
+        LocalFileSystem localFileSystem = (LocalFileSystem) fileSystem;
+
+        fileSystem.put("moveTree/src/a.txt", "a");
+        fileSystem.put("moveTree/src/b/c.txt", "cc");
+        fileSystem.put("moveTree/dest/b/c.txt", "c");
+
+        List<TreeCopyProgress> reports = new CopyOnWriteArrayList<>();
+        localFileSystem.move("moveTree/src", "moveTree/dest", false, reports::add);
+
+        TreeCopyProgress progress = reports.get(reports.size() - 1);
+        Assert.assertTrue(progress.isDone());
+        Assert.assertEquals(2, progress.getTotalFiles());
+        Assert.assertEquals(3, progress.getDoneBytes());
+
+        Assert.assertEquals("a", fileSystem.read("moveTree/dest/a.txt"));
+        Assert.assertEquals("c", fileSystem.read("moveTree/dest/b/c.txt"));
+        Assert.assertFalse(fileSystem.exists("moveTree/src/a.txt"));
+        Assert.assertTrue(fileSystem.exists("moveTree/src/b/c.txt"));
+
+        localFileSystem.move("moveTree/dest", "moveTree/renamed", false, null);
+        Assert.assertFalse(fileSystem.exists("moveTree/dest"));
+        Assert.assertEquals("c", fileSystem.read("moveTree/renamed/b/c.txt"));
+
+        fileSystem.delete("moveTree");
+    }
+
+    @Test
+    public void directories() throws InvalidFileException, PathNotFoundException {
+        fileSystem.put("tree/a/b/c.txt", "c");
+        fileSystem.put("tree/d/e.txt", "e");
+
+        List<String> directories = fileSystem.directories("tree", true).map(PathMeta::getPath).sorted().collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("/tree/a", "/tree/a/b", "/tree/d"), directories);
+
+        directories = fileSystem.directories("tree").map(PathMeta::getPath).sorted().collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("/tree/a", "/tree/d"), directories);
+    }
+
+    @Test
+    public void batch() throws InvalidFileException {
+        Map<String, InputStream> streams = new HashMap<>();
+        streams.put("batch/a.txt", new ByteArrayInputStream("a".getBytes(StandardCharsets.UTF_8)));
+        streams.put("batch/b/c.txt", new ByteArrayInputStream("cc".getBytes(StandardCharsets.UTF_8)));
+        fileSystem.putAll(streams);
+
+        Map<String, ? extends PathMeta> metas = fileSystem.metas(Arrays.asList("batch/a.txt", "batch/b/c.txt", "batch/missing.txt"));
+        Assert.assertEquals(2, metas.size());
+        Assert.assertEquals(1, metas.get("batch/a.txt").getSize());
+        Assert.assertEquals(2, metas.get("batch/b/c.txt").getSize());
+
+        fileSystem.deleteAll(streams.keySet());
+        Assert.assertFalse(fileSystem.exists("batch/a.txt"));
+        Assert.assertFalse(fileSystem.exists("batch/b/c.txt"));
+    }
+
     @Test
     public void createSymbolicLink() {
         try {
@@ -231,4 +627,47 @@ public class FileSystemTest {
         fileSystem.delete(target);
     }
 
+    @Test
+    public void watch() throws Exception {
+        Assume.assumeTrue(fileSystem instanceof LocalFileSystem);
+
+        fileSystem.delete("watch");
+        fileSystem.createDirectory("watch");
+
+        List<PathEvent> events = new CopyOnWriteArrayList<>();
+        Disposable disposable = fileSystem.watch("watch", true).subscribe(events::add);
+
+        try {
+            fileSystem.put("watch/a.txt", "a");
+            fileSystem.createDirectory("watch/sub");
+            fileSystem.put("watch/sub/b.txt", "b");
+            fileSystem.delete("watch/a.txt");
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (System.currentTimeMillis() < deadline && events.stream().noneMatch(e -> PathEvent.Type.Delete == e.getType() && "/watch/a.txt".equals(e.getPath()))) {
+                Thread.sleep(50);
+            }
+            while (System.currentTimeMillis() < deadline && events.stream().noneMatch(e -> "/watch/sub/b.txt".equals(e.getPath()))) {
+                Thread.sleep(50);
+            }
+
+            Assert.assertTrue(events.stream().anyMatch(e -> PathEvent.Type.Create == e.getType() && "/watch/a.txt".equals(e.getPath())));
+            Assert.assertTrue(events.stream().anyMatch(e -> PathEvent.Type.Create == e.getType() && "/watch/sub".equals(e.getPath())));
+            Assert.assertTrue(events.stream().anyMatch(e -> "/watch/sub/b.txt".equals(e.getPath())));
+            Assert.assertTrue(events.stream().anyMatch(e -> PathEvent.Type.Delete == e.getType() && "/watch/a.txt".equals(e.getPath())));
+            Assert.assertTrue(events.stream().noneMatch(e -> e.getPath().endsWith(".sq_tmp")));
+        }
+        finally {
+            disposable.dispose();
+            fileSystem.delete("watch");
+        }
+
+        try {
+            fileSystem.watch("watch-not-exists", false).blockFirst();
+            Assert.fail();
+        }
+        catch (RuntimeException e) {
+            Assert.assertTrue(Exceptions.unwrap(e) instanceof PathNotFoundException);
+        }
+    }
 }
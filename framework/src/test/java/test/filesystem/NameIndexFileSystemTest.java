@@ -0,0 +1,137 @@
+package test.filesystem;
+
+import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
+import me.insidezhou.southernquiet.filesystem.FileSystem;
+import me.insidezhou.southernquiet.filesystem.FileSystemException;
+import me.insidezhou.southernquiet.filesystem.NormalizedPath;
+import me.insidezhou.southernquiet.filesystem.PathMeta;
+import me.insidezhou.southernquiet.filesystem.driver.LocalFileSystem;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.SystemPropertyUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@SpringBootTest(
+    classes = FrameworkAutoConfiguration.class,
+    properties = "southern-quiet.framework.file-system.local.name-index.enable=true"
+)
+@RunWith(SpringRunner.class)
+public class NameIndexFileSystemTest {
+    @Autowired
+    private FileSystem fileSystem;
+
+    @Test
+    public void search() throws Exception {
+        LocalFileSystem localFileSystem = awaitReady();
+
+        fileSystem.delete("nameIndex");
+        fileSystem.put("nameIndex/report-2020.txt", "a");
+        fileSystem.put("nameIndex/sub/report-2021.txt", "b");
+        fileSystem.put("nameIndex/sub/other.txt", "c");
+        fileSystem.createDirectory("nameIndex/reports");
+
+        Assert.assertEquals(Arrays.asList("/nameIndex/report-2020.txt", "/nameIndex/sub/report-2021.txt"), search("nameIndex", "report-", true));
+        Assert.assertEquals(Collections.singletonList("/nameIndex/report-2020.txt"), search("nameIndex", "report-", false));
+        Assert.assertEquals(
+            Collections.singletonList("/nameIndex/reports"),
+            fileSystem.directories("nameIndex", "port", true).map(PathMeta::getPath).collect(Collectors.toList())
+        );
+        assertMatchesWalk("nameIndex", "report-", "port", "other", "txt", "202");
+
+        fileSystem.move("nameIndex/sub", "nameIndex/moved");
+        Assert.assertEquals(Arrays.asList("/nameIndex/moved/report-2021.txt", "/nameIndex/report-2020.txt"), search("nameIndex", "report-", true));
+        assertMatchesWalk("nameIndex", "report-", "sub", "moved", "other", "txt");
+
+        fileSystem.delete("nameIndex/report-2020.txt");
+        Assert.assertEquals(Collections.singletonList("/nameIndex/moved/report-2021.txt"), search("nameIndex", "report-", true));
+        assertMatchesWalk("nameIndex", "report-", "2020", "txt");
+
+        fileSystem.delete("nameIndex");
+        Assert.assertFalse(localFileSystem.getNameIndex().contains(new NormalizedPath("nameIndex/moved")));
+    }
+
+    @Test
+    public void rename() throws Exception {
+        awaitReady();
+
+        fileSystem.delete("nameIndexRename");
+        for (int i = 0; i < 20; ++i) {
+            fileSystem.put("nameIndexRename/dir-" + (i % 4) + "/draft-" + i + ".txt", String.valueOf(i));
+        }
+        assertMatchesWalk("nameIndexRename", "draft", "final", "dir-", "t-1", ".txt");
+
+        for (int i = 0; i < 20; i += 2) {
+            fileSystem.move("nameIndexRename/dir-" + (i % 4) + "/draft-" + i + ".txt", "nameIndexRename/dir-" + (i % 4) + "/final-" + i + ".txt");
+        }
+        fileSystem.move("nameIndexRename/dir-3", "nameIndexRename/renamed-3");
+        assertMatchesWalk("nameIndexRename", "draft", "final", "dir-", "renamed", "t-1", ".txt");
+
+        fileSystem.delete("nameIndexRename/dir-0");
+        fileSystem.delete("nameIndexRename/renamed-3/draft-3.txt");
+        assertMatchesWalk("nameIndexRename", "draft", "final", "dir-", "renamed", "t-1", ".txt");
+
+        fileSystem.delete("nameIndexRename");
+    }
+
+    private LocalFileSystem awaitReady() throws InterruptedException {
+        LocalFileSystem localFileSystem = (LocalFileSystem) fileSystem;
+        while (!localFileSystem.getNameIndex().isReady()) {
+            Thread.sleep(10);
+        }
+
+        return localFileSystem;
+    }
+
+    /**
+     * 索引的搜索结果与直接遍历工作目录的结果一致。
+     */
+    private void assertMatchesWalk(String path, String... searches) throws Exception {
+        LocalFileSystem localFileSystem = (LocalFileSystem) fileSystem;
+        Path root = Paths.get(SystemPropertyUtils.resolvePlaceholders(localFileSystem.getWorkingRoot()));
+
+        for (String search : searches) {
+            Assert.assertTrue(search, localFileSystem.getNameIndex().supports(search));
+
+            for (boolean recursive : new boolean[]{true, false}) {
+                Assert.assertEquals(search, walk(root, path, search, recursive, false), search(path, search, recursive));
+                Assert.assertEquals(
+                    search,
+                    walk(root, path, search, recursive, true),
+                    fileSystem.directories(path, search, recursive).map(PathMeta::getPath).sorted().collect(Collectors.toList())
+                );
+            }
+        }
+    }
+
+    private List<String> walk(Path root, String path, String search, boolean recursive, boolean directory) throws IOException {
+        Path start = root.resolve(path);
+
+        try (Stream<Path> stream = Files.walk(start, recursive ? Integer.MAX_VALUE : 1)) {
+            return stream
+                .filter(p -> !p.equals(start))
+                .filter(p -> directory == Files.isDirectory(p))
+                .filter(p -> p.getFileName().toString().contains(search))
+                .map(p -> FileSystem.PATH_SEPARATOR_STRING + root.relativize(p).toString().replace(File.separatorChar, FileSystem.PATH_SEPARATOR))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private List<String> search(String path, String search, boolean recursive) throws FileSystemException {
+        return fileSystem.files(path, search, recursive).map(PathMeta::getPath).sorted().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,98 @@
+package test.filesystem;
+
+import me.insidezhou.southernquiet.filesystem.driver.ParallelPathWalker;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class ParallelPathWalkerTest {
+    private final static int DIRECTORIES = 4;
+    private final static int FILES_PER_DIRECTORY = 2000;
+
+    private ForkJoinPool pool;
+    private ParallelPathWalker walker;
+    private Path root;
+
+    @Before
+    public void before() throws IOException {
+        pool = new ForkJoinPool(2);
+        walker = new ParallelPathWalker(pool);
+        root = Files.createTempDirectory("ParallelPathWalkerTest");
+
+        for (int i = 0; i < DIRECTORIES; ++i) {
+            Path directory = Files.createDirectories(root.resolve("dir_" + i).resolve("sub"));
+            for (int j = 0; j < FILES_PER_DIRECTORY; ++j) {
+                Files.createFile(directory.resolve("file_" + j));
+            }
+        }
+    }
+
+    @After
+    public void after() throws IOException {
+        pool.shutdownNow();
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Test
+    public void walk() throws IOException {
+        Set<Path> paths = Set.copyOf(walker.walk(root, true, (path, attributes) -> path));
+        Assert.assertEquals(DIRECTORIES * (FILES_PER_DIRECTORY + 2), paths.size());
+
+        Assert.assertEquals(DIRECTORIES, walker.walk(root, false, (path, attributes) -> path).size());
+    }
+
+    @Test
+    public void lazyStream() {
+        AtomicInteger mapped = new AtomicInteger();
+
+        //结果远多于队列容量，未读取时遍历暂停。
+        try (Stream<Path> stream = walker.stream(root, true, (path, attributes) -> {
+            mapped.incrementAndGet();
+            return path;
+        })) {
+            Assert.assertTrue(stream.findFirst().isPresent());
+            Assert.assertTrue(mapped.get() < DIRECTORIES * FILES_PER_DIRECTORY);
+        }
+
+        //关闭后暂停的任务结束，线程池仍然可用。
+        try (Stream<Path> stream = walker.stream(root, true, (path, attributes) -> attributes.isRegularFile() ? path : null)) {
+            Assert.assertEquals(DIRECTORIES * FILES_PER_DIRECTORY, stream.collect(Collectors.toSet()).size());
+        }
+    }
+
+    @Test
+    public void parallel() {
+        try (Stream<Path> stream = walker.stream(root, true, (path, attributes) -> attributes.isRegularFile() ? path : null)) {
+            Assert.assertNotNull(stream.spliterator().trySplit());
+        }
+
+        try (Stream<Path> stream = walker.stream(root, true, (path, attributes) -> attributes.isRegularFile() ? path : null)) {
+            Assert.assertEquals(DIRECTORIES * FILES_PER_DIRECTORY, stream.parallel().collect(Collectors.toSet()).size());
+        }
+    }
+
+    @Test
+    public void mapperFailure() {
+        try (Stream<Path> stream = walker.stream(root, true, (path, attributes) -> {
+            throw new UncheckedIOException(new IOException(path.toString()));
+        })) {
+            stream.count();
+            Assert.fail();
+        }
+        catch (UncheckedIOException e) {
+            Assert.assertNotNull(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package test.filesystem;
+
+import me.insidezhou.southernquiet.filesystem.NormalizedPath;
+import me.insidezhou.southernquiet.filesystem.PathMeta;
+import me.insidezhou.southernquiet.filesystem.driver.PathMetaCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class PathMetaCacheTest {
+    private Path root;
+    private PathMetaCache cache;
+
+    @Before
+    public void before() throws IOException {
+        root = Files.createTempDirectory("PathMetaCacheTest");
+        cache = new PathMetaCache(
+            root,
+            100,
+            normalizedPath -> root.resolve(normalizedPath.toString().substring(1)),
+            path -> new NormalizedPath(root.relativize(path).toString())
+        );
+    }
+
+    @After
+    public void after() throws IOException {
+        cache.close();
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Test
+    public void changeDuringLoad() throws Exception {
+        Path file = Files.createDirectories(root.resolve("dir")).resolve("a.txt");
+        Files.write(file, new byte[1]);
+        NormalizedPath normalizedPath = new NormalizedPath("dir/a.txt");
+
+        //加载完成之后、缓存之前被修改。
+        AtomicInteger loads = new AtomicInteger();
+        PathMeta meta = cache.get(normalizedPath, () -> {
+            PathMeta loaded = load(file).get();
+            if (1 == loads.incrementAndGet()) write(file, new byte[2]);
+            return loaded;
+        });
+        Assert.assertEquals(1, meta.getSize());
+
+        Assert.assertEquals(2, awaitSize(normalizedPath, load(file), 2));
+    }
+
+    @Test
+    public void directoryChangeDuringLoad() throws Exception {
+        Path directory = Files.createDirectories(root.resolve("dir"));
+        Files.setLastModifiedTime(directory, FileTime.fromMillis(0));
+        NormalizedPath normalizedPath = new NormalizedPath("dir");
+
+        //第一次监听目录自身之前，其中新增了文件。
+        AtomicInteger loads = new AtomicInteger();
+        PathMeta meta = cache.get(normalizedPath, () -> {
+            PathMeta loaded = load(directory).get();
+            if (1 == loads.incrementAndGet()) write(directory.resolve("a.txt"), new byte[1]);
+            return loaded;
+        });
+
+        Assert.assertEquals(2, loads.get());
+        Assert.assertNotEquals(0, meta.getLastModifiedTime().toEpochMilli());
+    }
+
+    private long awaitSize(NormalizedPath normalizedPath, Supplier<PathMeta> loader, long expected) throws InterruptedException {
+        long size = -1;
+        for (int i = 0; i < 100 && size != expected; ++i) {
+            Thread.sleep(50);
+            size = cache.get(normalizedPath, loader).getSize();
+        }
+
+        return size;
+    }
+
+    private Supplier<PathMeta> load(Path path) {
+        return () -> {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+                PathMeta meta = new PathMeta(root.relativize(path).toString());
+                meta.setDirectory(attributes.isDirectory());
+                meta.setSize(attributes.size());
+                meta.setLastModifiedTime(attributes.lastModifiedTime().toInstant());
+                return meta;
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private void write(Path path, byte[] data) {
+        try {
+            Files.write(path, data);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package test.filesystem;
+
+import me.insidezhou.southernquiet.filesystem.FileSystem;
+import me.insidezhou.southernquiet.filesystem.PathMeta;
+import me.insidezhou.southernquiet.filesystem.PathMetaSort;
+import me.insidezhou.southernquiet.logging.SouthernQuietLogger;
+import me.insidezhou.southernquiet.logging.SouthernQuietLoggerFactory;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class PathMetaSortTest {
+    private final static SouthernQuietLogger log = SouthernQuietLoggerFactory.getLogger(PathMetaSortTest.class);
+
+    /**
+     * 设置此系统属性为true时才运行耗时的性能对比，例如gradle test -Dsouthern-quiet.benchmark=true。
+     */
+    private final static String BENCHMARK_PROPERTY = "southern-quiet.benchmark";
+
+    @Test
+    public void topMatchesFullSort() {
+        List<PathMeta> metas = generate(10_000, 100);
+
+        for (PathMetaSort sort : PathMetaSort.values()) {
+            List<String> expected = FileSystem.sort(metas.stream(), sort).skip(40).limit(20).map(PathMeta::getPath).collect(Collectors.toList());
+            List<String> actual = FileSystem.sort(metas.stream(), sort, 40, 20).map(PathMeta::getPath).collect(Collectors.toList());
+
+            Assert.assertEquals(sort.name(), expected, actual);
+        }
+    }
+
+    @Test
+    public void noLimit() {
+        List<PathMeta> metas = generate(1000, 10);
+
+        Assert.assertEquals(990, FileSystem.sort(metas.stream(), PathMetaSort.SizeDesc, 10, -1).count());
+        Assert.assertEquals(5, FileSystem.sort(metas.stream(), null, 10, 5).count());
+    }
+
+    /**
+     * 对比{@link FileSystem#sort(Stream, PathMetaSort, int, int)}的有界堆与完整排序后再分页的耗时。
+     */
+    @Test
+    public void benchmark() {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+
+        int total = 500_000;
+        int offset = 100;
+        int limit = 20;
+
+        List<PathMeta> metas = generate(total, total);
+        Supplier<Stream<PathMeta>> source = metas::stream;
+
+        for (int i = 0; i < 3; ++i) {
+            long start = System.nanoTime();
+            List<PathMeta> fullSorted = FileSystem.sort(source.get(), PathMetaSort.LastModifiedTimeDesc).skip(offset).limit(limit).collect(Collectors.toList());
+            long fullSortNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<PathMeta> topSorted = FileSystem.sort(source.get(), PathMetaSort.LastModifiedTimeDesc, offset, limit).collect(Collectors.toList());
+            long topNanos = System.nanoTime() - start;
+
+            Assert.assertEquals(fullSorted, topSorted);
+
+            log.message("目录排序分页")
+                .context("total", total)
+                .context("offset", offset)
+                .context("limit", limit)
+                .context("fullSortMillis", fullSortNanos / 1_000_000)
+                .context("boundedHeapMillis", topNanos / 1_000_000)
+                .info();
+        }
+    }
+
+    private List<PathMeta> generate(int count, int distinctValues) {
+        Random random = new Random(count);
+        Instant now = Instant.now();
+
+        return IntStream.range(0, count)
+            .mapToObj(i -> {
+                PathMeta meta = new PathMeta("/sort/file_" + i);
+                meta.setDirectory(random.nextBoolean());
+                meta.setSize(random.nextInt(distinctValues));
+                meta.setCreationTime(now.minusSeconds(random.nextInt(distinctValues)));
+                meta.setLastModifiedTime(now.minusSeconds(random.nextInt(distinctValues)));
+                meta.setLastAccessTime(now.minusSeconds(random.nextInt(distinctValues)));
+                return meta;
+            })
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,149 @@
+package test.filesystem;
+
+import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
+import me.insidezhou.southernquiet.filesystem.FileSystem;
+import me.insidezhou.southernquiet.filesystem.FileSystemException;
+import me.insidezhou.southernquiet.filesystem.PathMeta;
+import me.insidezhou.southernquiet.filesystem.driver.LocalFileSystem;
+import me.insidezhou.southernquiet.filesystem.driver.ShardedLocalFileSystem;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+@SpringBootTest(
+    classes = FrameworkAutoConfiguration.class,
+    properties = {
+        "southern-quiet.framework.file-system.local.sharding.enable=true",
+        "southern-quiet.framework.file-system.local.sharding.working-roots[0]=${user.home}/.SQ_FILESYSTEM_SHARD_0",
+        "southern-quiet.framework.file-system.local.sharding.working-roots[1]=${user.home}/.SQ_FILESYSTEM_SHARD_1",
+    }
+)
+@RunWith(SpringRunner.class)
+public class ShardedLocalFileSystemTest {
+    @Autowired
+    private FileSystem fileSystem;
+
+    @Test
+    public void placement() throws FileSystemException {
+        ShardedLocalFileSystem shardedFileSystem = (ShardedLocalFileSystem) fileSystem;
+        fileSystem.delete("placement");
+
+        List<String> paths = IntStream.range(0, 64).mapToObj(i -> "placement/" + i + ".txt").collect(Collectors.toList());
+        for (String path : paths) {
+            fileSystem.put(path, path);
+        }
+
+        for (String path : paths) {
+            assertOnlyOnShard(shardedFileSystem, path);
+        }
+
+        for (LocalFileSystem shard : shardedFileSystem.getShards()) {
+            Assert.assertTrue(shard.files("placement").count() > 0);
+        }
+        Assert.assertEquals(paths.size(), fileSystem.files("placement").count());
+
+        fileSystem.delete("placement");
+    }
+
+    @Test
+    public void rebalance() throws Exception {
+        ShardedLocalFileSystem shardedFileSystem = (ShardedLocalFileSystem) fileSystem;
+        fileSystem.delete("rebalance");
+
+        List<String> paths = IntStream.range(0, 64).mapToObj(i -> "rebalance/" + i + ".txt").collect(Collectors.toList());
+        for (String path : paths) {
+            fileSystem.put(path, path);
+        }
+
+        for (LocalFileSystem shard : shardedFileSystem.getShards()) {
+            Assert.assertTrue(shard.files("rebalance").count() > 0);
+        }
+
+        String workingRoot = System.getProperty("user.home") + "/.SQ_FILESYSTEM_SHARD_2";
+        shardedFileSystem.addWorkingRoot(workingRoot).get();
+
+        LocalFileSystem added = shardedFileSystem.getShards().get(shardedFileSystem.getShards().size() - 1);
+        Assert.assertTrue(added.files("rebalance").count() > 0);
+
+        for (String path : paths) {
+            Assert.assertSame(shardedFileSystem.getShard(path), shardedFileSystem.getShards().stream().filter(shard -> shard.exists(path)).findFirst().orElse(null));
+            Assert.assertEquals(path, fileSystem.read(path));
+        }
+
+        Assert.assertEquals(paths.size(), fileSystem.files("rebalance").map(PathMeta::getPath).distinct().count());
+
+        fileSystem.delete("rebalance");
+    }
+
+    @Test
+    public void moveAcrossShards() throws FileSystemException {
+        fileSystem.delete("shardMove");
+
+        IntStream.range(0, 16).forEach(i -> {
+            try {
+                fileSystem.put("shardMove/src/" + i + "/" + i + ".txt", String.valueOf(i));
+            }
+            catch (FileSystemException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        fileSystem.move("shardMove/src", "shardMove/dest");
+
+        ShardedLocalFileSystem shardedFileSystem = (ShardedLocalFileSystem) fileSystem;
+        Assert.assertFalse(fileSystem.exists("shardMove/src"));
+        for (int i = 0; i < 16; ++i) {
+            Assert.assertFalse(fileSystem.exists("shardMove/src/" + i + "/" + i + ".txt"));
+            Assert.assertEquals(String.valueOf(i), fileSystem.read("shardMove/dest/" + i + "/" + i + ".txt"));
+            assertOnlyOnShard(shardedFileSystem, "shardMove/dest/" + i + "/" + i + ".txt");
+        }
+        Assert.assertEquals(16, fileSystem.directories("shardMove/dest").count());
+
+        fileSystem.delete("shardMove");
+    }
+
+    @Test
+    public void copyAcrossShards() throws FileSystemException {
+        ShardedLocalFileSystem shardedFileSystem = (ShardedLocalFileSystem) fileSystem;
+        fileSystem.delete("shardCopy");
+
+        for (int i = 0; i < 16; ++i) {
+            fileSystem.put("shardCopy/src/" + i + ".txt", String.valueOf(i));
+        }
+
+        String source = IntStream.range(0, 16)
+            .mapToObj(i -> "shardCopy/src/" + i + ".txt")
+            .filter(path -> shardedFileSystem.getShard(path) != shardedFileSystem.getShard(path.replace("/src/", "/dest/")))
+            .findFirst()
+            .orElseThrow();
+        String destination = source.replace("/src/", "/dest/");
+
+        fileSystem.copy(source, destination);
+        Assert.assertEquals(fileSystem.read(source), fileSystem.read(destination));
+        assertOnlyOnShard(shardedFileSystem, source);
+        assertOnlyOnShard(shardedFileSystem, destination);
+
+        fileSystem.copy("shardCopy/src", "shardCopy/dest", true);
+        for (int i = 0; i < 16; ++i) {
+            Assert.assertEquals(String.valueOf(i), fileSystem.read("shardCopy/src/" + i + ".txt"));
+            Assert.assertEquals(String.valueOf(i), fileSystem.read("shardCopy/dest/" + i + ".txt"));
+            assertOnlyOnShard(shardedFileSystem, "shardCopy/dest/" + i + ".txt");
+        }
+
+        fileSystem.delete("shardCopy");
+    }
+
+    private void assertOnlyOnShard(ShardedLocalFileSystem shardedFileSystem, String path) {
+        LocalFileSystem expected = shardedFileSystem.getShard(path);
+        for (LocalFileSystem shard : shardedFileSystem.getShards()) {
+            Assert.assertEquals(path, shard == expected, shard.exists(path));
+        }
+    }
+}
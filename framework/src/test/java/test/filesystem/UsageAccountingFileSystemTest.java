@@ -0,0 +1,177 @@
+package test.filesystem;
+
+import me.insidezhou.southernquiet.FrameworkAutoConfiguration;
+import me.insidezhou.southernquiet.filesystem.*;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+@SpringBootTest(
+    classes = FrameworkAutoConfiguration.class,
+    properties = {
+        "southern-quiet.framework.file-system.usage.enable=true",
+        "southern-quiet.framework.file-system.usage.quotas.[/quota]=10B",
+    }
+)
+@RunWith(SpringRunner.class)
+public class UsageAccountingFileSystemTest {
+    @Autowired
+    private FileSystem fileSystem;
+
+    @Test
+    public void put() throws FileSystemException {
+        UsageAccountingFileSystem usageFileSystem = (UsageAccountingFileSystem) fileSystem;
+        fileSystem.delete("usage-put");
+
+        fileSystem.put("usage-put/a/1.txt", "12345");
+        fileSystem.put("usage-put/b.txt", "123");
+        assertUsage(8, 2, usageFileSystem.getUsage("usage-put"));
+        assertUsage(5, 1, usageFileSystem.getUsage("usage-put/a"));
+        assertUsage(3, 1, usageFileSystem.getUsage("usage-put/b.txt"));
+
+        fileSystem.put("usage-put/b.txt", "1");
+        assertUsage(6, 2, usageFileSystem.getUsage("usage-put"));
+
+        fileSystem.copy("usage-put/a", "usage-put/c");
+        assertUsage(11, 3, usageFileSystem.getUsage("usage-put"));
+
+        fileSystem.move("usage-put/c", "usage-put/d");
+        assertUsage(11, 3, usageFileSystem.getUsage("usage-put"));
+        assertUsage(0, 0, usageFileSystem.getUsage("usage-put/c"));
+        assertUsage(5, 1, usageFileSystem.getUsage("usage-put/d"));
+
+        fileSystem.delete("usage-put");
+    }
+
+    @Test
+    public void append() throws FileSystemException, IOException {
+        UsageAccountingFileSystem usageFileSystem = (UsageAccountingFileSystem) fileSystem;
+        fileSystem.delete("usage-append");
+
+        fileSystem.put("usage-append/a.txt", "1");
+        assertUsage(1, 1, usageFileSystem.getUsage("usage-append"));
+
+        try (OutputStream outputStream = fileSystem.openWriteStream("usage-append/a.txt")) {
+            outputStream.write("xy".getBytes(StandardCharsets.UTF_8));
+        }
+        assertUsage(3, 1, usageFileSystem.getUsage("usage-append"));
+
+        try (OutputStream outputStream = fileSystem.openWriteStream("usage-append/b.txt")) {
+            outputStream.write("xyz".getBytes(StandardCharsets.UTF_8));
+        }
+        assertUsage(6, 2, usageFileSystem.getUsage("usage-append"));
+
+        fileSystem.writeAt("usage-append/a.txt", 1, ByteBuffer.wrap("abcd".getBytes(StandardCharsets.UTF_8)));
+        assertUsage(8, 2, usageFileSystem.getUsage("usage-append"));
+
+        fileSystem.writeAt("usage-append/a.txt", 0, ByteBuffer.wrap("A".getBytes(StandardCharsets.UTF_8)));
+        assertUsage(8, 2, usageFileSystem.getUsage("usage-append"));
+
+        fileSystem.delete("usage-append");
+    }
+
+    @Test
+    public void delete() throws FileSystemException {
+        UsageAccountingFileSystem usageFileSystem = (UsageAccountingFileSystem) fileSystem;
+        fileSystem.delete("usage-delete");
+
+        fileSystem.put("usage-delete/a/1.txt", "12345");
+        fileSystem.put("usage-delete/a/2.txt", "12");
+        fileSystem.put("usage-delete/b.txt", "123");
+        assertUsage(10, 3, usageFileSystem.getUsage("usage-delete"));
+
+        fileSystem.delete("usage-delete/a/2.txt");
+        assertUsage(8, 2, usageFileSystem.getUsage("usage-delete"));
+
+        fileSystem.delete("usage-delete/a");
+        assertUsage(3, 1, usageFileSystem.getUsage("usage-delete"));
+        assertUsage(0, 0, usageFileSystem.getUsage("usage-delete/a"));
+
+        fileSystem.deleteAll(Collections.singletonList("usage-delete/b.txt"));
+        assertUsage(0, 0, usageFileSystem.getUsage("usage-delete"));
+
+        fileSystem.delete("usage-delete");
+    }
+
+    @Test
+    public void rebuild() throws Exception {
+        UsageAccountingFileSystem usageFileSystem = (UsageAccountingFileSystem) fileSystem;
+        FileSystem storage = usageFileSystem.getDelegate();
+        fileSystem.delete("usage-rebuild");
+
+        fileSystem.put("usage-rebuild/a.txt", "12345");
+        storage.put("usage-rebuild/b/1.txt", "123");
+        assertUsage(5, 1, usageFileSystem.getUsage("usage-rebuild"));
+
+        usageFileSystem.rebuild();
+        assertUsage(8, 2, usageFileSystem.getUsage("usage-rebuild"));
+        assertUsage(3, 1, usageFileSystem.getUsage("usage-rebuild/b"));
+
+        long total;
+        try (Stream<? extends PathMeta> stream = fileSystem.files("/", true)) {
+            total = stream.mapToLong(PathMeta::getSize).sum();
+        }
+        Assert.assertEquals(total, usageFileSystem.getUsage("/").getBytes());
+
+        //启动时的后台统计。
+        UsageAccountingFileSystem started = new UsageAccountingFileSystem(storage, new FrameworkAutoConfiguration.UsageAccountingFileSystemProperties());
+        assertUsage(8, 2, started.getUsage("usage-rebuild"));
+        Assert.assertEquals(total, started.getUsage("/").getBytes());
+
+        fileSystem.delete("usage-rebuild");
+    }
+
+    @Test
+    public void quota() throws FileSystemException {
+        fileSystem.delete("quota");
+
+        fileSystem.put("quota/a.txt", "12345678");
+
+        try {
+            fileSystem.put("quota/b.txt", "123");
+            Assert.fail();
+        }
+        catch (QuotaExceededException ignored) {
+        }
+        Assert.assertFalse(fileSystem.exists("quota/b.txt"));
+
+        fileSystem.put("quota/a.txt", "1234567890");
+        Assert.assertEquals("1234567890", fileSystem.read("quota/a.txt"));
+
+        try {
+            fileSystem.copy("quota/a.txt", "quota/c.txt");
+            Assert.fail();
+        }
+        catch (QuotaExceededException ignored) {
+        }
+
+        try {
+            fileSystem.writeAt("quota/a.txt", 8, ByteBuffer.wrap("123".getBytes(StandardCharsets.UTF_8)));
+            Assert.fail();
+        }
+        catch (QuotaExceededException ignored) {
+        }
+        fileSystem.writeAt("quota/a.txt", 7, ByteBuffer.wrap("abc".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("1234567abc", fileSystem.read("quota/a.txt"));
+
+        fileSystem.move("quota/a.txt", "quota/d.txt");
+        Assert.assertEquals(10, ((UsageAccountingFileSystem) fileSystem).getUsage("quota").getBytes());
+
+        fileSystem.delete("quota");
+    }
+
+    private void assertUsage(long bytes, long files, UsageAccountingFileSystem.Usage usage) {
+        Assert.assertEquals(bytes, usage.getBytes());
+        Assert.assertEquals(files, usage.getFiles());
+    }
+}